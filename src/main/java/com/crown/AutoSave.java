@@ -0,0 +1,550 @@
+package com.crown;
+
+import com.crown.maps.Map;
+import com.crown.maps.MapFile;
+import com.crown.maps.MapObject;
+import com.crown.maps.MapObjectCodec;
+import com.crown.time.VirtualClock;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Incremental autosave of a game state into a log-structured file.
+ * Each save appends records only for map chunks changed since the previous save
+ * (see {@link Map#getChangedChunks}) and for changed players, followed by a commit
+ * record, and forces them to the disk. Records without a commit (e.g. torn by a crash)
+ * are dropped on opening, so a crash loses changes made after the last save only.
+ * Log is compacted in background when it grows twice over its compacted size:
+ * latest records are copied into a new file, which then replaces the log atomically.
+ * <p>
+ * Layout is the header (magic, version, map size) followed by records,
+ * each of them being type, payload length, payload and CRC32 of type and payload.
+ * Chunk record holds chunk number and objects owned by the chunk (see {@link MapFile#writeChunk}),
+ * players record holds players (see {@link BaseGameState#save(WritableByteChannel, MapObjectCodec)}).
+ * <p>
+ * Players are compared with the previous save by checksums of their codec bytes,
+ * a changed player placed on the map makes its chunk saved.
+ * Other objects are saved when their chunks are changed only.
+ * Map is read without locking, so saves are run by the thread changing the game state,
+ * e.g. on ticks of the virtual clock (see {@link #attach}).
+ */
+public class AutoSave implements Closeable {
+    public static final int MAGIC = 0x4352414c; // "CRAL"
+    public static final short VERSION = 1;
+
+    private static final int HEADER_SIZE = 4 + 2 + 3 * 4;
+    private static final int RECORD_HEADER_SIZE = 1 + 4;
+    private static final int CRC_SIZE = 4;
+    private static final long MIN_COMPACT_SIZE = 1 << 20;
+
+    private static final byte CHUNK = 1;
+    private static final byte PLAYERS = 2;
+    private static final byte COMMIT = 3;
+
+    private final BaseGameState state;
+    private final Map map;
+    private final Path file;
+    private final MapObjectCodec codec;
+    private FileChannel channel;
+
+    // positions of the latest committed records, -1 if there is none
+    private long[] chunkRecords;
+    private long playersRecord = -1;
+    private long end = HEADER_SIZE;
+    private long compactedSize;
+    private Thread compaction;
+    private final Object compactionLock = new Object();
+
+    private long savedVersion = Long.MIN_VALUE;
+    private int playersChecksum;
+    private HashMap<UUID, Integer> playerChecksums = new HashMap<>();
+
+    private final RecordBuffer bytes = new RecordBuffer();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+
+    private VirtualClock clock;
+    private Runnable tickListener;
+    private int ticks;
+    private volatile IOException lastError;
+
+    private AutoSave(BaseGameState state, Path file, MapObjectCodec codec) {
+        this.state = state;
+        this.map = state.getGlobalMap();
+        this.file = file;
+        this.codec = codec;
+        if (map.isStreaming()) {
+            throw new IllegalStateException("Streaming map is saved by its chunk store");
+        }
+        chunkRecords = new long[map.getChunksCount()];
+        Arrays.fill(chunkRecords, -1);
+    }
+
+    /**
+     * Opens autosave in given file. If the file exists, its last committed save
+     * is loaded into given state, which must have an empty global map of the same size.
+     * Otherwise, the file is created with a full save of the state.
+     */
+    public static AutoSave open(BaseGameState state, Path file, MapObjectCodec codec) throws IOException {
+        var autoSave = new AutoSave(state, file, codec);
+        try {
+            if (Files.exists(file)) {
+                autoSave.recover();
+            } else {
+                autoSave.create();
+            }
+        } catch (IOException | RuntimeException e) {
+            if (autoSave.channel != null) {
+                autoSave.channel.close();
+            }
+            throw e;
+        }
+        return autoSave;
+    }
+
+    private void create() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        writeHeader(channel);
+        save();
+        compactedSize = end;
+    }
+
+    private void recover() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        var header = readFully(channel, ByteBuffer.allocate(HEADER_SIZE), 0);
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not an autosave file");
+        }
+        short version = header.getShort();
+        if (version > VERSION) {
+            throw new IOException("Unsupported autosave version: " + version);
+        }
+        if (header.getInt() != map.xSize || header.getInt() != map.ySize || header.getInt() != map.zSize) {
+            throw new IOException("Autosave is made for a map of other size");
+        }
+
+        // records are applied to the index on commits, the torn tail is dropped
+        var pendingChunks = new HashMap<Integer, Long>();
+        long pendingPlayers = -1;
+        Record record;
+        for (long pos = HEADER_SIZE; (record = readRecord(channel, pos)) != null; pos = record.next) {
+            switch (record.type) {
+                case CHUNK:
+                    pendingChunks.put(chunkNumberOf(record), pos);
+                    break;
+                case PLAYERS:
+                    pendingPlayers = pos;
+                    break;
+                case COMMIT:
+                    for (var e : pendingChunks.entrySet()) {
+                        chunkRecords[e.getKey()] = e.getValue();
+                    }
+                    pendingChunks.clear();
+                    if (pendingPlayers >= 0) {
+                        playersRecord = pendingPlayers;
+                        pendingPlayers = -1;
+                    }
+                    end = record.next;
+                    break;
+                default:
+                    throw new IOException("Unknown autosave record type: " + record.type);
+            }
+        }
+        channel.truncate(end);
+
+        // players are resolved among loaded objects
+        var loaded = new HashMap<UUID, MapObject>();
+        var collecting = BaseGameState.collecting(codec, loaded);
+        for (long pos : chunkRecords) {
+            if (pos >= 0) {
+                var in = committedRecord(channel, pos).input();
+                in.readInt();
+                MapFile.readChunk(map, in, collecting);
+            }
+        }
+        if (playersRecord >= 0) {
+            state.readPlayers(committedRecord(channel, playersRecord).input(), codec, loaded);
+        }
+
+        savedVersion = map.getVersion();
+        playerChecksums = checkPlayers(null);
+        playersChecksum = checksumPlayers();
+        compactedSize = end;
+    }
+
+    /**
+     * Appends changes made since the previous save, and forces them to the disk.
+     * Starts compaction in background if the log has grown enough.
+     */
+    public synchronized void save() throws IOException {
+        long version = map.getVersion();
+        var dirty = map.getChangedChunks(savedVersion);
+        var checksums = checkPlayers(dirty);
+
+        long pos = end;
+        var written = new HashMap<Integer, Long>();
+        for (int n = dirty.nextSetBit(0); n >= 0; n = dirty.nextSetBit(n + 1)) {
+            bytes.reset();
+            out.writeInt(n);
+            // empty chunk is written only to replace its previous record
+            if (MapFile.writeChunk(map, n, out, codec) == 0 && chunkRecords[n] < 0) {
+                continue;
+            }
+            out.flush();
+            written.put(n, pos);
+            pos = append(channel, pos, CHUNK, bytes.toBuffer());
+        }
+
+        int checksum = checksumPlayers();
+        long players = -1;
+        if (checksum != playersChecksum || playersRecord < 0) {
+            players = pos;
+            pos = append(channel, pos, PLAYERS, bytes.toBuffer());
+        }
+
+        if (pos != end) {
+            pos = append(channel, pos, COMMIT, ByteBuffer.allocate(8).putLong(0, version));
+            channel.force(false);
+            for (var e : written.entrySet()) {
+                chunkRecords[e.getKey()] = e.getValue();
+            }
+            if (players >= 0) {
+                playersRecord = players;
+            }
+            end = pos;
+        }
+        savedVersion = version;
+        playerChecksums = checksums;
+        playersChecksum = checksum;
+
+        if (compaction == null && end > MIN_COMPACT_SIZE && end > 2 * compactedSize) {
+            compaction = new Thread(() -> {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    lastError = e;
+                } finally {
+                    synchronized (AutoSave.this) {
+                        compaction = null;
+                    }
+                }
+            }, "autosave-compaction");
+            compaction.setDaemon(true);
+            compaction.start();
+        }
+    }
+
+    /**
+     * Rewrites the log keeping only the latest records, then replaces the file atomically.
+     * Saves are blocked only while records appended during the rewrite are copied.
+     */
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            long[] records;
+            long players;
+            long from;
+            FileChannel source;
+            synchronized (this) {
+                records = chunkRecords.clone();
+                players = playersRecord;
+                from = end;
+                source = channel;
+            }
+
+            var tmp = file.resolveSibling(file.getFileName() + ".compact");
+            var target = FileChannel.open(
+                tmp,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING
+            );
+            try {
+                var newRecords = new long[records.length];
+                Arrays.fill(newRecords, -1);
+                long pos = writeHeader(target);
+                for (int n = 0; n < records.length; n++) {
+                    if (records[n] < 0) {
+                        continue;
+                    }
+                    var record = committedRecord(source, records[n]);
+                    // chunk that has become empty is dropped
+                    if (record.payload.getInt(4) == 0) {
+                        continue;
+                    }
+                    newRecords[n] = pos;
+                    pos = append(target, pos, CHUNK, record.payload);
+                }
+                long newPlayers = -1;
+                if (players >= 0) {
+                    newPlayers = pos;
+                    pos = append(target, pos, PLAYERS, committedRecord(source, players).payload);
+                }
+                pos = append(target, pos, COMMIT, ByteBuffer.allocate(8));
+
+                synchronized (this) {
+                    // saves committed during the rewrite are copied as they are
+                    for (long p = from; p < end; ) {
+                        var record = committedRecord(channel, p);
+                        if (record.type == CHUNK) {
+                            newRecords[chunkNumberOf(record)] = pos;
+                        } else if (record.type == PLAYERS) {
+                            newPlayers = pos;
+                        }
+                        pos = append(target, pos, record.type, record.payload);
+                        p = record.next;
+                    }
+                    target.force(true);
+                    target.close();
+                    channel.close();
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    chunkRecords = newRecords;
+                    playersRecord = newPlayers;
+                    end = pos;
+                    compactedSize = pos;
+                }
+            } finally {
+                target.close();
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    /**
+     * Saves the state every given count of ticks of the clock.
+     * Errors of these saves are kept (see {@link #getLastError}), so the clock keeps running.
+     */
+    public synchronized void attach(VirtualClock clock, int intervalTicks) {
+        detach();
+        this.clock = clock;
+        ticks = 0;
+        tickListener = () -> {
+            if (++ticks % intervalTicks == 0) {
+                try {
+                    save();
+                } catch (IOException e) {
+                    lastError = e;
+                }
+            }
+        };
+        clock.addTickListener(tickListener);
+    }
+
+    public synchronized void detach() {
+        if (clock != null) {
+            clock.removeTickListener(tickListener);
+            clock = null;
+            tickListener = null;
+        }
+    }
+
+    /**
+     * Returns error of the last failed background save or compaction, or null.
+     */
+    public IOException getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Returns size of committed saves in the log.
+     */
+    public synchronized long getSize() {
+        return end;
+    }
+
+    /**
+     * Detaches from the clock, waits for the running compaction, and closes the file.
+     * Changes made since the last save are not saved.
+     */
+    @Override
+    public void close() throws IOException {
+        detach();
+        Thread running;
+        synchronized (this) {
+            running = compaction;
+        }
+        if (running != null) {
+            try {
+                running.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Returns checksums of players placed on the map, and marks chunks
+     * of those changed since the previous save in given bitmap, if any.
+     */
+    private HashMap<UUID, Integer> checkPlayers(BitSet dirty) throws IOException {
+        var checksums = new HashMap<UUID, Integer>();
+        for (var player : state.players) {
+            if (player.getMap() != map) {
+                continue;
+            }
+            bytes.reset();
+            codec.write(out, player);
+            out.flush();
+            int checksum = bytes.checksum();
+            checksums.put(player.getId(), checksum);
+            var previous = playerChecksums.get(player.getId());
+            if (dirty != null && (previous == null || previous != checksum)) {
+                int n = map.getOwnerChunk(player);
+                if (n >= 0) {
+                    dirty.set(n);
+                }
+            }
+        }
+        return checksums;
+    }
+
+    /**
+     * Writes players into the buffer, and returns their checksum.
+     */
+    private int checksumPlayers() throws IOException {
+        bytes.reset();
+        state.writePlayers(out, codec);
+        out.flush();
+        return bytes.checksum();
+    }
+
+    private long writeHeader(FileChannel target) throws IOException {
+        var header = ByteBuffer.allocate(HEADER_SIZE)
+            .putInt(MAGIC)
+            .putShort(VERSION)
+            .putInt(map.xSize)
+            .putInt(map.ySize)
+            .putInt(map.zSize);
+        writeFully(target, header.flip(), 0);
+        return HEADER_SIZE;
+    }
+
+    private int chunkNumberOf(Record record) throws IOException {
+        int n = record.payload.getInt(0);
+        if (n < 0 || n >= chunkRecords.length) {
+            throw new IOException("Autosave is corrupted: chunk " + n + " is out of map");
+        }
+        return n;
+    }
+
+    /**
+     * Writes a record at given position, and returns position after it.
+     */
+    private static long append(FileChannel target, long pos, byte type, ByteBuffer payload) throws IOException {
+        int length = payload.remaining();
+        var crc = new CRC32();
+        crc.update(type);
+        crc.update(payload.duplicate());
+        writeFully(target, ByteBuffer.allocate(RECORD_HEADER_SIZE).put(type).putInt(length).flip(), pos);
+        writeFully(target, payload.duplicate(), pos + RECORD_HEADER_SIZE);
+        writeFully(target, ByteBuffer.allocate(CRC_SIZE).putInt(0, (int) crc.getValue()), pos + RECORD_HEADER_SIZE + length);
+        return pos + RECORD_HEADER_SIZE + length + CRC_SIZE;
+    }
+
+    /**
+     * Reads the record at given position, or returns null
+     * if it is incomplete or its checksum does not match.
+     */
+    private static Record readRecord(FileChannel source, long pos) throws IOException {
+        long size = source.size();
+        if (pos + RECORD_HEADER_SIZE + CRC_SIZE > size) {
+            return null;
+        }
+        var header = readFully(source, ByteBuffer.allocate(RECORD_HEADER_SIZE), pos);
+        byte type = header.get();
+        int length = header.getInt();
+        long next = pos + RECORD_HEADER_SIZE + length + CRC_SIZE;
+        if (length < 0 || next > size) {
+            return null;
+        }
+        var payload = readFully(source, ByteBuffer.allocate(length), pos + RECORD_HEADER_SIZE);
+        int checksum = readFully(source, ByteBuffer.allocate(CRC_SIZE), pos + RECORD_HEADER_SIZE + length).getInt();
+        var crc = new CRC32();
+        crc.update(type);
+        crc.update(payload.duplicate());
+        return (int) crc.getValue() == checksum ? new Record(type, payload, next) : null;
+    }
+
+    private static Record committedRecord(FileChannel source, long pos) throws IOException {
+        var record = readRecord(source, pos);
+        if (record == null) {
+            throw new IOException("Autosave is corrupted: committed record at " + pos + " is broken");
+        }
+        return record;
+    }
+
+    private static void writeFully(FileChannel target, ByteBuffer buffer, long pos) throws IOException {
+        while (buffer.hasRemaining()) {
+            pos += target.write(buffer, pos);
+        }
+    }
+
+    /**
+     * Fills given buffer from the channel starting at given position, and flips the buffer.
+     */
+    private static ByteBuffer readFully(FileChannel source, ByteBuffer buffer, long pos) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = source.read(buffer, pos);
+            if (read < 0) {
+                throw new EOFException("Autosave is truncated");
+            }
+            pos += read;
+        }
+        return buffer.flip();
+    }
+
+    private static class Record {
+        final byte type;
+        final ByteBuffer payload;
+        final long next;
+
+        Record(byte type, ByteBuffer payload, long next) {
+            this.type = type;
+            this.payload = payload;
+            this.next = next;
+        }
+
+        DataInputStream input() {
+            return new DataInputStream(new ByteArrayInputStream(payload.array(), 0, payload.limit()));
+        }
+    }
+
+    /**
+     * Byte array stream exposing its buffer without copying.
+     */
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        RecordBuffer() {
+            super(4096);
+        }
+
+        ByteBuffer toBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+
+        int checksum() {
+            var crc = new CRC32();
+            crc.update(buf, 0, count);
+            return (int) crc.getValue();
+        }
+    }
+}
@@ -3,8 +3,32 @@ package com.crown;
 import com.crown.common.ObjectsMap;
 import com.crown.creatures.Organism;
 import com.crown.maps.Map;
+import com.crown.maps.MapFile;
+import com.crown.maps.MapObject;
+import com.crown.maps.MapObjectCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.UUID;
 
 public class BaseGameState {
+    public static final int MAGIC = 0x43524753; // "CRGS"
+    public static final short VERSION = 1;
+
     public final ObjectsMap<Organism> players = new ObjectsMap<>();
     private final Map globalMap;
 
@@ -21,4 +45,120 @@ public class BaseGameState {
         c.setKeyName(newName);
         players.add(c);
     }
+
+    /**
+     * Writes this state in a compact binary form:
+     * the global map (see {@link MapFile}) followed by players.
+     * Players placed on the global map are written as references to map objects.
+     * Objects (including stats and inventories of creatures) are written by given codec.
+     */
+    public void save(WritableByteChannel channel, MapObjectCodec codec) throws IOException {
+        var out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.flush();
+        MapFile.save(globalMap, channel, codec);
+
+        writePlayers(out, codec);
+        // channel stays open
+        out.flush();
+    }
+
+    /**
+     * Writes players: ids of those placed on the global map,
+     * and whole objects for the rest of them.
+     */
+    void writePlayers(DataOutput out, MapObjectCodec codec) throws IOException {
+        out.writeInt(players.size());
+        for (var player : players) {
+            boolean onMap = player.getMap() == globalMap;
+            out.writeBoolean(onMap);
+            if (onMap) {
+                MapObjectCodec.writeId(out, player.getId());
+            } else {
+                codec.write(out, player);
+            }
+        }
+    }
+
+    /**
+     * Reads players written by {@link #writePlayers},
+     * looking those placed on the map up among given loaded objects.
+     */
+    void readPlayers(DataInput in, MapObjectCodec codec, HashMap<UUID, MapObject> loaded) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            var player = in.readBoolean() ? loaded.get(MapObjectCodec.readId(in)) : codec.read(in, null);
+            if (!(player instanceof Organism)) {
+                throw new IOException("Player is not found or is not an organism");
+            }
+            players.add((Organism) player);
+        }
+    }
+
+    /**
+     * Wraps given codec to collect objects it reads by their ids.
+     */
+    static MapObjectCodec collecting(MapObjectCodec codec, HashMap<UUID, MapObject> loaded) {
+        return new MapObjectCodec() {
+            @Override
+            public void write(DataOutput out, MapObject mapObj) throws IOException {
+                codec.write(out, mapObj);
+            }
+
+            @Override
+            public MapObject read(DataInput in, Map map) throws IOException {
+                var mapObj = codec.read(in, map);
+                loaded.put(mapObj.getId(), mapObj);
+                return mapObj;
+            }
+        };
+    }
+
+    /**
+     * Saves this state into given file (see {@link #save(WritableByteChannel, MapObjectCodec)}).
+     * File is replaced atomically, so a crash while saving keeps the previous save intact.
+     */
+    public void save(Path file, MapObjectCodec codec) throws IOException {
+        var tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (var channel = FileChannel.open(
+            tmp,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING
+        )) {
+            save(channel, codec);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads state written by {@link #save(WritableByteChannel, MapObjectCodec)}
+     * into this state, which must have an empty global map of the same size.
+     */
+    public void load(ReadableByteChannel channel, MapObjectCodec codec) throws IOException {
+        // not buffered, as the map is read from the channel right after the header
+        var header = new DataInputStream(Channels.newInputStream(channel));
+        if (header.readInt() != MAGIC) {
+            throw new IOException("Not a game state file");
+        }
+        short version = header.readShort();
+        if (version > VERSION) {
+            throw new IOException("Unsupported game state version: " + version);
+        }
+
+        // players are resolved among loaded objects
+        var loaded = new HashMap<UUID, MapObject>();
+        MapFile.load(globalMap, channel, collecting(codec, loaded));
+        readPlayers(new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel))), codec, loaded);
+    }
+
+    /**
+     * Loads state from given file (see {@link #load(ReadableByteChannel, MapObjectCodec)}).
+     */
+    public void load(Path file, MapObjectCodec codec) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            load(channel, codec);
+        }
+    }
 }
@@ -0,0 +1,82 @@
+package com.crown.common;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Registry assigning dense int ids to objects.
+ * Used where storing object references is not possible,
+ * e.g. in off-heap or on-disk structures.
+ * Id 0 is reserved for "no object".
+ */
+public class IntIdRegistry<T> {
+    private final ArrayList<T> byId = new ArrayList<>();
+    private final IdentityHashMap<T, Integer> ids = new IdentityHashMap<>();
+
+    public IntIdRegistry() {
+        byId.add(null);
+    }
+
+    /**
+     * Returns id of given object, registering it if needed.
+     */
+    public int register(T obj) {
+        var id = ids.get(obj);
+        if (id != null) {
+            return id;
+        }
+        byId.add(obj);
+        ids.put(obj, byId.size() - 1);
+        return byId.size() - 1;
+    }
+
+    /**
+     * Registers given object with specified id.
+     * Used to restore ids saved earlier.
+     */
+    public void register(int id, T obj) {
+        if (id <= 0) {
+            throw new IllegalArgumentException("Invalid id: " + id);
+        }
+        while (byId.size() <= id) {
+            byId.add(null);
+        }
+        var old = byId.set(id, obj);
+        if (old != null) {
+            ids.remove(old);
+        }
+        ids.put(obj, id);
+    }
+
+    /**
+     * Returns id of given object, or 0 if it is not registered.
+     */
+    public int idOf(T obj) {
+        return ids.getOrDefault(obj, 0);
+    }
+
+    /**
+     * Returns object with given id, or null if there is no such one.
+     */
+    @Nullable
+    public T get(int id) {
+        return id > 0 && id < byId.size() ? byId.get(id) : null;
+    }
+
+    /**
+     * Removes given object from this registry.
+     * Its id is not reused.
+     */
+    public void remove(T obj) {
+        var id = ids.remove(obj);
+        if (id != null) {
+            byId.set(id, null);
+        }
+    }
+
+    public int size() {
+        return ids.size();
+    }
+}
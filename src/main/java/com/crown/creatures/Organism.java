@@ -3,10 +3,15 @@ package com.crown.creatures;
 import com.crown.i18n.I18n;
 import com.crown.i18n.ITemplate;
 import com.crown.items.InventoryItem;
+import com.crown.items.ItemCodec;
 import com.crown.maps.*;
+import com.crown.maps.pathfinding.IncrementalPathfinder;
 import com.crown.time.Action;
 import com.crown.time.Timeline;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 
 /**
@@ -332,6 +337,24 @@ public abstract class Organism extends MapObject {
         });
     }
 
+    /**
+     * Moves creature one step along the path to the goal of given pathfinder.
+     * Reduces creature's energy.
+     * Timeline support included.
+     */
+    public ITemplate moveTowardsBy(IncrementalPathfinder pathfinder) {
+        var pt0 = getPt0();
+        var next = pathfinder.nextStep(pt0);
+        if (next == null) {
+            return I18n.of("move.obstacle");
+        }
+        if (next.equals(pt0)) {
+            // the goal is reached
+            return I18n.okMessage;
+        }
+        return moveBy(next.x - pt0.x, next.y - pt0.y, next.z - pt0.z);
+    }
+
     /**
      * Changes creature 3D position by delta point.
      * Creature's energy remains UNCHANGED.
@@ -371,6 +394,62 @@ public abstract class Organism extends MapObject {
         return inventory;
     }
 
+    // region Saving
+
+    /**
+     * Writes creature's statistics, to be restored by {@link #readStats}.
+     * Used by codecs of the game (see {@link MapObjectCodec}).
+     */
+    public void writeStats(DataOutput out) throws IOException {
+        out.writeInt(maxHp);
+        out.writeInt(hp);
+        out.writeInt(maxEnergy);
+        out.writeInt(energy);
+        out.writeInt(maxSpeed);
+        out.writeInt(speed);
+        out.writeInt(level);
+        out.writeInt(xp);
+        out.writeInt(skillPoints);
+    }
+
+    /**
+     * Restores creature's statistics written by {@link #writeStats}.
+     */
+    public void readStats(DataInput in) throws IOException {
+        maxHp = in.readInt();
+        hp = in.readInt();
+        maxEnergy = in.readInt();
+        energy = in.readInt();
+        maxSpeed = in.readInt();
+        speed = in.readInt();
+        level = in.readInt();
+        xp = in.readInt();
+        skillPoints = in.readInt();
+    }
+
+    /**
+     * Writes creature's inventory items with given codec.
+     */
+    public void writeInventory(DataOutput out, ItemCodec codec) throws IOException {
+        out.writeInt(inventory.size());
+        for (var item : inventory) {
+            codec.write(out, item);
+        }
+    }
+
+    /**
+     * Replaces creature's inventory with items written by {@link #writeInventory}.
+     */
+    public void readInventory(DataInput in, ItemCodec codec) throws IOException {
+        inventory.clear();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            inventory.add(codec.read(in));
+        }
+    }
+
+    // endregion
+
     // utilities
 
     /**
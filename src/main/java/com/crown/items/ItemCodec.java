@@ -0,0 +1,15 @@
+package com.crown.items;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Converts inventory items to binary form and back.
+ * Implemented by the game, as only it knows its item types.
+ */
+public interface ItemCodec {
+    void write(DataOutput out, InventoryItem item) throws IOException;
+
+    InventoryItem read(DataInput in) throws IOException;
+}
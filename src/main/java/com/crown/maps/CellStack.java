@@ -0,0 +1,70 @@
+package com.crown.maps;
+
+import java.util.Arrays;
+
+/**
+ * Stack of objects placed into one map cell.
+ * Only used for cells holding more than one object:
+ * a single object is stored in the chunk directly (see {@link MapChunk#cells}).
+ */
+class CellStack {
+    private MapObject[] objects;
+    private int size;
+
+    CellStack(MapObject single) {
+        objects = new MapObject[] { single };
+        size = 1;
+    }
+
+    CellStack(MapObject bottom, MapObject top) {
+        objects = new MapObject[] { bottom, top };
+        size = 2;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns object at given position of the stack (0 is the bottom).
+     */
+    MapObject get(int i) {
+        return objects[i];
+    }
+
+    MapObject peek() {
+        return objects[size - 1];
+    }
+
+    void push(MapObject mapObj) {
+        if (size == objects.length) {
+            objects = Arrays.copyOf(objects, size * 2);
+        }
+        objects[size++] = mapObj;
+    }
+
+    /**
+     * Removes the lowest occurrence of given object.
+     * Returns false if object was not found in the cell.
+     */
+    boolean remove(MapObject mapObj) {
+        for (int i = 0; i < size; i++) {
+            if (objects[i] == mapObj) {
+                System.arraycopy(objects, i + 1, objects, i, size - i - 1);
+                objects[--size] = null;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        var sb = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            if (i > 0) sb.append(";\n");
+            sb.append(objects[i]);
+        }
+        return sb.toString();
+    }
+}
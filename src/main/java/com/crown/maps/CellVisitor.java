@@ -0,0 +1,20 @@
+package com.crown.maps;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Callback used to read map areas without allocating result arrays.
+ * See {@link Map#forEachInArea} and {@link Map#forEachTopmostInArea}.
+ */
+@FunctionalInterface
+public interface CellVisitor {
+    /**
+     * Invoked for every visited cell of an area.
+     *
+     * @param areaX X coordinate of the cell relative to the area's left side.
+     * @param areaY Y coordinate of the cell relative to the area's top side.
+     * @param z     Z coordinate of the cell on the map (-1 if there is no object in a column).
+     * @param obj   Topmost object of the cell, or null if cell is empty or out of map bounds.
+     */
+    void visit(int areaX, int areaY, int z, @Nullable MapObject obj);
+}
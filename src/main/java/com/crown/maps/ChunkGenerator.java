@@ -0,0 +1,17 @@
+package com.crown.maps;
+
+/**
+ * Source of chunks of a streaming map, invoked when a chunk
+ * is accessed for the first time and wasn't found in the {@link ChunkStore}.
+ * See {@link Map#enableStreaming}.
+ */
+@FunctionalInterface
+public interface ChunkGenerator {
+    /**
+     * Populates the chunk with given chunk coordinates with objects.
+     * Chunk spans columns [chunkX * {@link Map#CHUNK_SIZE}, (chunkX + 1) * {@link Map#CHUNK_SIZE})
+     * along X (same for Y), and the whole z-range of the map.
+     * Objects should be placed inside of this chunk only.
+     */
+    void generate(Map map, int chunkX, int chunkY);
+}
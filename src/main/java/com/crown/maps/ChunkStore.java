@@ -0,0 +1,25 @@
+package com.crown.maps;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Storage of evicted chunks of a streaming map.
+ * See {@link Map#enableStreaming} and {@link FileChunkStore}.
+ */
+public interface ChunkStore {
+    /**
+     * Saves objects of the chunk with given chunk coordinates,
+     * replacing previously saved ones. Objects are ordered by their
+     * first occurrence in cell stacks, from the bottom to the top.
+     */
+    void save(Map map, int chunkX, int chunkY, Collection<MapObject> objects) throws IOException;
+
+    /**
+     * Places previously saved objects of the chunk
+     * with given chunk coordinates back on the map.
+     *
+     * @return false if chunk was never saved.
+     */
+    boolean load(Map map, int chunkX, int chunkY) throws IOException;
+}
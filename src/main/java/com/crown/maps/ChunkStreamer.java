@@ -0,0 +1,206 @@
+package com.crown.maps;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Loads chunks of a streaming map on their first access,
+ * and evicts least recently used ones into the {@link ChunkStore}
+ * when count of loaded chunks exceeds the budget.
+ * See {@link Map#enableStreaming}.
+ */
+class ChunkStreamer {
+    /**
+     * Chunk was never accessed, it will be loaded from the store or generated.
+     */
+    private static final byte UNTOUCHED = 0;
+
+    /**
+     * Chunk is in memory (its objects are on the map).
+     */
+    private static final byte LOADED = 1;
+
+    /**
+     * Chunk was evicted into the store.
+     */
+    private static final byte STORED = 2;
+
+    /**
+     * Chunk was evicted being empty, nothing to load.
+     */
+    private static final byte EMPTY = 3;
+
+    /**
+     * Count of low bits of eviction sort keys holding the chunk number.
+     * Chunk numbers always fit, as cell index keeps at least
+     * {@link Map#CHUNK_AREA_SHIFT} bits for the in-chunk part.
+     */
+    private static final int CHUNK_NUMBER_BITS = 31 - Map.CHUNK_AREA_SHIFT;
+
+    private final Map map;
+    private final ChunkGenerator generator;
+    private final ChunkStore store;
+    private final int maxLoadedChunks;
+
+    private final byte[] states;
+    private final long[] accessTimes;
+    private long clock;
+
+    /**
+     * Numbers of chunks in {@link #LOADED} state.
+     */
+    private int[] loaded = new int[64];
+    private int loadedCount;
+
+    /**
+     * Depth of nested chunk loads, eviction is postponed until all of them are done.
+     */
+    private int loadingDepth;
+
+    /**
+     * Objects keeping chunks around them loaded (usually players).
+     */
+    private final ArrayList<MapObject> watchers = new ArrayList<>();
+    private int keepRadius = 1;
+
+    ChunkStreamer(Map map, int chunksCount, ChunkGenerator generator, ChunkStore store, int maxLoadedChunks) {
+        this.map = map;
+        this.generator = generator;
+        this.store = store;
+        this.maxLoadedChunks = maxLoadedChunks;
+        states = new byte[chunksCount];
+        accessTimes = new long[chunksCount];
+    }
+
+    /**
+     * Marks chunk with given number as recently used,
+     * loading it first if needed.
+     */
+    void touch(int chunkNumber) {
+        accessTimes[chunkNumber] = ++clock;
+        if (states[chunkNumber] != LOADED) {
+            load(chunkNumber);
+        }
+    }
+
+    /**
+     * Determines if objects are placed on the map
+     * by the generator or the store right now.
+     */
+    boolean isLoading() {
+        return loadingDepth > 0;
+    }
+
+    int getLoadedChunksCount() {
+        return loadedCount;
+    }
+
+    void watch(MapObject mapObj) {
+        watchers.add(mapObj);
+    }
+
+    void unwatch(MapObject mapObj) {
+        watchers.remove(mapObj);
+    }
+
+    void setKeepRadius(int keepRadius) {
+        this.keepRadius = keepRadius;
+    }
+
+    /**
+     * Forgets all loaded and stored chunks, considering them empty.
+     * Invoked when the map is cleared.
+     */
+    void clear() {
+        Arrays.fill(states, EMPTY);
+        loadedCount = 0;
+    }
+
+    private void load(int chunkNumber) {
+        byte state = states[chunkNumber];
+        states[chunkNumber] = LOADED;
+        if (loadedCount == loaded.length) {
+            loaded = Arrays.copyOf(loaded, loadedCount * 2);
+        }
+        loaded[loadedCount++] = chunkNumber;
+        if (state != EMPTY) {
+            int chunkX = chunkNumber % map.xChunks;
+            int chunkY = chunkNumber / map.xChunks;
+            loadingDepth++;
+            try {
+                if (!store.load(map, chunkX, chunkY)) {
+                    generator.generate(map, chunkX, chunkY);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                loadingDepth--;
+            }
+        }
+        if (loadingDepth == 0 && loadedCount > maxLoadedChunks) {
+            evict();
+        }
+    }
+
+    /**
+     * Evicts least recently used chunks, until only 3/4 of the budget is loaded.
+     * Chunks near watchers, and chunks with objects spanning
+     * into other chunks, are kept loaded.
+     */
+    private void evict() {
+        var keys = new long[loadedCount];
+        for (int i = 0; i < loadedCount; i++) {
+            keys[i] = accessTimes[loaded[i]] << CHUNK_NUMBER_BITS | loaded[i];
+        }
+        Arrays.sort(keys);
+
+        int target = maxLoadedChunks * 3 / 4;
+        int count = loadedCount;
+        for (int i = 0; i < keys.length && count > target; i++) {
+            int chunkNumber = (int) (keys[i] & (1L << CHUNK_NUMBER_BITS) - 1);
+            if (isWatched(chunkNumber)) {
+                continue;
+            }
+            var objects = map.getChunkObjects(chunkNumber);
+            if (objects == null) {
+                continue;
+            }
+            if (objects.isEmpty()) {
+                states[chunkNumber] = EMPTY;
+            } else {
+                try {
+                    store.save(map, chunkNumber % map.xChunks, chunkNumber / map.xChunks, objects);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                states[chunkNumber] = STORED;
+            }
+            map.dropChunk(chunkNumber);
+            count--;
+        }
+
+        // keep only chunks that are still loaded
+        int n = 0;
+        for (int i = 0; i < loadedCount; i++) {
+            if (states[loaded[i]] == LOADED) {
+                loaded[n++] = loaded[i];
+            }
+        }
+        loadedCount = n;
+    }
+
+    private boolean isWatched(int chunkNumber) {
+        int chunkX = chunkNumber % map.xChunks;
+        int chunkY = chunkNumber / map.xChunks;
+        for (var watcher : watchers) {
+            var pt = watcher.getPt0();
+            if (Math.abs((pt.x >> Map.CHUNK_SHIFT) - chunkX) <= keepRadius
+                && Math.abs((pt.y >> Map.CHUNK_SHIFT) - chunkY) <= keepRadius) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
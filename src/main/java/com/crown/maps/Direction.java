@@ -48,8 +48,14 @@ public enum Direction {
 
     public final Point3D point;
 
+    /**
+     * Same as {@link #point}, packed into a single value (see {@link PackedPoint}).
+     */
+    public final long packed;
+
     Direction(int x, int y, int z) {
         point = new Point3D(x, y, z);
+        packed = PackedPoint.pack(x, y, z);
     }
 
     public static Direction fromCoordinates(int x, int y, int z) {
@@ -75,4 +81,8 @@ public enum Direction {
     public static Direction fromPoint(Point3D point) {
         return fromCoordinates(point.x, point.y, point.z);
     }
+
+    public static Direction fromPacked(long packed) {
+        return fromCoordinates(PackedPoint.x(packed), PackedPoint.y(packed), PackedPoint.z(packed));
+    }
 }
@@ -0,0 +1,59 @@
+package com.crown.maps;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+
+/**
+ * Chunk store keeping each chunk in a separate file of given directory.
+ * Objects are written with given {@link MapObjectCodec}.
+ * Chunk files are replaced atomically, so a crash while saving
+ * leaves the previous version of a chunk intact.
+ */
+public class FileChunkStore implements ChunkStore {
+    private final Path directory;
+    private final MapObjectCodec codec;
+
+    public FileChunkStore(Path directory, MapObjectCodec codec) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.codec = codec;
+    }
+
+    private Path fileOf(Map map, int chunkX, int chunkY) {
+        return directory.resolve(map.getKeyName() + "." + chunkX + "." + chunkY + ".chunk");
+    }
+
+    @Override
+    public void save(Map map, int chunkX, int chunkY, Collection<MapObject> objects) throws IOException {
+        var file = fileOf(map, chunkX, chunkY);
+        var tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(objects.size());
+            for (var mapObj : objects) {
+                codec.write(out, mapObj);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public boolean load(Map map, int chunkX, int chunkY) throws IOException {
+        var file = fileOf(map, chunkX, chunkY);
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                codec.read(in, map);
+            }
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+}
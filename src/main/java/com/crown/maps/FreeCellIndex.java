@@ -0,0 +1,187 @@
+package com.crown.maps;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Counts of free (empty or walkable) cells of map chunks,
+ * kept in a Fenwick tree over chunk numbers, so a uniformly random
+ * free cell is found in logarithmic time.
+ * Changed chunks are only marked dirty, and recounted
+ * right before the next query.
+ */
+class FreeCellIndex {
+    private final int xSize;
+    private final int ySize;
+    private final int zSize;
+    private final int xChunks;
+
+    /**
+     * Fenwick tree of free counts, 1-based.
+     */
+    private int[] tree;
+
+    /**
+     * Free count of each chunk, as it is added to the tree.
+     */
+    private int[] counts;
+    private int total;
+
+    // chunks changed since the last sync, each one is listed once
+    private long[] dirty;
+    private int[] dirtyList;
+    private int dirtyCount;
+
+    FreeCellIndex(int xSize, int ySize, int zSize, int xChunks, int chunksCount) {
+        this.xSize = xSize;
+        this.ySize = ySize;
+        this.zSize = zSize;
+        this.xChunks = xChunks;
+        tree = new int[chunksCount + 1];
+        counts = new int[chunksCount];
+        dirty = new long[(chunksCount + 63) >> 6];
+        dirtyList = new int[chunksCount];
+        reset();
+    }
+
+    /**
+     * Considers all chunks empty.
+     */
+    void reset() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = capacity(i);
+        }
+        // linear-time Fenwick tree construction
+        System.arraycopy(counts, 0, tree, 1, counts.length);
+        for (int i = 1; i < tree.length; i++) {
+            int parent = i + (i & -i);
+            if (parent < tree.length) {
+                tree[parent] += tree[i];
+            }
+        }
+        total = xSize * ySize * zSize;
+        Arrays.fill(dirty, 0);
+        dirtyCount = 0;
+    }
+
+    FreeCellIndex copy() {
+        var copy = new FreeCellIndex(xSize, ySize, zSize, xChunks, counts.length);
+        copy.tree = tree.clone();
+        copy.counts = counts.clone();
+        copy.total = total;
+        copy.dirty = dirty.clone();
+        copy.dirtyList = dirtyList.clone();
+        copy.dirtyCount = dirtyCount;
+        return copy;
+    }
+
+    void markDirty(int chunkNumber) {
+        long bit = 1L << chunkNumber;
+        if ((dirty[chunkNumber >> 6] & bit) == 0) {
+            dirty[chunkNumber >> 6] |= bit;
+            dirtyList[dirtyCount++] = chunkNumber;
+        }
+    }
+
+    /**
+     * Recounts free cells of all dirty chunks.
+     */
+    void sync(MapChunk[] chunks) {
+        for (int i = 0; i < dirtyCount; i++) {
+            int chunkNumber = dirtyList[i];
+            dirty[chunkNumber >> 6] &= ~(1L << chunkNumber);
+            var chunk = chunks[chunkNumber];
+            int count = capacity(chunkNumber) - (chunk == null ? 0 : chunk.obstaclesCount);
+            int delta = count - counts[chunkNumber];
+            if (delta != 0) {
+                counts[chunkNumber] = count;
+                total += delta;
+                for (int j = chunkNumber + 1; j < tree.length; j += j & -j) {
+                    tree[j] += delta;
+                }
+            }
+        }
+        dirtyCount = 0;
+    }
+
+    /**
+     * Returns count of free cells, as of the last {@link #sync}.
+     */
+    int getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns in-chunk index of the free cell with given rank,
+     * packed with the chunk number (see {@link Map#indexOf}).
+     * Rank must be less than {@link #getTotal()}.
+     */
+    private int find(MapChunk[] chunks, int rank, int chunkCellBits) {
+        // descend the tree to the chunk holding the cell with given rank
+        int pos = 0;
+        for (int step = Integer.highestOneBit(counts.length); step != 0; step >>= 1) {
+            int next = pos + step;
+            if (next < tree.length && tree[next] <= rank) {
+                pos = next;
+                rank -= tree[next];
+            }
+        }
+        int chunkNumber = pos;
+        return chunkNumber << chunkCellBits | findInChunk(chunks[chunkNumber], chunkNumber, rank);
+    }
+
+    /**
+     * Returns in-chunk index of the free cell with given rank.
+     */
+    private int findInChunk(@Nullable MapChunk chunk, int chunkNumber, int rank) {
+        int width = Math.min(Map.CHUNK_SIZE, xSize - (chunkNumber % xChunks << Map.CHUNK_SHIFT));
+        int height = Math.min(Map.CHUNK_SIZE, ySize - (chunkNumber / xChunks << Map.CHUNK_SHIFT));
+        if (chunk == null) {
+            int z = rank / (width * height);
+            int y = rank % (width * height) / width;
+            return MapChunk.cellIndex(rank % width, y, z);
+        }
+        // each word holds 4 chunk rows
+        long rowMask = (1L << width) - 1;
+        for (int w = 0; w < chunk.obstacles.length; w++) {
+            int y0 = (w & 3) << 2;
+            long valid = 0;
+            for (int r = 0; r < 4 && y0 + r < height; r++) {
+                valid |= rowMask << (r << Map.CHUNK_SHIFT);
+            }
+            long free = ~chunk.obstacles[w] & valid;
+            int count = Long.bitCount(free);
+            if (rank >= count) {
+                rank -= count;
+                continue;
+            }
+            for (; rank > 0; rank--) {
+                free &= free - 1;
+            }
+            return w << 6 | Long.numberOfTrailingZeros(free);
+        }
+        throw new IllegalStateException("Free cells index is out of sync");
+    }
+
+    /**
+     * Returns a uniformly random free cell index,
+     * or -1 if there are no free cells.
+     */
+    int sample(MapChunk[] chunks, Random rnd, int chunkCellBits) {
+        if (total == 0) {
+            return -1;
+        }
+        return find(chunks, rnd.nextInt(total), chunkCellBits);
+    }
+
+    /**
+     * Returns count of map cells inside of the chunk with given number.
+     */
+    private int capacity(int chunkNumber) {
+        int width = Math.min(Map.CHUNK_SIZE, xSize - (chunkNumber % xChunks << Map.CHUNK_SHIFT));
+        int height = Math.min(Map.CHUNK_SIZE, ySize - (chunkNumber / xChunks << Map.CHUNK_SHIFT));
+        return width * height * zSize;
+    }
+}
@@ -12,4 +12,58 @@ public interface IMap {
     boolean isWalkable(@NotNull Point3D point);
 
     boolean isTransparent(@NotNull Point3D point);
+
+    /**
+     * Returns a packed index of the cell at specified point,
+     * or -1 if point is out of map bounds.
+     */
+    int indexOf(int x, int y, int z);
+
+    /**
+     * Returns a packed index of the cell at given packed point
+     * (see {@link PackedPoint}), or -1 if point is out of map bounds.
+     */
+    default int indexOf(long packed) {
+        return indexOf(PackedPoint.x(packed), PackedPoint.y(packed), PackedPoint.z(packed));
+    }
+
+    default boolean inBounds(long packed) {
+        return inBounds(PackedPoint.x(packed), PackedPoint.y(packed), PackedPoint.z(packed));
+    }
+
+    boolean isWalkable(int index);
+
+    boolean isTransparent(int index);
+
+    /**
+     * Determines if the cell at given packed point is walkable.
+     * Note that {@code int} arguments are treated as cell indices instead.
+     */
+    default boolean isWalkable(long packed) {
+        return isWalkable(indexOf(packed));
+    }
+
+    /**
+     * Determines if the cell at given packed point is transparent.
+     * Note that {@code int} arguments are treated as cell indices instead.
+     */
+    default boolean isTransparent(long packed) {
+        return isTransparent(indexOf(packed));
+    }
+
+    /**
+     * Returns walkability bits of the map row with given Y and Z.
+     * Bit {@code x % 64} of word {@code x / 64} is set if cell X is walkable.
+     */
+    long[] getWalkableRow(int y, int z);
+
+    void getWalkableRow(int y, int z, long[] words);
+
+    /**
+     * Returns transparency bits of the map row with given Y and Z.
+     * Bit {@code x % 64} of word {@code x / 64} is set if cell X is transparent.
+     */
+    long[] getTransparentRow(int y, int z);
+
+    void getTransparentRow(int y, int z, long[] words);
 }
@@ -7,32 +7,188 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
+
+public abstract class Map extends NamedObject implements IMap, Serializable, Cloneable {
+    /**
+     * Side length (in cells) of a square map chunk.
+     * Each chunk spans the whole z-range of the map.
+     */
+    public static final int CHUNK_SIZE = 16;
+
+    /**
+     * Default max count of cell changes kept in the map journal.
+     */
+    public static final int DEFAULT_JOURNAL_CAPACITY = 1 << 16;
+
+    static final int CHUNK_SHIFT = 4;
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    static final int CHUNK_AREA = CHUNK_SIZE * CHUNK_SIZE;
+    static final int CHUNK_AREA_SHIFT = CHUNK_SHIFT * 2;
+
+    /**
+     * Count of locks guarding chunks of a concurrent map.
+     * Chunk is guarded by the lock with index {@code chunkNumber % LOCK_STRIPES},
+     * so a set of locks fits into a single long bitmask.
+     */
+    private static final int LOCK_STRIPES = 64;
+    private static final long ALL_STRIPES = -1L;
+
+    /**
+     * Count of free points sampled by {@link #getRandomFreePoint(Random, int, int)}
+     * before it checks all points.
+     */
+    private static final int FREE_POINT_ATTEMPTS = 64;
 
-public abstract class Map extends NamedObject implements IMap, Serializable {
     public final int xSize;
     public final int ySize;
     public final int zSize;
 
-    protected final MapCell[][][] containers;
+    /**
+     * Count of chunks along the X axis.
+     */
+    protected final int xChunks;
+
+    /**
+     * Count of chunks along the Y axis.
+     */
+    protected final int yChunks;
+
+    /**
+     * Count of low bits of a cell index, that address
+     * a cell inside of its chunk. Remaining high bits
+     * hold the chunk number.
+     */
+    private final int chunkCellBits;
+
+    /**
+     * Mask of the in-chunk part of a cell index.
+     */
+    private final int chunkCellMask;
+
+    /**
+     * Map cells storage, split into chunks of
+     * {@link #CHUNK_SIZE} x {@link #CHUNK_SIZE} columns.
+     * Chunks are allocated lazily, when the first object
+     * is placed into them, so sparse maps stay cheap.
+     */
+    private MapChunk[] chunks;
+
+    /**
+     * Determines if chunks keep track of objects placed
+     * into them, grouped by object type.
+     * Makes {@link #getAll} queries proportional to count
+     * of found objects instead of the area size.
+     */
+    private final boolean typeIndex;
+
+    /**
+     * Journal of recent cell changes,
+     * used by consumers that update incrementally (renderers, network sync).
+     */
+    private MapJournal journal = new MapJournal(DEFAULT_JOURNAL_CAPACITY);
+
+    /**
+     * Version of the last change made inside of each chunk.
+     * Kept after chunk is released, so consumers can see that it was emptied.
+     */
+    private long[] chunkVersions;
+
+    /**
+     * Counts of free cells of chunks, used to sample random free points.
+     * See {@link #getRandomFreePoint(Random)}.
+     */
+    private FreeCellIndex freeCells;
+
+    /**
+     * Zobrist hash of all (object, cell) pairs of this map,
+     * XOR of hashes of all chunks. See {@link #getStateHash()}.
+     */
+    private long stateHash;
+
+    /**
+     * Copy-on-write token of this map. Chunks owned by other
+     * tokens are shared with snapshots and are copied before changes.
+     * See {@link #snapshot()}.
+     */
+    private transient Object owner = new Object();
+
+    /**
+     * Replaces objects of chunks shared with the map
+     * this snapshot was taken from, null for regular maps.
+     * See {@link #snapshot(UnaryOperator)}.
+     */
+    @Nullable
+    private transient UnaryOperator<MapObject> remap;
+
+    /**
+     * Striped locks of a concurrent map, null for regular maps.
+     * See {@link #enableConcurrency()}.
+     */
+    @Nullable
+    private transient StampedLock[] locks;
+
+    /**
+     * Loads and evicts chunks of a streaming map, null for regular maps.
+     * See {@link #enableStreaming}.
+     */
+    @Nullable
+    private transient ChunkStreamer streamer;
 
+    /**
+     * Creates new map with objects type index enabled.
+     */
     public Map(
         String name,
         int xSize,
         int ySize,
         int zSize
+    ) {
+        this(name, xSize, ySize, zSize, true);
+    }
+
+    /**
+     * Creates new map.
+     *
+     * @param typeIndex Enables objects type index used by {@link #getAll} queries.
+     *                  Disable it to save memory when such queries are rare.
+     */
+    public Map(
+        String name,
+        int xSize,
+        int ySize,
+        int zSize,
+        boolean typeIndex
     ) {
         super(name);
+        this.typeIndex = typeIndex;
         this.xSize = xSize;
         this.ySize = ySize;
         this.zSize = zSize;
 
-        containers = new MapCell[zSize][ySize][xSize];
-        for (int z = 0; z < zSize; z++) {
-            for (int y = 0; y < ySize; y++) {
-                for (int x = 0; x < xSize; x++) {
-                    containers[z][y][x] = new MapCell();
-                }
-            }
+        xChunks = (xSize + CHUNK_MASK) >> CHUNK_SHIFT;
+        yChunks = (ySize + CHUNK_MASK) >> CHUNK_SHIFT;
+        chunks = new MapChunk[xChunks * yChunks];
+        chunkVersions = new long[chunks.length];
+        freeCells = new FreeCellIndex(xSize, ySize, zSize, xChunks, chunks.length);
+
+        int zBits = 32 - Integer.numberOfLeadingZeros(Math.max(zSize - 1, 0));
+        chunkCellBits = CHUNK_AREA_SHIFT + zBits;
+        chunkCellMask = (1 << chunkCellBits) - 1;
+        if ((long) chunks.length << chunkCellBits > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                "Map of size " + xSize + "x" + ySize + "x" + zSize
+                    + " is too large to index its cells with int"
+            );
         }
     }
 
@@ -41,6 +197,9 @@ public abstract class Map extends NamedObject implements IMap, Serializable {
     /**
      * Returns all objects of given type inside the area with given
      * center point and radius.
+     * Z coordinate is used to specify "view point height",
+     * only objects that are topmost in their column are returned
+     * (see {@link #getRaw2DArea(Point3D, int)}).
      */
     public <T extends MapObject> ArrayList<T> getAll(
         Class<T> ofType,
@@ -48,39 +207,196 @@ public abstract class Map extends NamedObject implements IMap, Serializable {
         int inRadius
     ) {
         var targets = new ArrayList<T>();
-        var rangeObjsMatrix = getRaw2DArea(centerPoint, inRadius);
-        for (var objRow : rangeObjsMatrix) {
-            for (var obj : objRow) {
+        if (!typeIndex) {
+            forEachTopmostInArea(centerPoint, inRadius, centerPoint.z, (x, y, z, obj) -> {
                 if (ofType.isInstance(obj)) {
-                    // noinspection unchecked
-                    targets.add((T) obj);
+                    targets.add(ofType.cast(obj));
                 }
-            }
+            });
+            return targets;
         }
+
+        int maxZ = MathAux.clamp(centerPoint.z, 0, zSize - 1);
+        int x0 = centerPoint.x - inRadius;
+        int y0 = centerPoint.y - inRadius;
+        int x1 = centerPoint.x + inRadius;
+        int y1 = centerPoint.y + inRadius;
+        // found objects, sorted by their position in the area row by row
+        var found = new TreeMap<Long, T>();
+        forEachIndexed(ofType, x0, y0, x1, y1, (chunk, obj) -> {
+            for (var pt : obj.points) {
+                if (pt.x >= x0 && pt.x <= x1 && pt.y >= y0 && pt.y <= y1
+                    && pt.z <= maxZ
+                    && getChunk(pt.x >> CHUNK_SHIFT, pt.y >> CHUNK_SHIFT) == chunk
+                    && getTopmostZ(pt.x, pt.y, maxZ) == pt.z
+                    && chunk.peek(MapChunk.cellIndex(pt.x, pt.y, pt.z)) == obj) {
+                    found.put((long) (pt.y - y0) * (x1 - x0 + 1) + (pt.x - x0), obj);
+                }
+            }
+        });
+        targets.addAll(found.values());
         return targets;
     }
 
     /**
-     * Returns 3D area for map region with given radius.
-     * Objects with Z-coordinate <= point.z are returned.
+     * Returns all objects of given type having at least one point
+     * inside the cube with given center point and radius.
+     * Unlike {@link #getAll}, objects covered by other ones are returned too.
+     * Each object is returned once.
      */
-    public @Nullable MapObject[][][] getRaw3DArea(Point3D centerPoint, int radius) {
-        final int diameter = radius * 2 + 1;
-        int height = MathAux.clamp(centerPoint.z + 1, 1, zSize);
-        MapObject[][][] area = new MapObject[height][diameter][diameter];
-        for (int z = 0; z < height; z++) {
+    public <T extends MapObject> ArrayList<T> getAll3D(
+        Class<T> ofType,
+        Point3D centerPoint,
+        int inRadius
+    ) {
+        var min = centerPoint.minus(inRadius);
+        var max = centerPoint.plus(inRadius);
+        var found = new LinkedHashSet<T>();
+        if (!typeIndex) {
+            long stripes = lockRead(ALL_STRIPES);
+            try {
+                collectInCube(ofType, min, max, found);
+            } finally {
+                unlockRead(stripes);
+            }
+            return new ArrayList<>(found);
+        }
+
+        forEachIndexed(ofType, min.x, min.y, max.x, max.y, (chunk, obj) -> {
+            for (var pt : obj.points) {
+                if (pt.isInsideOf(min, max)) {
+                    found.add(obj);
+                    break;
+                }
+            }
+        });
+        return new ArrayList<>(found);
+    }
+
+    /**
+     * Collects objects of given type from all cells
+     * of the cube with given min & max points.
+     */
+    private <T extends MapObject> void collectInCube(
+        Class<T> ofType,
+        Point3D min,
+        Point3D max,
+        Collection<T> found
+    ) {
+        for (int z = Math.max(min.z, 0); z <= Math.min(max.z, zSize - 1); z++) {
+            for (int y = Math.max(min.y, 0); y <= Math.min(max.y, ySize - 1); y++) {
+                for (int x = Math.max(min.x, 0); x <= Math.min(max.x, xSize - 1); x++) {
+                    var chunk = getChunk(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT);
+                    if (chunk == null) continue;
+                    int cellIndex = MapChunk.cellIndex(x, y, z);
+                    for (int i = 0; i < chunk.size(cellIndex); i++) {
+                        var obj = chunk.get(cellIndex, i);
+                        if (ofType.isInstance(obj)) {
+                            found.add(ofType.cast(obj));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Visits objects of given type from the type index of all chunks
+     * intersecting with given rectangle of map columns.
+     * Object is visited once for each chunk it occupies.
+     */
+    private <T extends MapObject> void forEachIndexed(
+        Class<T> ofType,
+        int x0, int y0,
+        int x1, int y1,
+        IndexedObjectVisitor<T> visitor
+    ) {
+        int chunkX0 = Math.max(x0, 0) >> CHUNK_SHIFT;
+        int chunkY0 = Math.max(y0, 0) >> CHUNK_SHIFT;
+        int chunkX1 = Math.min(x1, xSize - 1) >> CHUNK_SHIFT;
+        int chunkY1 = Math.min(y1, ySize - 1) >> CHUNK_SHIFT;
+        long stripes = lockRead(stripesOf(chunkX0, chunkY0, chunkX1, chunkY1));
+        try {
+            for (int chunkY = chunkY0; chunkY <= chunkY1; chunkY++) {
+                for (int chunkX = chunkX0; chunkX <= chunkX1; chunkX++) {
+                    var chunk = getChunk(chunkX, chunkY);
+                    if (chunk == null || chunk.objectsByType == null) {
+                        continue;
+                    }
+                    for (var entry : chunk.objectsByType.entrySet()) {
+                        if (!ofType.isAssignableFrom(entry.getKey())) {
+                            continue;
+                        }
+                        for (var obj : entry.getValue()) {
+                            visitor.visit(chunk, ofType.cast(obj));
+                        }
+                    }
+                }
+            }
+        } finally {
+            unlockRead(stripes);
+        }
+    }
+
+    private interface IndexedObjectVisitor<T extends MapObject> {
+        void visit(MapChunk chunk, T obj);
+    }
+
+    /**
+     * Visits each cell of 3D area with given center point and radius, layer by layer.
+     * Cells with Z-coordinate <= zLimit are visited.
+     * Cells out of map bounds are visited with null object.
+     */
+    public void forEachInArea(Point3D centerPoint, int radius, int zLimit, CellVisitor visitor) {
+        int maxZ = MathAux.clamp(zLimit, 0, zSize - 1);
+        for (int z = 0; z <= maxZ; z++) {
             int areaY = 0;
             for (int y = centerPoint.y - radius; y <= centerPoint.y + radius; y++) {
                 int areaX = 0;
                 for (int x = centerPoint.x - radius; x <= centerPoint.x + radius; x++) {
-                    if (inBounds(x, y)) {
-                        area[z][areaY][areaX] = get(x, y, z);
-                    }
+                    visitor.visit(areaX, areaY, z, get(x, y, z));
                     areaX++;
                 }
                 areaY++;
             }
         }
+    }
+
+    /**
+     * Visits each column of 2D area with given center point and radius.
+     * For each column, the topmost object with Z-coordinate <= zLimit is visited.
+     */
+    public void forEachTopmostInArea(Point3D centerPoint, int radius, int zLimit, CellVisitor visitor) {
+        int maxZ = MathAux.clamp(zLimit, 0, zSize - 1);
+        int areaY = 0;
+        for (int y = centerPoint.y - radius; y <= centerPoint.y + radius; y++) {
+            int areaX = 0;
+            for (int x = centerPoint.x - radius; x <= centerPoint.x + radius; x++) {
+                int z = getTopmostZ(x, y, maxZ);
+                visitor.visit(areaX, areaY, z, z < 0 ? null : get(x, y, z));
+                areaX++;
+            }
+            areaY++;
+        }
+    }
+
+    /**
+     * Returns 3D area for map region with given radius.
+     * Objects with Z-coordinate <= point.z are returned.
+     */
+    public @Nullable MapObject[][][] getRaw3DArea(Point3D centerPoint, int radius) {
+        final int diameter = radius * 2 + 1;
+        int height = MathAux.clamp(centerPoint.z + 1, 1, zSize);
+        return getRaw3DArea(centerPoint, radius, new MapObject[height][diameter][diameter]);
+    }
+
+    /**
+     * Fills given buffer with 3D area for map region with given radius.
+     * Objects with Z-coordinate <= point.z are returned.
+     * Buffer should be at least [point.z + 1][radius * 2 + 1][radius * 2 + 1] in size.
+     */
+    public @Nullable MapObject[][][] getRaw3DArea(Point3D centerPoint, int radius, MapObject[][][] area) {
+        forEachInArea(centerPoint, radius, centerPoint.z, (x, y, z, obj) -> area[z][y][x] = obj);
         return area;
     }
 
@@ -90,12 +406,16 @@ public abstract class Map extends NamedObject implements IMap, Serializable {
      */
     public @Nullable MapObject[] getColumn(Point3D point) {
         int height = MathAux.clamp(point.z + 1, 1, zSize);
-        MapObject[] column = new MapObject[height];
-        for (int z = 0; z < height; z++) {
-            if (inBounds(point.x, point.y)) {
-                column[z] = get(point.x, point.y, z);
-            }
-        }
+        return getColumn(point, new MapObject[height]);
+    }
+
+    /**
+     * Fills given buffer with a 3D z-column of this map at specified point.
+     * Objects with Z-coordinate <= point.z are returned.
+     * Buffer should be at least [point.z + 1] in size.
+     */
+    public @Nullable MapObject[] getColumn(Point3D point, MapObject[] column) {
+        forEachInArea(point, 0, point.z, (x, y, z, obj) -> column[z] = obj);
         return column;
     }
 
@@ -104,19 +424,18 @@ public abstract class Map extends NamedObject implements IMap, Serializable {
      * Icons with Z-coordinate <= point.z are returned.
      */
     public MapIcon<?>[][][] get3DArea(Point3D centerPoint, int radius) {
-        var area = getRaw3DArea(centerPoint, radius);
-        var icons = new MapIcon<?>[area.length][area[0].length][area[0][0].length];
-        for (int z = 0; z < area.length; z++) {
-            for (int y = 0; y < area[0].length; y++) {
-                for (int x = 0; x < area[0][0].length; x++) {
-                    if (area[z][y][x] == null) {
-                        icons[z][y][x] = getEmptyIcon();
-                    } else {
-                        icons[z][y][x] = area[z][y][x].getMapIcon();
-                    }
-                }
-            }
-        }
+        final int diameter = radius * 2 + 1;
+        int height = MathAux.clamp(centerPoint.z + 1, 1, zSize);
+        return get3DArea(centerPoint, radius, new MapIcon<?>[height][diameter][diameter]);
+    }
+
+    /**
+     * Fills given buffer with icons of 3D area for map region with given radius.
+     * Icons with Z-coordinate <= point.z are returned.
+     * Buffer should be at least [point.z + 1][radius * 2 + 1][radius * 2 + 1] in size.
+     */
+    public MapIcon<?>[][][] get3DArea(Point3D centerPoint, int radius, MapIcon<?>[][][] icons) {
+        forEachInArea(centerPoint, radius, centerPoint.z, (x, y, z, obj) -> icons[z][y][x] = getIcon(obj));
         return icons;
     }
 
@@ -128,25 +447,16 @@ public abstract class Map extends NamedObject implements IMap, Serializable {
      */
     public @Nullable MapObject[][] getRaw2DArea(Point3D centerPoint, int radius) {
         final int diameter = radius * 2 + 1;
-        MapObject[][] area = new MapObject[diameter][diameter];
+        return getRaw2DArea(centerPoint, radius, new MapObject[diameter][diameter]);
+    }
 
-        int height = MathAux.clamp(centerPoint.z + 1, 1, zSize);
-        for (int z = 0; z < height; z++) {
-            int areaY = 0;
-            for (int y = centerPoint.y - radius; y <= centerPoint.y + radius; y++) {
-                int areaX = 0;
-                for (int x = centerPoint.x - radius; x <= centerPoint.x + radius; x++) {
-                    if (inBounds(x, y)) {
-                        var obj = get(x, y, z);
-                        if (obj != null) {
-                            area[areaY][areaX] = obj;
-                        }
-                    }
-                    areaX++;
-                }
-                areaY++;
-            }
-        }
+    /**
+     * Fills given buffer with 2D area for map region with given radius.
+     * Z coordinate is used to specify "view point height".
+     * Buffer should be at least [radius * 2 + 1][radius * 2 + 1] in size.
+     */
+    public @Nullable MapObject[][] getRaw2DArea(Point3D centerPoint, int radius, MapObject[][] area) {
+        forEachTopmostInArea(centerPoint, radius, centerPoint.z, (x, y, z, obj) -> area[y][x] = obj);
         return area;
     }
 
@@ -157,17 +467,47 @@ public abstract class Map extends NamedObject implements IMap, Serializable {
      * object with the highest z position if it is <= 3.
      */
     public @Nullable MapObject getTopmost(Point3D point) {
-        MapObject result = null;
-        int height = MathAux.clamp(point.z + 1, 1, zSize);
-        for (int z = 0; z < height; z++) {
-            if (inBounds(point.x, point.y)) {
-                var obj = get(point.x, point.y, z);
-                if (obj != null) {
-                    result = obj;
-                }
+        return getTopmost(point.x, point.y, MathAux.clamp(point.z, 0, zSize - 1));
+    }
+
+    /**
+     * Returns an object that is topmost in selected map column
+     * among cells with Z-coordinate <= maxZ.
+     */
+    public @Nullable MapObject getTopmost(int x, int y, int maxZ) {
+        int z = getTopmostZ(x, y, maxZ);
+        return z < 0 ? null : get(x, y, z);
+    }
+
+    /**
+     * Returns Z-coordinate of the topmost object in selected map column
+     * among cells with Z-coordinate <= maxZ, or -1 if there is no such object.
+     * Uses per-column index of occupied heights, so no cells are scanned.
+     */
+    public int getTopmostZ(int x, int y, int maxZ) {
+        if (!inBounds(x, y) || maxZ < 0) {
+            return -1;
+        }
+        int chunkNumber = (y >> CHUNK_SHIFT) * xChunks + (x >> CHUNK_SHIFT);
+        long stamp = beginRead(chunkNumber);
+        int z = topmostZ(chunkNumber, x, y, maxZ);
+        if (!validateRead(chunkNumber, stamp)) {
+            stamp = lockChunkRead(chunkNumber);
+            try {
+                z = topmostZ(chunkNumber, x, y, maxZ);
+            } finally {
+                unlockChunkRead(chunkNumber, stamp);
             }
         }
-        return result;
+        return z;
+    }
+
+    private int topmostZ(int chunkNumber, int x, int y, int maxZ) {
+        var chunk = chunk(chunkNumber);
+        if (chunk == null) {
+            return -1;
+        }
+        return chunk.topmostZ(MapChunk.columnIndex(x, y), Math.min(maxZ, zSize - 1));
     }
 
     /**
@@ -177,123 +517,1646 @@ public abstract class Map extends NamedObject implements IMap, Serializable {
      * icon of object with the highest z position if it is <= 3.
      */
     public MapIcon<?>[][] get2DArea(Point3D centerPoint, int radius) {
-        var area = getRaw2DArea(centerPoint, radius);
-        var icons = new MapIcon<?>[area.length][area.length];
-        for (int y = 0; y < area.length; y++) {
-            for (int x = 0; x < area.length; x++) {
-                if (area[y][x] == null) {
-                    icons[y][x] = getEmptyIcon();
-                } else {
-                    icons[y][x] = area[y][x].getMapIcon();
-                }
-            }
-        }
+        final int diameter = radius * 2 + 1;
+        return get2DArea(centerPoint, radius, new MapIcon<?>[diameter][diameter]);
+    }
+
+    /**
+     * Fills given buffer with icons of 2D area for map region with given radius.
+     * Z coordinate is used to specify "view point height".
+     * Buffer should be at least [radius * 2 + 1][radius * 2 + 1] in size.
+     */
+    public MapIcon<?>[][] get2DArea(Point3D centerPoint, int radius, MapIcon<?>[][] icons) {
+        forEachTopmostInArea(centerPoint, radius, centerPoint.z, (x, y, z, obj) -> icons[y][x] = getIcon(obj));
         return icons;
     }
 
+    /**
+     * Returns icon of given object, or empty icon if there is no object.
+     */
+    private MapIcon<?> getIcon(@Nullable MapObject obj) {
+        return obj == null ? getEmptyIcon() : obj.getMapIcon();
+    }
+
     public void add(@NotNull MapObject mapObj) {
+        long stripes = lockWrite(mapObj.points, null);
+        try {
+            addUnlocked(mapObj);
+        } finally {
+            unlockWrite(stripes);
+        }
+    }
+
+    private void addUnlocked(MapObject mapObj) {
         for (var pt : mapObj.points) {
-            getRaw(pt).objects.push(mapObj);
+            place(mapObj, pt);
         }
+        updateTypeIndex(mapObj, mapObj.points, true);
     }
 
     public void remove(@NotNull MapObject mapObj) {
-        for (var pt : mapObj.points) {
-            getRaw(pt).objects.remove(mapObj);
+        long stripes = lockWrite(mapObj.points, null);
+        try {
+            updateTypeIndex(mapObj, mapObj.points, false);
+            for (var pt : mapObj.points) {
+                take(mapObj, pt);
+            }
+        } finally {
+            unlockWrite(stripes);
         }
     }
 
     /**
      * Removes specified object from it's last point,
      * then adds it on the current point.
+     * On a concurrent map, the whole move is atomic,
+     * even if object crosses borders of chunks.
      */
     public void move(@NotNull MapObject mapObj) {
-        if (inBounds(mapObj.getPt0())) {
+        if (!inBounds(mapObj.getPt0())) {
+            return;
+        }
+        long stripes = lockWrite(mapObj.points, mapObj.lastPoints);
+        try {
             if (inBounds(mapObj.getLastPt0())) {
-                for (var pt : mapObj.lastPoints) {
-                    getRaw(pt).objects.remove(mapObj);
-                }
+                updateTypeIndex(mapObj, mapObj.lastPoints, false);
+                moveFootprint(mapObj);
+                updateTypeIndex(mapObj, mapObj.points, true);
+            } else {
+                addUnlocked(mapObj);
             }
-            add(mapObj);
+        } finally {
+            unlockWrite(stripes);
         }
     }
 
-
     /**
-     * Checks if specified point is inside this map's bounds.
+     * Places all given objects on this map at once.
+     * Work is sorted by cells locality, so it is much faster
+     * than adding objects one by one.
+     * Objects are bound to this map (see {@link MapObject#getMap()}),
+     * so they can be created with null map, and then added in bulk.
+     * Objects already placed on this map are skipped.
+     * Points out of map bounds are skipped.
      */
-    public boolean inBounds(@NotNull Point3D pt) {
-        return inBounds(pt.x, pt.y, pt.z);
+    public void addAll(@NotNull Collection<? extends MapObject> objects) {
+        addAll(objects, null);
     }
 
     /**
-     * Checks if specified point is inside this map's bounds.
+     * Places all given objects on this map at once.
+     * If pool is specified, chunks are filled in parallel on it.
+     * Parallel placement does not record separate changes in the map journal,
+     * the journal is reset instead (see {@link #forEachChange}).
      */
-    public boolean inBounds(int x, int y) {
-        return x >= 0 && x < xSize
-            && y >= 0 && y < ySize;
+    public void addAll(@NotNull Collection<? extends MapObject> objects, @Nullable ForkJoinPool pool) {
+        for (var mapObj : objects) {
+            mapObj.bindMap(this);
+        }
+        long stripes = lockWrite(ALL_STRIPES);
+        try {
+            // objects constructed with this map are placed by their constructors
+            var unplaced = new ArrayList<MapObject>(objects.size());
+            for (var mapObj : objects) {
+                if (!isPlaced(mapObj)) {
+                    unplaced.add(mapObj);
+                }
+            }
+            bulkUpdate(unplaced, pool, true);
+        } finally {
+            unlockWrite(stripes);
+        }
     }
 
     /**
-     * Checks if specified point is inside this map's bounds.
+     * Checks if given object is found in the cell of its first point inside map bounds.
      */
-    public boolean inBounds(int x, int y, int z) {
-        return inBounds(x, y)
-            && z >= 0 && z < zSize;
-    }
-
-    @Nullable
-    public MapObject get(@NotNull Point3D pt) {
-        return get(pt.x, pt.y, pt.z);
-    }
-
-    @Nullable
-    public MapObject get(int x, int y, int z) {
-        if (!inBounds(x, y, z)) {
-            return null;
+    private boolean isPlaced(MapObject mapObj) {
+        int index = firstIndexOf(mapObj);
+        var chunk = index < 0 ? null : chunk(index >>> chunkCellBits);
+        if (chunk == null) {
+            return false;
         }
-        var cont = getRaw(x, y, z);
-        if (cont.objects.empty()) {
-            return null;
+        int cellIndex = index & chunkCellMask;
+        for (int i = chunk.size(cellIndex) - 1; i >= 0; i--) {
+            if (chunk.get(cellIndex, i) == mapObj) {
+                return true;
+            }
         }
-        return cont.objects.peek();
-    }
-
-    protected MapCell getRaw(int x, int y, int z) {
-        return getRaw(new Point3D(x, y, z));
+        return false;
     }
 
-    protected MapCell getRaw(@NotNull Point3D pt) {
-        return containers[pt.z][pt.y][pt.x];
+    /**
+     * Removes all given objects from this map at once.
+     */
+    public void removeAll(@NotNull Collection<? extends MapObject> objects) {
+        removeAll(objects, null);
     }
 
     /**
-     * Removes all MapObject-s from the map.
+     * Removes all given objects from this map at once.
+     * If pool is specified, chunks are processed in parallel on it.
+     * Parallel removal does not record separate changes in the map journal,
+     * the journal is reset instead (see {@link #forEachChange}).
      */
-    protected void clear() {
-        for (int z = 0; z < zSize; z++) {
-            for (int y = 0; y < ySize; y++) {
-                for (int x = 0; x < xSize; x++) {
-                    getRaw(x, y, z).objects.clear();
-                }
-            }
+    public void removeAll(@NotNull Collection<? extends MapObject> objects, @Nullable ForkJoinPool pool) {
+        long stripes = lockWrite(ALL_STRIPES);
+        try {
+            bulkUpdate(objects, pool, false);
+        } finally {
+            unlockWrite(stripes);
         }
     }
 
     /**
-     * Used for player movement checks.
+     * Removes all objects having at least one point inside
+     * given rectangle of map columns (on all heights).
+     * Objects are removed entirely, with their points out of the region.
+     */
+    public void clear(int x0, int y0, int x1, int y1) {
+        long stripes = lockWrite(ALL_STRIPES);
+        try {
+            clearUnlocked(x0, y0, x1, y1);
+        } finally {
+            unlockWrite(stripes);
+        }
+    }
+
+    private void clearUnlocked(int x0, int y0, int x1, int y1) {
+        var found = new LinkedHashSet<MapObject>();
+        x0 = Math.max(x0, 0);
+        y0 = Math.max(y0, 0);
+        x1 = Math.min(x1, xSize - 1);
+        y1 = Math.min(y1, ySize - 1);
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
+                var chunk = getChunk(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT);
+                if (chunk == null) {
+                    // skip the rest of chunk row
+                    x |= CHUNK_MASK;
+                    continue;
+                }
+                for (int z = 0; z < zSize; z++) {
+                    int cellIndex = MapChunk.cellIndex(x, y, z);
+                    for (int i = 0; i < chunk.size(cellIndex); i++) {
+                        found.add(chunk.get(cellIndex, i));
+                    }
+                }
+            }
+        }
+        bulkUpdate(found, null, false);
+    }
+
+    /**
+     * Places (or takes) given objects on all their points,
+     * processing cells in order of their indices.
+     */
+    private void bulkUpdate(Collection<? extends MapObject> objects, @Nullable ForkJoinPool pool, boolean add) {
+        int count = 0;
+        for (var mapObj : objects) {
+            count += mapObj.points.length;
+        }
+        // each key is a cell index in the high half, and index of (object, point) pair in the low half
+        var keys = new long[count];
+        var pairObjects = new MapObject[count];
+        int n = 0;
+        for (var mapObj : objects) {
+            for (var pt : mapObj.points) {
+                int index = indexOf(pt.x, pt.y, pt.z);
+                if (index < 0) {
+                    continue;
+                }
+                keys[n] = (long) index << 32 | n;
+                pairObjects[n] = mapObj;
+                n++;
+            }
+        }
+        Arrays.sort(keys, 0, n);
+
+        // chunks of a streaming map are loaded on the calling thread only
+        if (pool == null || streamer != null) {
+            updateRun(keys, pairObjects, 0, n, add, true);
+            return;
+        }
+
+        // split work into runs of keys, one run per chunk
+        var runStarts = new int[n + 1];
+        int runs = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || keys[i] >>> 32 + chunkCellBits != keys[i - 1] >>> 32 + chunkCellBits) {
+                runStarts[runs++] = i;
+            }
+        }
+        runStarts[runs] = n;
+        final int runsCount = runs;
+        long hash = pool.submit(() -> IntStream.range(0, runsCount).parallel().mapToLong(r ->
+            updateRun(keys, pairObjects, runStarts[r], runStarts[r + 1], add, false)
+        ).reduce(0, (a, b) -> a ^ b)).join();
+
+        if (locks == null) {
+            stateHash ^= hash;
+            resetJournal(keys, runStarts, runsCount);
+            return;
+        }
+        synchronized (journal) {
+            stateHash ^= hash;
+            resetJournal(keys, runStarts, runsCount);
+        }
+    }
+
+    /**
+     * Resets the journal after parallel update,
+     * marking all chunks of given runs as changed.
+     */
+    private void resetJournal(long[] keys, int[] runStarts, int runsCount) {
+        journal.reset();
+        for (int r = 0; r < runsCount; r++) {
+            int chunkNumber = (int) (keys[runStarts[r]] >>> 32 + chunkCellBits);
+            chunkVersions[chunkNumber] = journal.getVersion();
+            freeCells.markDirty(chunkNumber);
+        }
+    }
+
+    /**
+     * Places (or takes) objects on cells of given range of sorted keys.
+     * Keys of the same chunk are processed in a row, looking the chunk up once.
+     * Changes are recorded, or their state hash keys are returned instead (combined).
+     */
+    private long updateRun(long[] keys, MapObject[] pairObjects, int from, int to, boolean add, boolean record) {
+        long hash = 0;
+        int i = from;
+        while (i < to) {
+            int chunkNumber = (int) (keys[i] >>> 32 + chunkCellBits);
+            var chunk = record ? writableChunk(chunkNumber) : unmarkedWritableChunk(chunkNumber);
+            if (chunk == null && add) {
+                chunk = chunks[chunkNumber] = new MapChunk(zSize, owner);
+            }
+            for (; i < to && (int) (keys[i] >>> 32 + chunkCellBits) == chunkNumber; i++) {
+                if (chunk == null) {
+                    continue;
+                }
+                int index = (int) (keys[i] >>> 32);
+                var mapObj = pairObjects[(int) keys[i]];
+                if (add) {
+                    chunk.push(index & chunkCellMask, mapObj);
+                    if (typeIndex) chunk.index(mapObj);
+                } else {
+                    if (!chunk.remove(index & chunkCellMask, mapObj)) {
+                        continue;
+                    }
+                    if (typeIndex) chunk.unindex(mapObj);
+                }
+                if (record) {
+                    recordChange(mapObj, index, add);
+                } else {
+                    long key = cellHash(mapObj, index);
+                    chunk.hash ^= key;
+                    hash ^= key;
+                }
+            }
+            if (chunk != null && chunk.isEmpty()) {
+                chunks[chunkNumber] = null;
+            }
+        }
+        return hash;
+    }
+
+
+    /**
+     * Checks if specified point is inside this map's bounds.
+     */
+    public boolean inBounds(@NotNull Point3D pt) {
+        return inBounds(pt.x, pt.y, pt.z);
+    }
+
+    /**
+     * Checks if specified point is inside this map's bounds.
+     */
+    public boolean inBounds(int x, int y) {
+        return x >= 0 && x < xSize
+            && y >= 0 && y < ySize;
+    }
+
+    /**
+     * Checks if specified point is inside this map's bounds.
+     */
+    public boolean inBounds(int x, int y, int z) {
+        return inBounds(x, y)
+            && z >= 0 && z < zSize;
+    }
+
+    @Nullable
+    public MapObject get(@NotNull Point3D pt) {
+        return get(pt.x, pt.y, pt.z);
+    }
+
+    @Nullable
+    public MapObject get(int x, int y, int z) {
+        return get(indexOf(x, y, z));
+    }
+
+    /**
+     * Returns topmost object of the cell with given index
+     * (see {@link #indexOf(int, int, int)}), or null if cell is empty
+     * or index is negative.
+     */
+    @Nullable
+    public MapObject get(int index) {
+        if (index < 0) {
+            return null;
+        }
+        if (locks == null) {
+            return peek(index);
+        }
+        var lock = locks[(index >>> chunkCellBits) % LOCK_STRIPES];
+        long stamp = lock.tryOptimisticRead();
+        try {
+            var obj = peek(index);
+            if (lock.validate(stamp)) {
+                return obj;
+            }
+        } catch (RuntimeException e) {
+            // cell stack may be seen half-changed by optimistic read
+            if (lock.validate(stamp)) {
+                throw e;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return peek(index);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Nullable
+    private MapObject peek(int index) {
+        var chunk = chunk(index >>> chunkCellBits);
+        if (chunk == null) {
+            return null;
+        }
+        return chunk.peek(index & chunkCellMask);
+    }
+
+    /**
+     * Returns a packed index of the cell at specified point,
+     * or -1 if point is out of this map's bounds.
+     * Index can be passed to {@link #get(int)}, {@link #isWalkable(int)}
+     * and {@link #isTransparent(int)} to access the cell without
+     * allocating any objects.
+     */
+    public int indexOf(int x, int y, int z) {
+        if (!inBounds(x, y, z)) {
+            return -1;
+        }
+        int chunk = (y >> CHUNK_SHIFT) * xChunks + (x >> CHUNK_SHIFT);
+        return chunk << chunkCellBits | MapChunk.cellIndex(x, y, z);
+    }
+
+    /**
+     * Returns a packed index of the cell at specified point,
+     * or -1 if point is out of this map's bounds.
+     */
+    public int indexOf(@NotNull Point3D pt) {
+        return indexOf(pt.x, pt.y, pt.z);
+    }
+
+    /**
+     * Returns X coordinate of the cell with given index.
+     */
+    public int xOf(int index) {
+        int chunkX = (index >>> chunkCellBits) % xChunks;
+        return chunkX << CHUNK_SHIFT | index & CHUNK_MASK;
+    }
+
+    /**
+     * Returns Y coordinate of the cell with given index.
+     */
+    public int yOf(int index) {
+        int chunkY = (index >>> chunkCellBits) / xChunks;
+        return chunkY << CHUNK_SHIFT | index >> CHUNK_SHIFT & CHUNK_MASK;
+    }
+
+    /**
+     * Returns Z coordinate of the cell with given index.
+     */
+    public int zOf(int index) {
+        return (index & chunkCellMask) >>> CHUNK_AREA_SHIFT;
+    }
+
+    /**
+     * Returns all objects of the cell at specified point,
+     * from the bottom to the top. List is empty for points out of map bounds.
+     * Returned list is a copy, use {@link #add} and {@link #remove} to change the cell.
+     */
+    public ArrayList<MapObject> getCellObjects(int x, int y, int z) {
+        var objects = new ArrayList<MapObject>();
+        int index = indexOf(x, y, z);
+        if (index < 0) {
+            return objects;
+        }
+        int chunkNumber = index >>> chunkCellBits;
+        long stripes = lockRead(1L << chunkNumber % LOCK_STRIPES);
+        try {
+            var chunk = chunk(chunkNumber);
+            if (chunk != null) {
+                int cellIndex = index & chunkCellMask;
+                for (int i = 0; i < chunk.size(cellIndex); i++) {
+                    objects.add(chunk.get(cellIndex, i));
+                }
+            }
+        } finally {
+            unlockRead(stripes);
+        }
+        return objects;
+    }
+
+    /**
+     * Returns all objects of the cell at specified point,
+     * see {@link #getCellObjects(int, int, int)}.
+     */
+    public ArrayList<MapObject> getCellObjects(@NotNull Point3D pt) {
+        return getCellObjects(pt.x, pt.y, pt.z);
+    }
+
+    /**
+     * Returns a copy of objects of the cell at specified point.
+     *
+     * @deprecated cells are stored in chunks, so changing the returned cell
+     * does not change the map anymore. Use {@link #getCellObjects(int, int, int)}
+     * to read the cell, and {@link #add} or {@link #remove} to change it.
+     */
+    @Deprecated
+    protected MapCell getRaw(int x, int y, int z) {
+        var cell = new MapCell();
+        cell.objects.addAll(getCellObjects(x, y, z));
+        return cell;
+    }
+
+    /**
+     * Returns a copy of objects of the cell at specified point.
+     *
+     * @deprecated see {@link #getRaw(int, int, int)}.
+     */
+    @Deprecated
+    protected MapCell getRaw(@NotNull Point3D pt) {
+        return getRaw(pt.x, pt.y, pt.z);
+    }
+
+    /**
+     * Removes all MapObject-s from the map.
+     */
+    protected void clear() {
+        long stripes = lockWrite(ALL_STRIPES);
+        try {
+            Arrays.fill(chunks, null);
+            freeCells.reset();
+            stateHash = 0;
+            if (streamer != null) {
+                streamer.clear();
+            }
+            journal.reset();
+            Arrays.fill(chunkVersions, journal.getVersion());
+        } finally {
+            unlockWrite(stripes);
+        }
+    }
+
+    /**
+     * Creates a copy-on-write snapshot of this map.
+     * Snapshot shares all chunks with this map, so it takes time
+     * proportional to count of chunks, not cells. A shared chunk is copied
+     * by the map (this or snapshot) that changes it first.
+     * Objects are shared too, as well as fields of subclasses (copied shallowly).
+     * Snapshot of a concurrent map is a regular one.
+     */
+    public Map snapshot() {
+        return snapshot(null);
+    }
+
+    /**
+     * Creates a copy-on-write snapshot of this map (see {@link #snapshot()}),
+     * which replaces objects with results of {@code remap}.
+     * Shared chunk is copied with remapped objects when snapshot accesses it
+     * for the first time, so remap must return the same object for the same argument.
+     * Call {@link #materializeRemap()} to remap all objects at once.
+     * Used by time travelling to bind snapshot to cloned objects.
+     */
+    public Map snapshot(@Nullable UnaryOperator<MapObject> remap) {
+        if (streamer != null) {
+            throw new IllegalStateException("Streaming map can't be snapshotted");
+        }
+        materializeRemap();
+        long stripes = lockWrite(ALL_STRIPES);
+        try {
+            Map copy;
+            try {
+                copy = (Map) super.clone();
+            } catch (CloneNotSupportedException e) {
+                throw new AssertionError(e);
+            }
+            copy.chunks = chunks.clone();
+            copy.chunkVersions = chunkVersions.clone();
+            copy.freeCells = freeCells.copy();
+            copy.journal = journal.emptyCopy();
+            copy.owner = new Object();
+            copy.remap = remap;
+            copy.locks = null;
+            // chunks are shared from now on
+            owner = new Object();
+            return copy;
+        } finally {
+            unlockWrite(stripes);
+        }
+    }
+
+    /**
+     * Copies all chunks still shared with the origin of this snapshot,
+     * as they hold foreign objects, replacing objects with results of remap
+     * (see {@link #snapshot(UnaryOperator)}). Objects are remapped in their
+     * current state, so it should be called before the origin changes.
+     * Does nothing for maps without remap.
+     */
+    public void materializeRemap() {
+        if (remap == null) {
+            return;
+        }
+        for (int i = 0; i < chunks.length; i++) {
+            chunk(i);
+        }
+        remap = null;
+    }
+
+    /**
+     * Makes this map safe to use from multiple threads.
+     * Each write (add, remove, move, flags update, bulk operations)
+     * locks all chunks it touches, so it is atomic even when
+     * a multi-cell object crosses borders of chunks.
+     * Single-cell reads ({@link #get}, {@link #isWalkable}, {@link #isTransparent},
+     * {@link #getTopmostZ}) are optimistic and don't block each other,
+     * area reads are consistent per cell, and type queries ({@link #getAll})
+     * lock chunks they read.
+     * Object should be moved by a single thread at a time,
+     * as {@link MapObject#moveView} changes its points before the map is locked.
+     */
+    public void enableConcurrency() {
+        if (streamer != null) {
+            throw new IllegalStateException("Streaming map can't be concurrent");
+        }
+        if (locks != null) {
+            return;
+        }
+        materializeRemap();
+        var stripes = new StampedLock[LOCK_STRIPES];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new StampedLock();
+        }
+        locks = stripes;
+    }
+
+    public boolean isConcurrent() {
+        return locks != null;
+    }
+
+    /**
+     * Write-locks chunks of all given points (in bounds) in ascending order of locks.
+     * Returns bitmask of locked stripes, 0 for a regular map.
+     */
+    private long lockWrite(Point3D[] points, @Nullable Point3D[] otherPoints) {
+        if (locks == null) {
+            return 0;
+        }
+        long stripes = stripesOf(points);
+        if (otherPoints != null) {
+            stripes |= stripesOf(otherPoints);
+        }
+        return lockWrite(stripes);
+    }
+
+    private long lockWrite(long stripes) {
+        if (locks == null) {
+            return 0;
+        }
+        for (long s = stripes; s != 0; s &= s - 1) {
+            locks[Long.numberOfTrailingZeros(s)].writeLock();
+        }
+        return stripes;
+    }
+
+    private void unlockWrite(long stripes) {
+        for (long s = stripes; s != 0; s &= s - 1) {
+            locks[Long.numberOfTrailingZeros(s)].tryUnlockWrite();
+        }
+    }
+
+    private long lockRead(long stripes) {
+        if (locks == null) {
+            return 0;
+        }
+        for (long s = stripes; s != 0; s &= s - 1) {
+            locks[Long.numberOfTrailingZeros(s)].readLock();
+        }
+        return stripes;
+    }
+
+    private void unlockRead(long stripes) {
+        for (long s = stripes; s != 0; s &= s - 1) {
+            locks[Long.numberOfTrailingZeros(s)].tryUnlockRead();
+        }
+    }
+
+    private long stripesOf(Point3D[] points) {
+        long stripes = 0;
+        for (var pt : points) {
+            if (inBounds(pt)) {
+                int chunkNumber = (pt.y >> CHUNK_SHIFT) * xChunks + (pt.x >> CHUNK_SHIFT);
+                stripes |= 1L << chunkNumber % LOCK_STRIPES;
+            }
+        }
+        return stripes;
+    }
+
+    /**
+     * Returns stripes of all chunks in given (inclusive) rectangle of chunks.
+     */
+    private long stripesOf(int chunkX0, int chunkY0, int chunkX1, int chunkY1) {
+        if (locks == null) {
+            return 0;
+        }
+        long stripes = 0;
+        for (int chunkY = chunkY0; chunkY <= chunkY1 && stripes != ALL_STRIPES; chunkY++) {
+            for (int chunkX = chunkX0; chunkX <= chunkX1; chunkX++) {
+                stripes |= 1L << (chunkY * xChunks + chunkX) % LOCK_STRIPES;
+            }
+        }
+        return stripes;
+    }
+
+    /**
+     * Starts an optimistic read of the chunk with given number.
+     */
+    private long beginRead(int chunkNumber) {
+        return locks == null ? 0 : locks[chunkNumber % LOCK_STRIPES].tryOptimisticRead();
+    }
+
+    /**
+     * Checks that chunk with given number was not changed since given optimistic read.
+     */
+    private boolean validateRead(int chunkNumber, long stamp) {
+        return locks == null || locks[chunkNumber % LOCK_STRIPES].validate(stamp);
+    }
+
+    private long lockChunkRead(int chunkNumber) {
+        return locks[chunkNumber % LOCK_STRIPES].readLock();
+    }
+
+    private void unlockChunkRead(int chunkNumber, long stamp) {
+        locks[chunkNumber % LOCK_STRIPES].unlockRead(stamp);
+    }
+
+    /**
+     * Returns current version of this map.
+     * Version is increased on each change of any map cell.
+     */
+    public long getVersion() {
+        if (locks == null) {
+            return journal.getVersion();
+        }
+        synchronized (journal) {
+            return journal.getVersion();
+        }
+    }
+
+    /**
+     * Changes max count of cell changes kept in the map journal.
+     * Pass 0 to disable journal (only versions will be tracked).
+     */
+    public void setJournalCapacity(int capacity) {
+        journal.setCapacity(capacity);
+    }
+
+    /**
+     * Visits all changes of cells inside given rectangle of map columns,
+     * made after given version, from the oldest to the newest one.
+     * Returns false (without visiting anything) if journal does not
+     * keep all such changes anymore, then consumer has to refresh
+     * the whole rectangle.
+     */
+    public boolean forEachChange(
+        long sinceVersion,
+        int x0, int y0,
+        int x1, int y1,
+        MapChangeVisitor visitor
+    ) {
+        if (locks != null) {
+            synchronized (journal) {
+                return forEachChangeUnlocked(sinceVersion, x0, y0, x1, y1, visitor);
+            }
+        }
+        return forEachChangeUnlocked(sinceVersion, x0, y0, x1, y1, visitor);
+    }
+
+    private boolean forEachChangeUnlocked(
+        long sinceVersion,
+        int x0, int y0,
+        int x1, int y1,
+        MapChangeVisitor visitor
+    ) {
+        if (!journal.covers(sinceVersion)) {
+            return false;
+        }
+        if (!isChanged(sinceVersion, x0, y0, x1, y1)) {
+            return true;
+        }
+        long from = Math.max(sinceVersion + 1, journal.getOldestVersion());
+        for (long v = from; v <= journal.getVersion(); v++) {
+            int cell = journal.getCell(v);
+            int x = xOf(cell);
+            int y = yOf(cell);
+            if (x >= x0 && x <= x1 && y >= y0 && y <= y1) {
+                visitor.visit(v, x, y, zOf(cell), journal.getObject(v), journal.isAdded(v));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if any cell inside given rectangle of map columns
+     * may have been changed after given version.
+     * Tracked per chunk, so it is cheap but coarse.
+     */
+    public boolean isChanged(long sinceVersion, int x0, int y0, int x1, int y1) {
+        int chunkX0 = Math.max(x0, 0) >> CHUNK_SHIFT;
+        int chunkY0 = Math.max(y0, 0) >> CHUNK_SHIFT;
+        int chunkX1 = Math.min(x1, xSize - 1) >> CHUNK_SHIFT;
+        int chunkY1 = Math.min(y1, ySize - 1) >> CHUNK_SHIFT;
+        for (int chunkY = chunkY0; chunkY <= chunkY1; chunkY++) {
+            for (int chunkX = chunkX0; chunkX <= chunkX1; chunkX++) {
+                if (chunkVersions[chunkY * xChunks + chunkX] > sinceVersion) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns bitmap of chunks changed after given version.
+     * Bit {@code chunkY * xChunks + chunkX} is set for each changed chunk.
+     */
+    public BitSet getChangedChunks(long sinceVersion) {
+        var changed = new BitSet(chunkVersions.length);
+        for (int i = 0; i < chunkVersions.length; i++) {
+            if (chunkVersions[i] > sinceVersion) {
+                changed.set(i);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns Zobrist hash of this map state, i.e. of the set of objects
+     * (by their ids) standing in each cell. It is updated in O(1) on each change,
+     * so maps of the same size (e.g. maps of timelines, or maps of a client
+     * and the server) are compared with a single long comparison.
+     * Order of objects in cells and flags of objects are not hashed.
+     * Hash of a streaming map covers its loaded chunks only.
+     */
+    public long getStateHash() {
+        if (locks == null) {
+            return stateHash;
+        }
+        synchronized (journal) {
+            return stateHash;
+        }
+    }
+
+    /**
+     * Returns Zobrist hash of the chunk with given chunk coordinates,
+     * 0 for empty chunks. See {@link #getStateHash()}.
+     */
+    public long getChunkHash(int chunkX, int chunkY) {
+        int chunkNumber = chunkY * xChunks + chunkX;
+        long stripes = lockRead(1L << chunkNumber % LOCK_STRIPES);
+        try {
+            var chunk = chunks[chunkNumber];
+            return chunk == null ? 0 : chunk.hash;
+        } finally {
+            unlockRead(stripes);
+        }
+    }
+
+    /**
+     * Returns bitmap of chunks whose state differs from state
+     * of the same chunks of given map, which must have the same size.
+     * Bit {@code chunkY * xChunks + chunkX} is set for each different chunk.
+     */
+    public BitSet getDifferentChunks(@NotNull Map other) {
+        if (other.xSize != xSize || other.ySize != ySize || other.zSize != zSize) {
+            throw new IllegalArgumentException("Maps of different sizes can't be compared");
+        }
+        var different = new BitSet(chunks.length);
+        for (int chunkY = 0; chunkY < yChunks; chunkY++) {
+            for (int chunkX = 0; chunkX < xChunks; chunkX++) {
+                if (getChunkHash(chunkX, chunkY) != other.getChunkHash(chunkX, chunkY)) {
+                    different.set(chunkY * xChunks + chunkX);
+                }
+            }
+        }
+        return different;
+    }
+
+    /**
+     * Returns chunk with given chunk coordinates,
+     * or null if it is not allocated yet.
+     */
+    @Nullable
+    MapChunk getChunk(int chunkX, int chunkY) {
+        return chunk(chunkY * xChunks + chunkX);
+    }
+
+    /**
+     * Returns chunk with given number, or null if it is not allocated yet.
+     * Loads the chunk first, if this map is streamed.
+     */
+    @Nullable
+    private MapChunk chunk(int chunkNumber) {
+        if (streamer != null) {
+            streamer.touch(chunkNumber);
+        }
+        var chunk = chunks[chunkNumber];
+        if (remap != null && chunk != null && chunk.owner != owner) {
+            // snapshot sees only its own objects
+            chunk = chunks[chunkNumber] = new MapChunk(chunk, owner, remap);
+        }
+        return chunk;
+    }
+
+    /**
+     * Same as {@link #chunk(int)}, but copies the chunk first,
+     * if it is shared with another map.
+     */
+    @Nullable
+    private MapChunk writableChunk(int chunkNumber) {
+        markFree(chunkNumber);
+        return unmarkedWritableChunk(chunkNumber);
+    }
+
+    /**
+     * Same as {@link #writableChunk(int)}, but doesn't mark the chunk
+     * in the free cells index. Used by parallel updates,
+     * which mark all their chunks afterwards.
+     */
+    @Nullable
+    private MapChunk unmarkedWritableChunk(int chunkNumber) {
+        var chunk = chunk(chunkNumber);
+        if (chunk != null && chunk.owner != owner) {
+            chunk = chunks[chunkNumber] = new MapChunk(chunk, owner, null);
+        }
+        return chunk;
+    }
+
+    /**
+     * Returns chunk with given chunk coordinates,
+     * allocating it if needed.
+     */
+    MapChunk getOrCreateChunk(int chunkX, int chunkY) {
+        int i = chunkY * xChunks + chunkX;
+        var chunk = writableChunk(i);
+        if (chunk == null) {
+            chunk = chunks[i] = new MapChunk(zSize, owner);
+        }
+        return chunk;
+    }
+
+    /**
+     * Frees memory of chunk with given chunk coordinates.
+     * Invoked when the last object leaves the chunk.
+     */
+    void releaseChunk(int chunkX, int chunkY) {
+        markFree(chunkY * xChunks + chunkX);
+        chunks[chunkY * xChunks + chunkX] = null;
+    }
+
+    /**
+     * Returns count of all chunks of this map, allocated or not.
+     */
+    public int getChunksCount() {
+        return chunks.length;
+    }
+
+    /**
+     * Returns number of the chunk owning given object (see {@link MapFile#writeChunk}),
+     * as used by {@link #getChangedChunks}, or -1 if the object is out of map bounds.
+     */
+    public int getOwnerChunk(MapObject mapObj) {
+        int index = firstIndexOf(mapObj);
+        return index < 0 ? -1 : index >>> chunkCellBits;
+    }
+
+    /**
+     * Returns count of chunks that are currently allocated.
+     */
+    public int getAllocatedChunksCount() {
+        int count = 0;
+        for (var chunk : chunks) {
+            if (chunk != null) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Marks chunk with given number as changed in the free cells index.
+     */
+    private void markFree(int chunkNumber) {
+        if (locks == null) {
+            freeCells.markDirty(chunkNumber);
+            return;
+        }
+        // writers of different stripes share the index
+        synchronized (freeCells) {
+            freeCells.markDirty(chunkNumber);
+        }
+    }
+
+    /**
+     * Syncs the free cells index and returns index of a random free cell,
+     * or -1 if there are no free cells.
+     */
+    private int sampleFreeCell(Random rnd) {
+        if (locks == null) {
+            freeCells.sync(chunks);
+            return freeCells.sample(chunks, rnd, chunkCellBits);
+        }
+        // readers of all stripes share the index
+        synchronized (freeCells) {
+            freeCells.sync(chunks);
+            return freeCells.sample(chunks, rnd, chunkCellBits);
+        }
+    }
+
+    /**
+     * Returns count of free (empty or walkable) cells of this map.
+     * Chunks of a streaming map that are not loaded are considered free.
+     */
+    public int getFreeCellsCount() {
+        long stripes = lockRead(ALL_STRIPES);
+        try {
+            if (locks == null) {
+                freeCells.sync(chunks);
+                return freeCells.getTotal();
+            }
+            // readers of all stripes share the index
+            synchronized (freeCells) {
+                freeCells.sync(chunks);
+                return freeCells.getTotal();
+            }
+        } finally {
+            unlockRead(stripes);
+        }
+    }
+
+    /**
+     * Returns a uniformly random free (empty or walkable) point of this map,
+     * or null if there are no free points.
+     * Takes logarithmic time of count of chunks, however crowded the map is.
+     */
+    @Nullable
+    public Point3D getRandomFreePoint(@NotNull Random rnd) {
+        return getRandomFreePoint(rnd, 1, 1);
+    }
+
+    /**
+     * Returns a uniformly random point of this map, where object
+     * of given 2D size can be placed on free cells only
+     * (the point is the minimal one of the object),
+     * or null if there are no such points.
+     * Free points are sampled until one of them fits the object,
+     * and if they don't fit too many times, all points are checked.
+     */
+    @Nullable
+    public Point3D getRandomFreePoint(@NotNull Random rnd, int objXSize, int objYSize) {
+        long stripes = lockRead(ALL_STRIPES);
+        try {
+            for (int attempt = 0; attempt < FREE_POINT_ATTEMPTS; attempt++) {
+                int index = sampleFreeCell(rnd);
+                if (index < 0) {
+                    return null;
+                }
+                // cells of not loaded chunks are checked after loading
+                int x = xOf(index);
+                int y = yOf(index);
+                int z = zOf(index);
+                if (fits(x, y, z, objXSize, objYSize)) {
+                    return new Point3D(x, y, z);
+                }
+            }
+            return findFreePoint(rnd, objXSize, objYSize);
+        } finally {
+            unlockRead(stripes);
+        }
+    }
+
+    /**
+     * Checks if object of given 2D size, with the minimal point
+     * at given coordinates, is placed on free cells only.
+     */
+    private boolean fits(int x0, int y0, int z, int objXSize, int objYSize) {
+        if (x0 + objXSize > xSize || y0 + objYSize > ySize) {
+            return false;
+        }
+        for (int y = y0; y < y0 + objYSize; y++) {
+            for (int x = x0; x < x0 + objXSize; x++) {
+                if (!isWalkable(indexOf(x, y, z))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks all points of the map, selecting random one of those
+     * where object of given 2D size fits.
+     */
+    @Nullable
+    private Point3D findFreePoint(Random rnd, int objXSize, int objYSize) {
+        Point3D found = null;
+        int count = 0;
+        for (int z = 0; z < zSize; z++) {
+            for (int y = 0; y + objYSize <= ySize; y++) {
+                for (int x = 0; x + objXSize <= xSize; x++) {
+                    // reservoir sampling keeps the choice uniform
+                    if (fits(x, y, z, objXSize, objYSize) && rnd.nextInt(++count) == 0) {
+                        found = new Point3D(x, y, z);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Turns this map into a streaming one. Chunks are loaded on the first
+     * access to them, from given store or, if not found there, with given generator.
+     * When more than {@code maxLoadedChunks} chunks are loaded,
+     * least recently used ones are saved into the store and dropped from memory,
+     * except for chunks near watched objects (see {@link #watch})
+     * and chunks with objects spanning into other chunks.
+     * Objects of evicted chunks are recreated when chunk is loaded again,
+     * so the game should not keep references to them.
+     * Must be invoked on an empty map.
+     */
+    public void enableStreaming(
+        @NotNull ChunkGenerator generator,
+        @NotNull ChunkStore store,
+        int maxLoadedChunks
+    ) {
+        if (getAllocatedChunksCount() > 0) {
+            throw new IllegalStateException("Streaming can be enabled only for an empty map");
+        }
+        if (locks != null) {
+            throw new IllegalStateException("Concurrent map can't be streamed");
+        }
+        streamer = new ChunkStreamer(this, chunks.length, generator, store, maxLoadedChunks);
+    }
+
+    public boolean isStreaming() {
+        return streamer != null;
+    }
+
+    /**
+     * Keeps chunks around given object (usually a player) loaded,
+     * while this map is streamed.
+     */
+    public void watch(@NotNull MapObject mapObj) {
+        if (streamer != null) {
+            streamer.watch(mapObj);
+        }
+    }
+
+    public void unwatch(@NotNull MapObject mapObj) {
+        if (streamer != null) {
+            streamer.unwatch(mapObj);
+        }
+    }
+
+    /**
+     * Changes radius (in chunks) of the square area
+     * kept loaded around each watched object. 1 by default.
+     */
+    public void setWatchRadius(int chunksRadius) {
+        if (streamer != null) {
+            streamer.setKeepRadius(chunksRadius);
+        }
+    }
+
+    /**
+     * Returns count of chunks currently loaded by the streaming map,
+     * or count of allocated chunks for a regular one.
+     */
+    public int getLoadedChunksCount() {
+        return streamer != null ? streamer.getLoadedChunksCount() : getAllocatedChunksCount();
+    }
+
+    /**
+     * Collects objects of the loaded chunk with given number, to evict it.
+     * Objects are ordered by their first occurrence in cell stacks, from the bottom.
+     * Returns null if some of objects occupy cells of other chunks,
+     * so the chunk can't be evicted alone.
+     */
+    @Nullable
+    Collection<MapObject> getChunkObjects(int chunkNumber) {
+        var chunk = chunks[chunkNumber];
+        var objects = new LinkedHashSet<MapObject>();
+        if (chunk == null) {
+            return objects;
+        }
+        for (int cellIndex = 0; cellIndex < chunk.cells.length; cellIndex++) {
+            for (int i = 0; i < chunk.size(cellIndex); i++) {
+                var mapObj = chunk.get(cellIndex, i);
+                if (!objects.add(mapObj)) {
+                    continue;
+                }
+                for (var pt : mapObj.points) {
+                    if (indexOf(pt.x, pt.y, pt.z) >>> chunkCellBits != chunkNumber) {
+                        return null;
+                    }
+                }
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * Collects objects owned by the chunk with given number, to save them.
+     * Object is owned by the chunk of its first point in map bounds,
+     * so each object is owned by exactly one chunk.
+     * Objects are ordered by their owning cells, and by cell stacks from the bottom.
+     */
+    ArrayList<MapObject> getOwnedObjects(int chunkNumber) {
+        var objects = new ArrayList<MapObject>();
+        long stripes = lockRead(1L << chunkNumber % LOCK_STRIPES);
+        try {
+            var chunk = chunk(chunkNumber);
+            if (chunk == null) {
+                return objects;
+            }
+            int base = chunkNumber << chunkCellBits;
+            for (int cellIndex = 0; cellIndex < chunk.cells.length; cellIndex++) {
+                if (chunk.cells[cellIndex] == null) {
+                    continue;
+                }
+                for (int i = 0; i < chunk.size(cellIndex); i++) {
+                    var mapObj = chunk.get(cellIndex, i);
+                    if (firstIndexOf(mapObj) == (base | cellIndex)) {
+                        objects.add(mapObj);
+                    }
+                }
+            }
+        } finally {
+            unlockRead(stripes);
+        }
+        return objects;
+    }
+
+    /**
+     * Returns index of the first point of given object in map bounds, or -1.
+     */
+    private int firstIndexOf(MapObject mapObj) {
+        for (var pt : mapObj.points) {
+            int index = indexOf(pt.x, pt.y, pt.z);
+            if (index >= 0) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Drops the evicted chunk with given number from memory.
+     * Journal and versions are untouched, as chunk content is not changed.
+     */
+    void dropChunk(int chunkNumber) {
+        markFree(chunkNumber);
+        var chunk = chunks[chunkNumber];
+        if (chunk != null) {
+            // objects of the chunk are hashed again when it is loaded back
+            stateHash ^= chunk.hash;
+        }
+        chunks[chunkNumber] = null;
+    }
+
+    /**
+     * Determines if cell changes are recorded in the journal.
+     * Objects placed by loading streamed chunks are not changes.
+     */
+    private boolean isRecording() {
+        return streamer == null || !streamer.isLoading();
+    }
+
+    /**
+     * Adds (or removes) given object to the type index
+     * of each chunk occupied by given points.
+     */
+    private void updateTypeIndex(MapObject mapObj, Point3D[] points, boolean add) {
+        if (!typeIndex) {
+            return;
+        }
+        for (int i = 0; i < points.length; i++) {
+            var pt = points[i];
+            if (!inBounds(pt) || isChunkVisited(points, i)) {
+                continue;
+            }
+            var chunk = writableChunk((pt.y >> CHUNK_SHIFT) * xChunks + (pt.x >> CHUNK_SHIFT));
+            if (chunk == null) {
+                continue;
+            }
+            if (add) {
+                chunk.index(mapObj);
+            } else {
+                chunk.unindex(mapObj);
+            }
+        }
+    }
+
+    /**
+     * Checks if chunk of the point with given index
+     * contains any of previous points.
+     */
+    private static boolean isChunkVisited(Point3D[] points, int index) {
+        int chunkX = points[index].x >> CHUNK_SHIFT;
+        int chunkY = points[index].y >> CHUNK_SHIFT;
+        for (int i = 0; i < index; i++) {
+            if (points[i].x >> CHUNK_SHIFT == chunkX
+                && points[i].y >> CHUNK_SHIFT == chunkY) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Pushes an object on top of the cell at given point.
+     */
+    private void place(MapObject mapObj, Point3D pt) {
+        place(mapObj, indexOf(pt.x, pt.y, pt.z));
+    }
+
+    /**
+     * Pushes an object on top of the cell with given index.
+     * Negative (out of bounds) indices are skipped.
+     */
+    private void place(MapObject mapObj, int index) {
+        if (index < 0) {
+            return;
+        }
+        int chunkNumber = index >>> chunkCellBits;
+        var chunk = writableChunk(chunkNumber);
+        if (chunk == null) {
+            chunk = chunks[chunkNumber] = new MapChunk(zSize, owner);
+        }
+        chunk.push(index & chunkCellMask, mapObj);
+        recordChange(mapObj, index, true);
+    }
+
+    /**
+     * Removes an object from the cell at given point.
+     */
+    private void take(MapObject mapObj, Point3D pt) {
+        take(mapObj, indexOf(pt.x, pt.y, pt.z));
+    }
+
+    /**
+     * Removes an object from the cell with given index.
+     * Negative (out of bounds) indices are skipped.
+     */
+    private void take(MapObject mapObj, int index) {
+        if (index < 0) {
+            return;
+        }
+        int chunkNumber = index >>> chunkCellBits;
+        var chunk = writableChunk(chunkNumber);
+        if (chunk == null || !chunk.remove(index & chunkCellMask, mapObj)) {
+            return;
+        }
+        recordChange(mapObj, index, false);
+        if (chunk.isEmpty()) {
+            chunks[chunkNumber] = null;
+        }
+    }
+
+    /**
+     * Updates state hashes with the change of the cell with given index,
+     * and records it in the journal.
+     * Chunk of the cell must be still allocated.
+     */
+    private void recordChange(MapObject mapObj, int index, boolean added) {
+        long key = cellHash(mapObj, index);
+        chunks[index >>> chunkCellBits].hash ^= key;
+        if (locks == null) {
+            stateHash ^= key;
+            if (isRecording()) {
+                journal.record(index, mapObj, added);
+                chunkVersions[index >>> chunkCellBits] = journal.getVersion();
+            }
+            return;
+        }
+        // journal and state hash are shared by all chunks
+        synchronized (journal) {
+            stateHash ^= key;
+            if (isRecording()) {
+                journal.record(index, mapObj, added);
+                chunkVersions[index >>> chunkCellBits] = journal.getVersion();
+            }
+        }
+    }
+
+    /**
+     * Records a change of flags of given object standing in the cell with given index,
+     * as taking the object and placing it back, so consumers of the journal
+     * (e.g. pathfinders) see the cell changed. State hashes do not depend on flags.
+     */
+    private void recordFlagsChange(MapObject mapObj, int index) {
+        if (locks == null) {
+            if (isRecording()) {
+                journal.record(index, mapObj, false);
+                journal.record(index, mapObj, true);
+                chunkVersions[index >>> chunkCellBits] = journal.getVersion();
+            }
+            return;
+        }
+        synchronized (journal) {
+            if (isRecording()) {
+                journal.record(index, mapObj, false);
+                journal.record(index, mapObj, true);
+                chunkVersions[index >>> chunkCellBits] = journal.getVersion();
+            }
+        }
+    }
+
+    /**
+     * Returns Zobrist key of given object standing in the cell with given index.
+     * Keys depend on object ids only, so clones made by time travelling
+     * and objects replicated to clients get the same keys.
+     * Ids of placed objects are changed via {@link #changeId}, which re-keys their cells.
+     */
+    private static long cellHash(MapObject mapObj, int index) {
+        var id = mapObj.getId();
+        return mix(id.getMostSignificantBits() ^ mix(id.getLeastSignificantBits() + index * 0x9E3779B97F4A7C15L));
+    }
+
+    /**
+     * SplitMix64 finalizer, spreads bits of given value over the whole long.
+     */
+    private static long mix(long z) {
+        z = (z ^ z >>> 30) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ z >>> 27) * 0x94D049BB133111EBL;
+        return z ^ z >>> 31;
+    }
+
+    /**
+     * Moves an object from its last points to current ones,
+     * touching only cells that actually enter or leave its footprint.
+     * Object keeps its place in stacks of cells that remain in the footprint.
+     */
+    private void moveFootprint(MapObject mapObj) {
+        var lastPoints = mapObj.lastPoints;
+        var points = mapObj.points;
+        if (lastPoints.length == 1 && points.length == 1) {
+            int from = indexOf(lastPoints[0]);
+            int to = indexOf(points[0]);
+            if (from != to) {
+                take(mapObj, from);
+                place(mapObj, to);
+            }
+            return;
+        }
+        var left = sortedIndicesOf(lastPoints);
+        var entered = sortedIndicesOf(points);
+        int i = 0;
+        int j = 0;
+        while (i < left.length || j < entered.length) {
+            if (j == entered.length || i < left.length && left[i] < entered[j]) {
+                take(mapObj, left[i++]);
+            } else if (i == left.length || entered[j] < left[i]) {
+                place(mapObj, entered[j++]);
+            } else {
+                // cell stays in the footprint
+                i++;
+                j++;
+            }
+        }
+    }
+
+    private int[] sortedIndicesOf(Point3D[] points) {
+        var indices = new int[points.length];
+        for (int i = 0; i < points.length; i++) {
+            indices[i] = indexOf(points[i]);
+        }
+        Arrays.sort(indices);
+        return indices;
+    }
+
+    /**
+     * Syncs walkability & transparency bits of all cells
+     * occupied by given object with their topmost objects.
+     * Invoked when object changes its flags, recorded in the journal as a change of these cells.
+     */
+    void updateFlags(@NotNull MapObject mapObj) {
+        long stripes = lockWrite(mapObj.points, null);
+        try {
+            for (var pt : mapObj.points) {
+                if (!inBounds(pt)) {
+                    continue;
+                }
+                var chunk = writableChunk((pt.y >> CHUNK_SHIFT) * xChunks + (pt.x >> CHUNK_SHIFT));
+                if (chunk != null) {
+                    chunk.updateFlags(MapChunk.cellIndex(pt.x, pt.y, pt.z));
+                    recordFlagsChange(mapObj, indexOf(pt.x, pt.y, pt.z));
+                }
+            }
+        } finally {
+            unlockWrite(stripes);
+        }
+    }
+
+    /**
+     * Changes id of given object standing on this map with given action.
+     * Zobrist keys depend on object ids, so keys of all cells
+     * the object stands in are replaced with keys of its new id,
+     * and the object can be taken from the map later.
+     */
+    void changeId(@NotNull MapObject mapObj, @NotNull Runnable change) {
+        long stripes = lockWrite(mapObj.points, null);
+        try {
+            var points = mapObj.points;
+            var indices = new int[points.length];
+            var keys = new long[points.length];
+            int count = 0;
+            for (var pt : points) {
+                int index = indexOf(pt.x, pt.y, pt.z);
+                if (index < 0) {
+                    continue;
+                }
+                var chunk = chunk(index >>> chunkCellBits);
+                if (chunk != null && chunk.contains(index & chunkCellMask, mapObj)) {
+                    indices[count] = index;
+                    keys[count++] = cellHash(mapObj, index);
+                }
+            }
+            change.run();
+            long hash = 0;
+            for (int i = 0; i < count; i++) {
+                long key = keys[i] ^ cellHash(mapObj, indices[i]);
+                unmarkedWritableChunk(indices[i] >>> chunkCellBits).hash ^= key;
+                hash ^= key;
+            }
+            if (locks == null) {
+                stateHash ^= hash;
+                return;
+            }
+            synchronized (journal) {
+                stateHash ^= hash;
+            }
+        } finally {
+            unlockWrite(stripes);
+        }
+    }
+
+    /**
+     * Used for player movement checks.
      */
     public boolean isWalkable(@NotNull Point3D point) {
-        MapObject obj = get(point);
-        return obj == null || obj.isWalkable();
+        return isWalkable(indexOf(point));
+    }
+
+    /**
+     * Used for player movement checks.
+     * Accepts cell index (see {@link #indexOf(int, int, int)}).
+     */
+    public boolean isWalkable(int index) {
+        if (index < 0) {
+            return true;
+        }
+        int chunkNumber = index >>> chunkCellBits;
+        long stamp = beginRead(chunkNumber);
+        var chunk = chunk(chunkNumber);
+        boolean walkable = chunk == null || chunk.isWalkable(index & chunkCellMask);
+        if (!validateRead(chunkNumber, stamp)) {
+            stamp = lockChunkRead(chunkNumber);
+            try {
+                chunk = chunk(chunkNumber);
+                walkable = chunk == null || chunk.isWalkable(index & chunkCellMask);
+            } finally {
+                unlockChunkRead(chunkNumber, stamp);
+            }
+        }
+        return walkable;
     }
 
     /**
      * Used for player vision logic.
      */
     public boolean isTransparent(@NotNull Point3D point) {
-        MapObject obj = get(point);
-        return obj == null || obj.isTransparent();
+        return isTransparent(indexOf(point));
+    }
+
+    /**
+     * Used for player vision logic.
+     * Accepts cell index (see {@link #indexOf(int, int, int)}).
+     */
+    public boolean isTransparent(int index) {
+        if (index < 0) {
+            return true;
+        }
+        int chunkNumber = index >>> chunkCellBits;
+        long stamp = beginRead(chunkNumber);
+        var chunk = chunk(chunkNumber);
+        boolean transparent = chunk == null || chunk.isTransparent(index & chunkCellMask);
+        if (!validateRead(chunkNumber, stamp)) {
+            stamp = lockChunkRead(chunkNumber);
+            try {
+                chunk = chunk(chunkNumber);
+                transparent = chunk == null || chunk.isTransparent(index & chunkCellMask);
+            } finally {
+                unlockChunkRead(chunkNumber, stamp);
+            }
+        }
+        return transparent;
+    }
+
+    /**
+     * Returns walkability bits of the map row with given Y and Z.
+     * Bit {@code x % 64} of word {@code x / 64} is set if cell X is walkable.
+     */
+    public long[] getWalkableRow(int y, int z) {
+        var words = new long[getRowWordsCount()];
+        getWalkableRow(y, z, words);
+        return words;
+    }
+
+    /**
+     * Fills given words with walkability bits of the map row with given Y and Z.
+     * Bit {@code x % 64} of word {@code x / 64} is set if cell X is walkable.
+     */
+    public void getWalkableRow(int y, int z, long[] words) {
+        fillRow(y, z, words, true);
+    }
+
+    /**
+     * Returns transparency bits of the map row with given Y and Z.
+     * Bit {@code x % 64} of word {@code x / 64} is set if cell X is transparent.
+     */
+    public long[] getTransparentRow(int y, int z) {
+        var words = new long[getRowWordsCount()];
+        getTransparentRow(y, z, words);
+        return words;
+    }
+
+    /**
+     * Fills given words with transparency bits of the map row with given Y and Z.
+     * Bit {@code x % 64} of word {@code x / 64} is set if cell X is transparent.
+     */
+    public void getTransparentRow(int y, int z, long[] words) {
+        fillRow(y, z, words, false);
+    }
+
+    /**
+     * Returns count of long words needed to hold bits of one map row.
+     */
+    public int getRowWordsCount() {
+        return (xSize + 63) >> 6;
+    }
+
+    private void fillRow(int y, int z, long[] words, boolean walkable) {
+        int count = getRowWordsCount();
+        Arrays.fill(words, 0, count, 0);
+        if (!inBounds(0, y, z)) {
+            return;
+        }
+        int chunkY = y >> CHUNK_SHIFT;
+        int rowMask = (1 << CHUNK_SIZE) - 1;
+        // chunks may be loaded or copied from the snapshot source on the way
+        long stripes = lockWrite(stripesOf(0, chunkY, xChunks - 1, chunkY));
+        try {
+            for (int chunkX = 0; chunkX < xChunks; chunkX++) {
+                var chunk = getChunk(chunkX, chunkY);
+                int bits = rowMask;
+                if (chunk != null) {
+                    var bitset = walkable ? chunk.obstacles : chunk.opaques;
+                    bits &= ~MapChunk.rowBits(bitset, y & CHUNK_MASK, z);
+                }
+                int x = chunkX << CHUNK_SHIFT;
+                words[x >> 6] |= (long) bits << x;
+            }
+        } finally {
+            unlockWrite(stripes);
+        }
+        // clear bits beyond the map edge
+        if ((xSize & 63) != 0) {
+            words[count - 1] &= (1L << xSize) - 1;
+        }
     }
 
     /**
@@ -310,15 +2173,15 @@ public abstract class Map extends NamedObject implements IMap, Serializable {
             sb.append("Layer ").append(z + 1).append(":\n");
             for (int y = 0; y < ySize; y++) {
                 for (int x = 0; x < xSize; x++) {
-                    var c = containers[z][y][x];
-                    if (c.objects.empty()) {
+                    var obj = get(x, y, z);
+                    if (obj == null) {
                         sb.append("     ");
                         continue;
                     }
                     sb.append(
-                        c.objects.peek().getKeyName(),
+                        obj.getKeyName(),
                         0,
-                        Math.min(c.objects.peek().getKeyName().length(), 4)
+                        Math.min(obj.getKeyName().length(), 4)
                     ).append(" ");
                 }
                 sb.append('\n');
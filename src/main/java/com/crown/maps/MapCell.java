@@ -2,6 +2,12 @@ package com.crown.maps;
 
 import java.util.Stack;
 
+/**
+ * Objects of one map cell, from the bottom to the top of the cell.
+ * Returned by deprecated {@link Map#getRaw(Point3D)} as a copy: cells are stored
+ * in chunks (see {@link MapChunk#cells}), so changing it does not change the map.
+ * Use {@link Map#getCellObjects(Point3D)} instead.
+ */
 class MapCell {
     public final Stack<MapObject> objects = new Stack<>();
 
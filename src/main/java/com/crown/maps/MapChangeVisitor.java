@@ -0,0 +1,17 @@
+package com.crown.maps;
+
+/**
+ * Callback used to read changes recorded in the map journal.
+ * See {@link Map#forEachChange}.
+ */
+@FunctionalInterface
+public interface MapChangeVisitor {
+    /**
+     * Invoked for every recorded change of a map cell.
+     *
+     * @param version Version of the map right after the change.
+     * @param obj     Object that was placed into (or taken from) the cell.
+     * @param added   true if object was placed into the cell, false if it was taken.
+     */
+    void visit(long version, int x, int y, int z, MapObject obj, boolean added);
+}
@@ -0,0 +1,318 @@
+package com.crown.maps;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.function.UnaryOperator;
+
+/**
+ * A square region of {@link Map#CHUNK_SIZE} x {@link Map#CHUNK_SIZE}
+ * map columns, spanning the whole z-range of the map.
+ * Chunks are allocated by the map when the first object is placed
+ * into them, and released when the last object leaves them.
+ * Chunks may be shared by a map and its snapshots, only the map
+ * holding the {@link #owner} token may change a chunk in place.
+ */
+class MapChunk {
+    /**
+     * Cells of this chunk, {@code null} for empty ones.
+     * Cell holding a single object stores that {@link MapObject} itself,
+     * and only cells with more objects are spilled into a {@link CellStack}.
+     * Indexed with {@link #cellIndex(int, int, int)}.
+     */
+    final Object[] cells;
+
+    /**
+     * Count of non-empty cells in this chunk.
+     */
+    int occupiedCells;
+
+    /**
+     * Bitset of cells whose topmost object is not walkable.
+     * Indexed with {@link #cellIndex(int, int, int)}.
+     */
+    final long[] obstacles;
+
+    /**
+     * Count of set bits in {@link #obstacles}.
+     */
+    int obstaclesCount;
+
+    /**
+     * Bitset of cells whose topmost object is not transparent.
+     * Indexed with {@link #cellIndex(int, int, int)}.
+     */
+    final long[] opaques;
+
+    /**
+     * Count of long words used to store occupied Z levels of one column.
+     */
+    final int zWords;
+
+    /**
+     * Per-column bitmasks of occupied Z levels, {@link #zWords} words
+     * for each column. Bit Z is set if the cell at that height is not empty.
+     * Indexed with column index multiplied by {@link #zWords}.
+     */
+    final long[] heights;
+
+    /**
+     * Objects having at least one point inside of this chunk,
+     * grouped by their exact class. Allocated when the first object is indexed.
+     */
+    @Nullable HashMap<Class<?>, HashSet<MapObject>> objectsByType;
+
+    /**
+     * Zobrist hash of all (object, cell) pairs of this chunk,
+     * maintained by the map. Zero for empty chunks.
+     */
+    long hash;
+
+    /**
+     * Copy-on-write token of the map allowed to change this chunk in place.
+     */
+    final Object owner;
+
+    MapChunk(int zSize, Object owner) {
+        cells = new Object[Map.CHUNK_AREA * zSize];
+        obstacles = new long[cells.length >> 6];
+        opaques = new long[cells.length >> 6];
+        zWords = (zSize + 63) >> 6;
+        heights = new long[Map.CHUNK_AREA * zWords];
+        this.owner = owner;
+    }
+
+    /**
+     * Creates a copy of given chunk, owned by another map.
+     * Objects are replaced with results of {@code remap}, if it is specified.
+     */
+    MapChunk(MapChunk source, Object owner, @Nullable UnaryOperator<MapObject> remap) {
+        cells = source.cells.clone();
+        for (int i = 0; i < cells.length; i++) {
+            var cell = cells[i];
+            if (cell instanceof CellStack) {
+                var stack = (CellStack) cell;
+                var copy = new CellStack(remap(stack.get(0), remap));
+                for (int j = 1; j < stack.size(); j++) {
+                    copy.push(remap(stack.get(j), remap));
+                }
+                cells[i] = copy;
+            } else if (cell != null) {
+                cells[i] = remap((MapObject) cell, remap);
+            }
+        }
+        occupiedCells = source.occupiedCells;
+        hash = source.hash;
+        obstacles = source.obstacles.clone();
+        obstaclesCount = source.obstaclesCount;
+        opaques = source.opaques.clone();
+        zWords = source.zWords;
+        heights = source.heights.clone();
+        if (source.objectsByType != null) {
+            objectsByType = new HashMap<>();
+            for (var entry : source.objectsByType.entrySet()) {
+                var objects = new HashSet<MapObject>();
+                for (var mapObj : entry.getValue()) {
+                    objects.add(remap(mapObj, remap));
+                }
+                objectsByType.put(entry.getKey(), objects);
+            }
+        }
+        this.owner = owner;
+    }
+
+    private static MapObject remap(MapObject mapObj, @Nullable UnaryOperator<MapObject> remap) {
+        return remap == null ? mapObj : remap.apply(mapObj);
+    }
+
+    /**
+     * Returns index of the cell inside of a chunk for given map coordinates.
+     */
+    static int cellIndex(int x, int y, int z) {
+        return z << Map.CHUNK_AREA_SHIFT
+            | (y & Map.CHUNK_MASK) << Map.CHUNK_SHIFT
+            | x & Map.CHUNK_MASK;
+    }
+
+    /**
+     * Returns index of the column inside of a chunk for given map coordinates.
+     */
+    static int columnIndex(int x, int y) {
+        return (y & Map.CHUNK_MASK) << Map.CHUNK_SHIFT | x & Map.CHUNK_MASK;
+    }
+
+    /**
+     * Returns the highest Z of non-empty cell in column with given index,
+     * that is less than or equal to {@code maxZ}, or -1 if there is no such cell.
+     */
+    int topmostZ(int column, int maxZ) {
+        int base = column * zWords;
+        int w = maxZ >> 6;
+        long word = heights[base + w] & -1L >>> 63 - (maxZ & 63);
+        while (true) {
+            if (word != 0) {
+                return w << 6 | 63 - Long.numberOfLeadingZeros(word);
+            }
+            if (--w < 0) {
+                return -1;
+            }
+            word = heights[base + w];
+        }
+    }
+
+    /**
+     * Returns topmost object of the cell with given index,
+     * or null if cell is empty.
+     */
+    @Nullable
+    MapObject peek(int cellIndex) {
+        var cell = cells[cellIndex];
+        if (cell instanceof CellStack) {
+            return ((CellStack) cell).peek();
+        }
+        return (MapObject) cell;
+    }
+
+    /**
+     * Returns count of objects in the cell with given index.
+     */
+    int size(int cellIndex) {
+        var cell = cells[cellIndex];
+        if (cell instanceof CellStack) {
+            return ((CellStack) cell).size();
+        }
+        return cell == null ? 0 : 1;
+    }
+
+    /**
+     * Returns object at given position of the cell's stack (0 is the bottom).
+     */
+    MapObject get(int cellIndex, int i) {
+        var cell = cells[cellIndex];
+        if (cell instanceof CellStack) {
+            return ((CellStack) cell).get(i);
+        }
+        return (MapObject) cell;
+    }
+
+    /**
+     * Checks if given object stands in the cell with given index.
+     */
+    boolean contains(int cellIndex, MapObject mapObj) {
+        for (int i = size(cellIndex) - 1; i >= 0; i--) {
+            if (get(cellIndex, i) == mapObj) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void push(int cellIndex, MapObject mapObj) {
+        var cell = cells[cellIndex];
+        if (cell == null) {
+            cells[cellIndex] = mapObj;
+            occupiedCells++;
+            setHeightBit(cellIndex, true);
+        } else if (cell instanceof CellStack) {
+            ((CellStack) cell).push(mapObj);
+        } else {
+            cells[cellIndex] = new CellStack((MapObject) cell, mapObj);
+        }
+        updateFlags(cellIndex);
+    }
+
+    /**
+     * Removes given object from the cell with given index.
+     * Drops the cell itself when it gets empty.
+     * Returns false if object was not found in the cell.
+     */
+    boolean remove(int cellIndex, MapObject mapObj) {
+        var cell = cells[cellIndex];
+        if (cell == mapObj) {
+            cells[cellIndex] = null;
+            occupiedCells--;
+            setHeightBit(cellIndex, false);
+        } else if (cell instanceof CellStack && ((CellStack) cell).remove(mapObj)) {
+            var stack = (CellStack) cell;
+            if (stack.size() == 1) {
+                cells[cellIndex] = stack.peek();
+            }
+        } else {
+            return false;
+        }
+        updateFlags(cellIndex);
+        return true;
+    }
+
+    private void setHeightBit(int cellIndex, boolean occupied) {
+        int z = cellIndex >>> Map.CHUNK_AREA_SHIFT;
+        int i = (cellIndex & Map.CHUNK_AREA - 1) * zWords + (z >> 6);
+        if (occupied) {
+            heights[i] |= 1L << z;
+        } else {
+            heights[i] &= ~(1L << z);
+        }
+    }
+
+    void index(MapObject mapObj) {
+        if (objectsByType == null) {
+            objectsByType = new HashMap<>();
+        }
+        objectsByType.computeIfAbsent(mapObj.getClass(), c -> new HashSet<>()).add(mapObj);
+    }
+
+    void unindex(MapObject mapObj) {
+        if (objectsByType == null) {
+            return;
+        }
+        var objects = objectsByType.get(mapObj.getClass());
+        if (objects != null && objects.remove(mapObj) && objects.isEmpty()) {
+            objectsByType.remove(mapObj.getClass());
+        }
+    }
+
+    /**
+     * Syncs walkability & transparency bits of the cell
+     * with given index with its current topmost object.
+     */
+    void updateFlags(int cellIndex) {
+        var top = peek(cellIndex);
+        long bit = 1L << cellIndex;
+        int word = cellIndex >> 6;
+        boolean wasObstacle = (obstacles[word] & bit) != 0;
+        if (top != null && !top.isWalkable()) {
+            obstacles[word] |= bit;
+            if (!wasObstacle) obstaclesCount++;
+        } else {
+            obstacles[word] &= ~bit;
+            if (wasObstacle) obstaclesCount--;
+        }
+        if (top != null && !top.isTransparent()) {
+            opaques[word] |= bit;
+        } else {
+            opaques[word] &= ~bit;
+        }
+    }
+
+    boolean isWalkable(int cellIndex) {
+        return (obstacles[cellIndex >> 6] & 1L << cellIndex) == 0;
+    }
+
+    boolean isTransparent(int cellIndex) {
+        return (opaques[cellIndex >> 6] & 1L << cellIndex) == 0;
+    }
+
+    /**
+     * Returns 16 bits of given bitset, representing
+     * the chunk row with given in-chunk Y and map Z.
+     */
+    static int rowBits(long[] bitset, int y, int z) {
+        int offset = cellIndex(0, y, z);
+        return (int) (bitset[offset >> 6] >>> offset) & (1 << Map.CHUNK_SIZE) - 1;
+    }
+
+    boolean isEmpty() {
+        return occupiedCells == 0;
+    }
+}
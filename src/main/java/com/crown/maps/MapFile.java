@@ -0,0 +1,163 @@
+package com.crown.maps;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Versioned binary format of map contents, streamed chunk by chunk.
+ * Layout is the header (magic, version, map size), a frame for each
+ * non-empty chunk (chunk number, byte length, count of objects and
+ * objects written by {@link MapObjectCodec}), and the end frame
+ * with chunk number -1. Each object is written once, in the frame
+ * of the chunk of its first point in map bounds.
+ * Frames are read and placed one by one, so the map is filled
+ * while the rest of the file is still being read.
+ */
+public final class MapFile {
+    public static final int MAGIC = 0x43524d50; // "CRMP"
+    public static final short VERSION = 1;
+
+    private static final int HEADER_SIZE = 4 + 2 + 3 * 4;
+    private static final int FRAME_HEADER_SIZE = 4 + 4;
+    private static final int END = -1;
+
+    private MapFile() {
+    }
+
+    /**
+     * Writes all objects of given map into the channel.
+     * Streaming maps are persisted by their chunk stores instead.
+     */
+    public static void save(Map map, WritableByteChannel channel, MapObjectCodec codec) throws IOException {
+        if (map.isStreaming()) {
+            throw new IllegalStateException("Streaming map is saved by its chunk store");
+        }
+        var header = ByteBuffer.allocate(HEADER_SIZE)
+            .putInt(MAGIC)
+            .putShort(VERSION)
+            .putInt(map.xSize)
+            .putInt(map.ySize)
+            .putInt(map.zSize);
+        writeFully(channel, header.flip());
+
+        var frameHeader = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+        var bytes = new FrameBuffer();
+        var out = new DataOutputStream(bytes);
+        for (int chunkNumber = 0; chunkNumber < map.getChunksCount(); chunkNumber++) {
+            bytes.reset();
+            if (writeChunk(map, chunkNumber, out, codec) == 0) {
+                continue;
+            }
+            out.flush();
+            frameHeader.clear().putInt(chunkNumber).putInt(bytes.size());
+            writeFully(channel, frameHeader.flip());
+            writeFully(channel, bytes.toBuffer());
+        }
+        frameHeader.clear().putInt(END).putInt(0);
+        writeFully(channel, frameHeader.flip());
+    }
+
+    /**
+     * Reads objects written by {@link #save} from the channel,
+     * and places them on given map, which must have the same size.
+     * Channel is read up to the end of the map data only.
+     */
+    public static void load(Map map, ReadableByteChannel channel, MapObjectCodec codec) throws IOException {
+        var header = readFully(channel, ByteBuffer.allocate(HEADER_SIZE));
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a map file");
+        }
+        short version = header.getShort();
+        if (version > VERSION) {
+            throw new IOException("Unsupported map file version: " + version);
+        }
+        int xSize = header.getInt();
+        int ySize = header.getInt();
+        int zSize = header.getInt();
+        if (xSize != map.xSize || ySize != map.ySize || zSize != map.zSize) {
+            throw new IOException(
+                "Map of size " + xSize + "x" + ySize + "x" + zSize + " can't be loaded into "
+                    + map.xSize + "x" + map.ySize + "x" + map.zSize + " one"
+            );
+        }
+
+        var frameHeader = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+        var frame = ByteBuffer.allocate(4096);
+        while (true) {
+            readFully(channel, frameHeader.clear());
+            if (frameHeader.getInt() == END) {
+                return;
+            }
+            int length = frameHeader.getInt();
+            if (length > frame.capacity()) {
+                frame = ByteBuffer.allocate(Math.max(length, frame.capacity() * 2));
+            }
+            readFully(channel, frame.clear().limit(length));
+            readChunk(map, new DataInputStream(new ByteArrayInputStream(frame.array(), 0, length)), codec);
+        }
+    }
+
+    /**
+     * Writes count of objects owned by the chunk with given number, and the objects.
+     * Object is owned by the chunk of its first point in map bounds.
+     * Returns count of written objects.
+     */
+    public static int writeChunk(Map map, int chunkNumber, DataOutput out, MapObjectCodec codec) throws IOException {
+        var objects = map.getOwnedObjects(chunkNumber);
+        out.writeInt(objects.size());
+        for (var mapObj : objects) {
+            codec.write(out, mapObj);
+        }
+        return objects.size();
+    }
+
+    /**
+     * Reads objects written by {@link #writeChunk}, and places them on given map.
+     */
+    public static void readChunk(Map map, DataInput in, MapObjectCodec codec) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            codec.read(in, map);
+        }
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Fills remaining space of given buffer from the channel, and flips the buffer.
+     */
+    private static ByteBuffer readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Map file is truncated");
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Byte array stream exposing its buffer without copying.
+     */
+    private static class FrameBuffer extends ByteArrayOutputStream {
+        FrameBuffer() {
+            super(4096);
+        }
+
+        ByteBuffer toBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
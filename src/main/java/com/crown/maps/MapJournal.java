@@ -0,0 +1,141 @@
+package com.crown.maps;
+
+import java.util.Arrays;
+
+/**
+ * Append-only journal of map cell changes.
+ * Each change gets the next version number.
+ * Changes are kept in a ring buffer that grows up to the given
+ * capacity, after that the oldest changes are dropped.
+ */
+class MapJournal {
+    private int capacity;
+
+    /**
+     * Version of the last recorded change.
+     */
+    private long version;
+
+    /**
+     * Count of changes currently kept in the buffer.
+     */
+    private int size;
+
+    // ring buffer, change with version V is stored at (V - 1) % length
+    private int[] cells = new int[0];
+    private MapObject[] objects = new MapObject[0];
+    private boolean[] added = new boolean[0];
+
+    MapJournal(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Creates an empty journal with the same capacity,
+     * continuing versions of this one.
+     */
+    MapJournal emptyCopy() {
+        var copy = new MapJournal(capacity);
+        copy.version = version;
+        return copy;
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns version of the oldest change kept in this journal.
+     */
+    long getOldestVersion() {
+        return version - size + 1;
+    }
+
+    /**
+     * Checks if all changes made after given version are still kept.
+     */
+    boolean covers(long sinceVersion) {
+        return sinceVersion >= version - size;
+    }
+
+    /**
+     * Records a change of cell with given index.
+     *
+     * @param added true if object was placed into the cell, false if it was taken.
+     */
+    void record(int cellIndex, MapObject mapObj, boolean added) {
+        if (size == cells.length && size < capacity) {
+            resize(Math.min(Math.max(cells.length * 2, 16), capacity));
+        }
+        if (cells.length == 0) {
+            // journal is disabled, only the version is tracked
+            version++;
+            return;
+        }
+        int slot = slotOf(++version);
+        this.cells[slot] = cellIndex;
+        this.objects[slot] = mapObj;
+        this.added[slot] = added;
+        if (size < cells.length) {
+            size++;
+        }
+    }
+
+    /**
+     * Drops all kept changes and advances the version,
+     * so every consumer sees the change.
+     */
+    void reset() {
+        version++;
+        size = 0;
+        Arrays.fill(objects, null);
+    }
+
+    /**
+     * Changes max count of kept changes, dropping the oldest ones if needed.
+     */
+    void setCapacity(int capacity) {
+        this.capacity = capacity;
+        if (cells.length > capacity) {
+            resize(capacity);
+        }
+    }
+
+    int getCell(long version) {
+        return cells[slotOf(version)];
+    }
+
+    MapObject getObject(long version) {
+        return objects[slotOf(version)];
+    }
+
+    boolean isAdded(long version) {
+        return added[slotOf(version)];
+    }
+
+    private int slotOf(long version) {
+        return (int) ((version - 1) % cells.length);
+    }
+
+    private void resize(int length) {
+        var oldCells = cells;
+        var oldObjects = objects;
+        var oldAdded = added;
+        long from = Math.max(getOldestVersion(), version - length + 1);
+        cells = new int[length];
+        objects = new MapObject[length];
+        added = new boolean[length];
+        size = (int) (version - from + 1);
+        if (length == 0) {
+            size = 0;
+            return;
+        }
+        for (long v = from; v <= version; v++) {
+            int oldSlot = (int) ((v - 1) % oldCells.length);
+            int slot = slotOf(v);
+            cells[slot] = oldCells[oldSlot];
+            objects[slot] = oldObjects[oldSlot];
+            added[slot] = oldAdded[oldSlot];
+        }
+    }
+}
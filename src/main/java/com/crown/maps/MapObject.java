@@ -3,8 +3,6 @@ package com.crown.maps;
 import com.crown.common.NamedObject;
 import com.crown.tools.Random;
 
-import org.apache.commons.lang3.tuple.Pair;
-
 import java.util.UUID;
 
 /**
@@ -23,6 +21,10 @@ public abstract class MapObject extends NamedObject {
     protected Point3D[] lastPoints;
     protected Point3D[] points;
 
+    // cached bounding box of points
+    private int minX, minY, minZ;
+    private int maxX, maxY, maxZ;
+
     /**
      * Creates new map object with size of 1
      * on the random map point, and places it on this map.
@@ -70,6 +72,7 @@ public abstract class MapObject extends NamedObject {
         super(name);
         this.mapIconId = mapIcon.getId();
         this.points = lastPoints = points;
+        updateBounds();
         setMap(map);
     }
 
@@ -83,6 +86,41 @@ public abstract class MapObject extends NamedObject {
         this.map = map;
     }
 
+    /**
+     * Sets the map of this object without placing it on that map.
+     * Used by bulk operations ({@link Map#addAll}) that place objects themselves.
+     */
+    void bindMap(Map map) {
+        if (this.map != null && this.map != map) this.map.remove(this);
+        this.map = map;
+    }
+
+    /**
+     * Generates a new id, re-keying map state hash
+     * if this object is placed on a map.
+     */
+    @Override
+    public void newId() {
+        if (map == null) {
+            super.newId();
+        } else {
+            map.changeId(this, super::newId);
+        }
+    }
+
+    /**
+     * Sets a new id, re-keying map state hash
+     * if this object is placed on a map.
+     */
+    @Override
+    public void setId(UUID value) {
+        if (map == null) {
+            super.setId(value);
+        } else {
+            map.changeId(this, () -> super.setId(value));
+        }
+    }
+
     public abstract MapIcon<?> getMapIcon();
 
     public UUID getMapIconId() {
@@ -101,8 +139,7 @@ public abstract class MapObject extends NamedObject {
      * (as it can occupy more than 1 point on the map).
      */
     public int getWidth() {
-        var bounds = getBounds();
-        return bounds.getRight().x - bounds.getLeft().x + 1;
+        return maxX - minX + 1;
     }
 
     /**
@@ -110,22 +147,38 @@ public abstract class MapObject extends NamedObject {
      * (as it can occupy more than 1 point on the map).
      */
     public int getHeight() {
-        var bounds = getBounds();
-        return bounds.getRight().y - bounds.getLeft().y + 1;
+        return maxY - minY + 1;
+    }
+
+    /**
+     * Returns the minimal point of this object's bounding box.
+     */
+    public Point3D getMinPoint() {
+        return new Point3D(minX, minY, minZ);
     }
 
     /**
-     * Returns pair of min & max points of this map object.
+     * Returns the maximal point of this object's bounding box.
      */
-    private Pair<Point3D, Point3D> getBounds() {
-        var map = getMap();
-        var minPt = new Point3D(map.xSize, map.ySize, map.zSize);
-        var maxPt = Point3D.ZERO;
-        for (var part : points) {
-            minPt = Point3D.min(minPt, part);
-            maxPt = Point3D.max(maxPt, part);
+    public Point3D getMaxPoint() {
+        return new Point3D(maxX, maxY, maxZ);
+    }
+
+    /**
+     * Recalculates cached bounding box of this object.
+     * Must be called by subclasses that change {@link #points} directly.
+     */
+    protected void updateBounds() {
+        minX = minY = minZ = Integer.MAX_VALUE;
+        maxX = maxY = maxZ = Integer.MIN_VALUE;
+        for (var pt : points) {
+            minX = Math.min(minX, pt.x);
+            minY = Math.min(minY, pt.y);
+            minZ = Math.min(minZ, pt.z);
+            maxX = Math.max(maxX, pt.x);
+            maxY = Math.max(maxY, pt.y);
+            maxZ = Math.max(maxZ, pt.z);
         }
-        return Pair.of(minPt, maxPt);
     }
 
     /**
@@ -148,13 +201,29 @@ public abstract class MapObject extends NamedObject {
      * Unsafe, map bounds are not checked.
      */
     public void moveView(int deltaX, int deltaY, int deltaZ) {
-        lastPoints = new Point3D[points.length];
-        for (int i = 0; i < points.length; i++) {
-            lastPoints[i] = new Point3D(points[i]);
-            points[i].x += deltaX;
-            points[i].y += deltaY;
-            points[i].z += deltaZ;
+        if (lastPoints == points || lastPoints.length != points.length) {
+            lastPoints = new Point3D[points.length];
+            for (int i = 0; i < points.length; i++) {
+                lastPoints[i] = new Point3D(points[i]);
+            }
+        } else {
+            for (int i = 0; i < points.length; i++) {
+                lastPoints[i].x = points[i].x;
+                lastPoints[i].y = points[i].y;
+                lastPoints[i].z = points[i].z;
+            }
+        }
+        for (var pt : points) {
+            pt.x += deltaX;
+            pt.y += deltaY;
+            pt.z += deltaZ;
         }
+        minX += deltaX;
+        minY += deltaY;
+        minZ += deltaZ;
+        maxX += deltaX;
+        maxY += deltaY;
+        maxZ += deltaZ;
         getMap().move(this);
     }
 
@@ -170,6 +239,7 @@ public abstract class MapObject extends NamedObject {
      */
     public void setWalkable(boolean walkable) {
         isWalkable = walkable;
+        if (map != null) map.updateFlags(this);
     }
 
     /**
@@ -184,6 +254,7 @@ public abstract class MapObject extends NamedObject {
      */
     public void setTransparent(boolean transparent) {
         isTransparent = transparent;
+        if (map != null) map.updateFlags(this);
     }
 
     @Override
@@ -0,0 +1,61 @@
+package com.crown.maps;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Converts map objects to binary form and back.
+ * Implemented by the game, as only it knows
+ * how to recreate its own object types.
+ */
+public interface MapObjectCodec {
+    void write(DataOutput out, MapObject mapObj) throws IOException;
+
+    /**
+     * Reads an object written by {@link #write}
+     * and places it on given map.
+     */
+    MapObject read(DataInput in, Map map) throws IOException;
+
+    /**
+     * Writes state common for all map objects: id, key name,
+     * icon id, flags and points (packed, see {@link PackedPoint}).
+     */
+    static void writeHeader(DataOutput out, MapObject mapObj) throws IOException {
+        writeId(out, mapObj.getId());
+        out.writeUTF(mapObj.getKeyName());
+        writeId(out, mapObj.getMapIconId());
+        out.writeByte((mapObj.isWalkable() ? 1 : 0) | (mapObj.isTransparent() ? 2 : 0));
+        var points = mapObj.getPoints();
+        out.writeShort(points.length);
+        for (var pt : points) {
+            out.writeLong(pt.pack());
+        }
+    }
+
+    /**
+     * Reads state written by {@link #writeHeader}.
+     */
+    static MapObjectHeader readHeader(DataInput in) throws IOException {
+        var id = readId(in);
+        var keyName = in.readUTF();
+        var mapIconId = readId(in);
+        int flags = in.readByte();
+        var points = new Point3D[in.readUnsignedShort()];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = PackedPoint.unpack(in.readLong());
+        }
+        return new MapObjectHeader(id, keyName, mapIconId, (flags & 1) != 0, (flags & 2) != 0, points);
+    }
+
+    static void writeId(DataOutput out, UUID id) throws IOException {
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+    }
+
+    static UUID readId(DataInput in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+}
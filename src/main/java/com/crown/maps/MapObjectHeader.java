@@ -0,0 +1,45 @@
+package com.crown.maps;
+
+import java.util.UUID;
+
+/**
+ * Common state of every map object, written by {@link MapObjectCodec#writeHeader}.
+ * Codec reads the header first, creates an object of the right type
+ * from it (with null map), and then applies the header to the object.
+ */
+public class MapObjectHeader {
+    public final UUID id;
+    public final String keyName;
+    public final UUID mapIconId;
+    public final boolean walkable;
+    public final boolean transparent;
+    public final Point3D[] points;
+
+    public MapObjectHeader(
+        UUID id,
+        String keyName,
+        UUID mapIconId,
+        boolean walkable,
+        boolean transparent,
+        Point3D[] points
+    ) {
+        this.id = id;
+        this.keyName = keyName;
+        this.mapIconId = mapIconId;
+        this.walkable = walkable;
+        this.transparent = transparent;
+        this.points = points;
+    }
+
+    /**
+     * Restores id and flags of given object, then places it on given map.
+     * Object must not be placed on a map yet, as map state depends on object id.
+     */
+    public <T extends MapObject> T applyTo(T mapObj, Map map) {
+        mapObj.setId(id);
+        mapObj.setWalkable(walkable);
+        mapObj.setTransparent(transparent);
+        mapObj.setMap(map);
+        return mapObj;
+    }
+}
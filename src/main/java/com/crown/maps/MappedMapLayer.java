@@ -0,0 +1,348 @@
+package com.crown.maps;
+
+import com.crown.common.IntIdRegistry;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Map layer stored off-heap, in a memory-mapped file.
+ * For each cell only its topmost object is stored: object id,
+ * icon id and walkability & transparency flags, so layer can hold
+ * maps larger than the Java heap, and reopening a file is instant.
+ * Ids are resolved back to objects and icons with registries,
+ * that should be filled by the game when the file is reopened.
+ * Empty cells are walkable and transparent, like on a regular {@link Map}.
+ */
+public class MappedMapLayer implements IMap, Closeable {
+    private static final int MAGIC = 0x43524D4C; // "CRML"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+
+    // cell record layout
+    private static final int CELL_BYTES = 9;
+    private static final int FLAGS_OFFSET = 0;
+    private static final int OBJECT_OFFSET = 1;
+    private static final int ICON_OFFSET = 5;
+
+    private static final byte OCCUPIED = 1;
+    private static final byte OBSTACLE = 1 << 1;
+    private static final byte OPAQUE = 1 << 2;
+
+    /**
+     * Count of cells in one mapped segment of the file.
+     * Single mapped buffer cannot exceed 2 GB, so file is mapped by segments.
+     */
+    private static final int SEGMENT_SHIFT = 26;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+
+    public final int xSize;
+    public final int ySize;
+    public final int zSize;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final IntIdRegistry<MapObject> objects;
+    private final IntIdRegistry<MapIcon<?>> icons;
+
+    private MappedMapLayer(
+        FileChannel channel,
+        int xSize,
+        int ySize,
+        int zSize,
+        IntIdRegistry<MapObject> objects,
+        IntIdRegistry<MapIcon<?>> icons
+    ) throws IOException {
+        this.channel = channel;
+        this.xSize = xSize;
+        this.ySize = ySize;
+        this.zSize = zSize;
+        this.objects = objects;
+        this.icons = icons;
+
+        long cells = (long) xSize * ySize * zSize;
+        if (cells > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                "Map layer of size " + xSize + "x" + ySize + "x" + zSize
+                    + " is too large to index its cells with int"
+            );
+        }
+        segments = new MappedByteBuffer[(int) ((cells + SEGMENT_MASK) >> SEGMENT_SHIFT)];
+        for (int i = 0; i < segments.length; i++) {
+            long first = (long) i << SEGMENT_SHIFT;
+            long count = Math.min(cells - first, 1L << SEGMENT_SHIFT);
+            segments[i] = channel.map(
+                FileChannel.MapMode.READ_WRITE,
+                HEADER_BYTES + first * CELL_BYTES,
+                count * CELL_BYTES
+            );
+        }
+    }
+
+    /**
+     * Creates a new empty layer in given file, overwriting it.
+     */
+    public static MappedMapLayer create(
+        Path file,
+        int xSize,
+        int ySize,
+        int zSize,
+        IntIdRegistry<MapObject> objects,
+        IntIdRegistry<MapIcon<?>> icons
+    ) throws IOException {
+        var channel = FileChannel.open(
+            file,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE
+        );
+        var header = ByteBuffer.allocate(HEADER_BYTES)
+            .putInt(MAGIC)
+            .putInt(FORMAT_VERSION)
+            .putInt(xSize)
+            .putInt(ySize)
+            .putInt(zSize)
+            .flip();
+        channel.write(header, 0);
+        return new MappedMapLayer(channel, xSize, ySize, zSize, objects, icons);
+    }
+
+    /**
+     * Opens a layer stored in given file earlier.
+     */
+    public static MappedMapLayer open(
+        Path file,
+        IntIdRegistry<MapObject> objects,
+        IntIdRegistry<MapIcon<?>> icons
+    ) throws IOException {
+        var channel = FileChannel.open(
+            file,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE
+        );
+        var header = ByteBuffer.allocate(HEADER_BYTES);
+        channel.read(header, 0);
+        header.flip();
+        if (header.remaining() < HEADER_BYTES
+            || header.getInt() != MAGIC
+            || header.getInt() != FORMAT_VERSION) {
+            channel.close();
+            throw new IOException("Not a map layer file: " + file);
+        }
+        int xSize = header.getInt();
+        int ySize = header.getInt();
+        int zSize = header.getInt();
+        return new MappedMapLayer(channel, xSize, ySize, zSize, objects, icons);
+    }
+
+    /**
+     * Copies topmost objects of all cells of given map into this layer.
+     */
+    public void copyFrom(@NotNull Map map) {
+        for (int z = 0; z < Math.min(zSize, map.zSize); z++) {
+            for (int y = 0; y < Math.min(ySize, map.ySize); y++) {
+                for (int x = 0; x < Math.min(xSize, map.xSize); x++) {
+                    set(x, y, z, map.get(x, y, z));
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes given object topmost in the cell at specified point.
+     * Pass null to make the cell empty.
+     */
+    public void set(int x, int y, int z, @Nullable MapObject obj) {
+        int index = indexOf(x, y, z);
+        if (index < 0) {
+            return;
+        }
+        var segment = segments[index >>> SEGMENT_SHIFT];
+        int offset = (index & SEGMENT_MASK) * CELL_BYTES;
+        if (obj == null) {
+            segment.put(offset + FLAGS_OFFSET, (byte) 0);
+            segment.putInt(offset + OBJECT_OFFSET, 0);
+            segment.putInt(offset + ICON_OFFSET, 0);
+            return;
+        }
+        segment.put(offset + FLAGS_OFFSET, flagsOf(obj));
+        segment.putInt(offset + OBJECT_OFFSET, objects.register(obj));
+        segment.putInt(offset + ICON_OFFSET, icons.register(obj.getMapIcon()));
+    }
+
+    /**
+     * Places given object on all its points, making it topmost there.
+     */
+    public void add(@NotNull MapObject obj) {
+        for (var pt : obj.getPoints()) {
+            set(pt.x, pt.y, pt.z, obj);
+        }
+    }
+
+    /**
+     * Rewrites flags & icon of cells where given object is topmost.
+     * Should be invoked when object changes its walkability,
+     * transparency or icon.
+     */
+    public void update(@NotNull MapObject obj) {
+        int id = objects.idOf(obj);
+        if (id == 0) {
+            return;
+        }
+        for (var pt : obj.getPoints()) {
+            int index = indexOf(pt.x, pt.y, pt.z);
+            if (index >= 0 && getObjectId(index) == id) {
+                set(pt.x, pt.y, pt.z, obj);
+            }
+        }
+    }
+
+    /**
+     * Returns topmost object of the cell at specified point,
+     * or null if cell is empty or its object is not registered.
+     */
+    @Nullable
+    public MapObject get(int x, int y, int z) {
+        int index = indexOf(x, y, z);
+        return index < 0 ? null : objects.get(getObjectId(index));
+    }
+
+    /**
+     * Returns icon of topmost object of the cell at specified point,
+     * or null if cell is empty or icon is not registered.
+     */
+    @Nullable
+    public MapIcon<?> getIcon(int x, int y, int z) {
+        int index = indexOf(x, y, z);
+        if (index < 0) {
+            return null;
+        }
+        int offset = (index & SEGMENT_MASK) * CELL_BYTES;
+        return icons.get(segments[index >>> SEGMENT_SHIFT].getInt(offset + ICON_OFFSET));
+    }
+
+    /**
+     * Writes all changes of this layer to the file.
+     */
+    public void flush() {
+        for (var segment : segments) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    @Override
+    public boolean inBounds(int x, int y) {
+        return x >= 0 && x < xSize
+            && y >= 0 && y < ySize;
+    }
+
+    @Override
+    public boolean inBounds(int x, int y, int z) {
+        return inBounds(x, y)
+            && z >= 0 && z < zSize;
+    }
+
+    @Override
+    public boolean inBounds(Point3D point) {
+        return inBounds(point.x, point.y, point.z);
+    }
+
+    @Override
+    public int indexOf(int x, int y, int z) {
+        if (!inBounds(x, y, z)) {
+            return -1;
+        }
+        return (z * ySize + y) * xSize + x;
+    }
+
+    @Override
+    public boolean isWalkable(@NotNull Point3D point) {
+        return isWalkable(indexOf(point.x, point.y, point.z));
+    }
+
+    @Override
+    public boolean isWalkable(int index) {
+        return index < 0 || (getFlags(index) & OBSTACLE) == 0;
+    }
+
+    @Override
+    public boolean isTransparent(@NotNull Point3D point) {
+        return isTransparent(indexOf(point.x, point.y, point.z));
+    }
+
+    @Override
+    public boolean isTransparent(int index) {
+        return index < 0 || (getFlags(index) & OPAQUE) == 0;
+    }
+
+    @Override
+    public long[] getWalkableRow(int y, int z) {
+        var words = new long[(xSize + 63) >> 6];
+        getWalkableRow(y, z, words);
+        return words;
+    }
+
+    @Override
+    public void getWalkableRow(int y, int z, long[] words) {
+        fillRow(y, z, words, OBSTACLE);
+    }
+
+    @Override
+    public long[] getTransparentRow(int y, int z) {
+        var words = new long[(xSize + 63) >> 6];
+        getTransparentRow(y, z, words);
+        return words;
+    }
+
+    @Override
+    public void getTransparentRow(int y, int z, long[] words) {
+        fillRow(y, z, words, OPAQUE);
+    }
+
+    private void fillRow(int y, int z, long[] words, byte blockingFlag) {
+        int count = (xSize + 63) >> 6;
+        for (int i = 0; i < count; i++) {
+            words[i] = 0;
+        }
+        if (!inBounds(0, y, z)) {
+            return;
+        }
+        int rowStart = indexOf(0, y, z);
+        for (int x = 0; x < xSize; x++) {
+            if ((getFlags(rowStart + x) & blockingFlag) == 0) {
+                words[x >> 6] |= 1L << x;
+            }
+        }
+    }
+
+    private byte getFlags(int index) {
+        int offset = (index & SEGMENT_MASK) * CELL_BYTES;
+        return segments[index >>> SEGMENT_SHIFT].get(offset + FLAGS_OFFSET);
+    }
+
+    private int getObjectId(int index) {
+        int offset = (index & SEGMENT_MASK) * CELL_BYTES;
+        return segments[index >>> SEGMENT_SHIFT].getInt(offset + OBJECT_OFFSET);
+    }
+
+    private static byte flagsOf(MapObject obj) {
+        byte flags = OCCUPIED;
+        if (!obj.isWalkable()) flags |= OBSTACLE;
+        if (!obj.isTransparent()) flags |= OPAQUE;
+        return flags;
+    }
+}
@@ -0,0 +1,162 @@
+package com.crown.maps;
+
+import com.crown.tools.MathAux;
+
+/**
+ * Static helpers for points packed into a single {@code long}.
+ * Allocation-free companion of {@link Point3D}, intended for inner loops
+ * (pathfinding, line of sight, etc.).
+ * Each coordinate occupies 21 bits in two's complement form
+ * (X in bits 42-62, Y in bits 21-41, Z in bits 0-20),
+ * so coordinates must be in range [{@link #MIN_VALUE}, {@link #MAX_VALUE}].
+ */
+public final class PackedPoint {
+    public static final int BITS = 21;
+    public static final int MIN_VALUE = -(1 << (BITS - 1));
+    public static final int MAX_VALUE = (1 << (BITS - 1)) - 1;
+
+    private static final long MASK = (1L << BITS) - 1;
+
+    public static final long ZERO = 0L;
+
+    private PackedPoint() {
+    }
+
+    /**
+     * Packs given coordinates into a single value.
+     */
+    public static long pack(int x, int y, int z) {
+        return (x & MASK) << (BITS << 1)
+            | (y & MASK) << BITS
+            | z & MASK;
+    }
+
+    /**
+     * Packs coordinates of given point into a single value.
+     */
+    public static long pack(Point3D point) {
+        return pack(point.x, point.y, point.z);
+    }
+
+    /**
+     * Creates new point from the packed value.
+     */
+    public static Point3D unpack(long packed) {
+        return new Point3D(x(packed), y(packed), z(packed));
+    }
+
+    /**
+     * Writes coordinates of the packed value into existing point.
+     */
+    public static Point3D unpack(long packed, Point3D dest) {
+        dest.x = x(packed);
+        dest.y = y(packed);
+        dest.z = z(packed);
+        return dest;
+    }
+
+    public static int x(long packed) {
+        return (int) (packed << (64 - 3 * BITS) >> (64 - BITS));
+    }
+
+    public static int y(long packed) {
+        return (int) (packed << (64 - 2 * BITS) >> (64 - BITS));
+    }
+
+    public static int z(long packed) {
+        return (int) (packed << (64 - BITS) >> (64 - BITS));
+    }
+
+    public static long withX(long packed, int x) {
+        return pack(x, y(packed), z(packed));
+    }
+
+    public static long withY(long packed, int y) {
+        return pack(x(packed), y, z(packed));
+    }
+
+    public static long withZ(long packed, int z) {
+        return pack(x(packed), y(packed), z);
+    }
+
+    /**
+     * Returns the sum of two packed points.
+     */
+    public static long plus(long a, long b) {
+        return pack(x(a) + x(b), y(a) + y(b), z(a) + z(b));
+    }
+
+    /**
+     * Returns packed point with all coordinates increased by deltas.
+     */
+    public static long plus(long packed, int dx, int dy, int dz) {
+        return pack(x(packed) + dx, y(packed) + dy, z(packed) + dz);
+    }
+
+    /**
+     * Returns the difference of two packed points.
+     */
+    public static long minus(long a, long b) {
+        return pack(x(a) - x(b), y(a) - y(b), z(a) - z(b));
+    }
+
+    /**
+     * Returns packed point with absolute values of coordinates.
+     */
+    public static long abs(long packed) {
+        return pack(Math.abs(x(packed)), Math.abs(y(packed)), Math.abs(z(packed)));
+    }
+
+    /**
+     * Returns packed point representing signs of coordinates.
+     */
+    public static long signum(long packed) {
+        return pack(
+            MathAux.signum(x(packed)),
+            MathAux.signum(y(packed)),
+            MathAux.signum(z(packed))
+        );
+    }
+
+    /**
+     * Returns packed point representing a MathAux.positiveSign-s of coordinates.
+     */
+    public static long positiveSign(long packed) {
+        return pack(
+            MathAux.positiveSign(x(packed)),
+            MathAux.positiveSign(y(packed)),
+            MathAux.positiveSign(z(packed))
+        );
+    }
+
+    public static long min(long a, long b) {
+        return pack(Math.min(x(a), x(b)), Math.min(y(a), y(b)), Math.min(z(a), z(b)));
+    }
+
+    public static long max(long a, long b) {
+        return pack(Math.max(x(a), x(b)), Math.max(y(a), y(b)), Math.max(z(a), z(b)));
+    }
+
+    /**
+     * Returns squared Euclidean distance between two packed points.
+     */
+    public static long distanceSquared(long a, long b) {
+        long dx = x(a) - x(b);
+        long dy = y(a) - y(b);
+        long dz = z(a) - z(b);
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    public static boolean isInsideOf(long packed, long a, long b) {
+        int x = x(packed);
+        int y = y(packed);
+        int z = z(packed);
+        return x >= x(a) && x <= x(b)
+            && y >= y(a) && y <= y(b)
+            && z >= z(a) && z <= z(b);
+    }
+
+    public static String toString(long packed) {
+        return "(" + x(packed) + ", " + y(packed) + ", " + z(packed) + ")";
+    }
+}
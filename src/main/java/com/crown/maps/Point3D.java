@@ -31,6 +31,14 @@ public class Point3D implements Serializable {
         this(point.x, point.y, point.z);
     }
 
+    /**
+     * Returns coordinates of this point packed into a single value.
+     * See {@link PackedPoint}.
+     */
+    public long pack() {
+        return PackedPoint.pack(x, y, z);
+    }
+
     /**
      * Returns copy of this point with changed X.
      */
@@ -1,16 +1,20 @@
 package com.crown.maps.pathfinding;
 
 import com.crown.maps.Map;
+import com.crown.maps.PackedPoint;
 import com.crown.maps.Point3D;
 import com.crown.maps.pathfinding.heuristics.IAStarHeuristic;
 import com.crown.maps.pathfinding.heuristics.OctileHeuristic;
 
-import java.util.ArrayList;
-
 /**
  * Famous A* pathfinding implementation for the 3D grid map.
  */
 public class AStarPathfinder extends IPathfinder {
+    private static final ThreadLocal<PathSearchContext> contexts = ThreadLocal.withInitial(PathSearchContext::new);
+
+    // allowed steps
+    private final Steps steps;
+
     /**
      * Initialize a new A* pathfinder for given map.
      * Uses 3D-Octile heuristic by default.
@@ -39,6 +43,7 @@ public class AStarPathfinder extends IPathfinder {
         final boolean includeDiagonals
     ) {
         super(map, heuristic, includeDiagonals);
+        steps = Steps.of(includeDiagonals);
     }
 
     /**
@@ -49,12 +54,27 @@ public class AStarPathfinder extends IPathfinder {
     }
 
     /**
-     * Finds an optimal path between given points.
+     * Finds an optimal path between given points, searching only the cube
+     * of given radius around the start point, or the whole map if radius is negative.
+     * Search state is kept in the context of the calling thread,
+     * so repeated searches produce no garbage except for the returned path.
      */
     public Point3D[] findPath(
         final Point3D startPt,
         final Point3D endPt,
         final int radius
+    ) {
+        return findPath(startPt, endPt, radius, contexts.get());
+    }
+
+    /**
+     * Same as {@link #findPath(Point3D, Point3D, int)}, but keeps search state in given context.
+     */
+    public Point3D[] findPath(
+        final Point3D startPt,
+        final Point3D endPt,
+        final int radius,
+        final PathSearchContext context
     ) {
         if (!this.map.inBounds(startPt) || !this.map.inBounds(endPt)) {
             return null;
@@ -63,73 +83,70 @@ public class AStarPathfinder extends IPathfinder {
             return new Point3D[] { startPt };
         }
 
-        final Point3D minPt, maxPt, hashSize;
+        final int minX, minY, minZ, maxX, maxY, maxZ;
         if (radius < 0) {
-            minPt = Point3D.ZERO;
-            maxPt = mapMaxPoint;
-            hashSize = mapMaxPoint.plus(1);
+            minX = minY = minZ = 0;
+            maxX = mapMaxPoint.x;
+            maxY = mapMaxPoint.y;
+            maxZ = mapMaxPoint.z;
         } else {
-            minPt = Point3D.max(Point3D.ZERO, startPt.minus(radius));
-            maxPt = Point3D.min(mapMaxPoint, startPt.plus(radius));
-            hashSize = maxPt.minus(minPt).plus(1);
+            minX = Math.max(0, startPt.x - radius);
+            minY = Math.max(0, startPt.y - radius);
+            minZ = Math.max(0, startPt.z - radius);
+            maxX = Math.min(mapMaxPoint.x, startPt.x + radius);
+            maxY = Math.min(mapMaxPoint.y, startPt.y + radius);
+            maxZ = Math.min(mapMaxPoint.z, startPt.z + radius);
         }
-
-        final PathNode[][][] nodeHash = new PathNode
-            [hashSize.x]
-            [hashSize.y]
-            [hashSize.z];
-        final var open = new SimpleHeap<>(1000);
-        final var startNode = new PathNode(startPt, 0.0);
-        startNode.h = heuristic.apply(startPt, endPt);
-        startNode.computeCost();
-        open.add(startNode);
-        nodeHash
-            [startPt.x - minPt.x]
-            [startPt.y - minPt.y]
-            [startPt.z - minPt.z] = startNode;
-        while (open.size() > 0) {
-            final var step = (PathNode) open.poll();
-            if (step.point.equals(endPt)) {
-                return createPath(step);
-            }
-
-            // @formatter:off
-            // trying to move in every possible direction
-            for (int dx = -1; dx <= 1; dx++)
-            for (int dy = -1; dy <= 1; dy++)
-            for (int dz = -1; dz <= 1; dz++) {
-                // @formatter:on
-                boolean isMoveDiagonal = dx != 0 && dy != 0
-                    || dx != 0 && dz != 0
-                    || dy != 0 && dz != 0;
-
-                // skip 0-moves & diagonals if not allowed
-                if (dx == 0 && dy == 0 && dz == 0
-                    || isMoveDiagonal && !this.includeDiagonals) {
-                    continue;
+        // nodes are kept in slots (x * ySpan + y) * zSpan + z relative to the region
+        final int ySpan = maxY - minY + 1;
+        final int zSpan = maxZ - minZ + 1;
+        context.begin((maxX - minX + 1) * ySpan * zSpan);
+        try {
+            final long endPacked = endPt.pack();
+            final var open = context.open;
+            final var startNode = context.reach(
+                ((startPt.x - minX) * ySpan + startPt.y - minY) * zSpan + startPt.z - minZ,
+                startPt.x,
+                startPt.y,
+                startPt.z,
+                0.0
+            );
+            startNode.h = heuristic.apply(startPt.pack(), endPacked);
+            startNode.computeCost();
+            open.add(startNode);
+            while (open.size() > 0) {
+                final var step = open.poll();
+                final var pt = step.point;
+                if (pt.x == endPt.x && pt.y == endPt.y && pt.z == endPt.z) {
+                    return createPath(step);
                 }
 
-                final Point3D target = step.point.plus(dx, dy, dz);
+                // trying to move in every allowed direction
+                for (int i = 0; i < steps.count(); i++) {
+                    final int tx = pt.x + steps.dxs[i];
+                    final int ty = pt.y + steps.dys[i];
+                    final int tz = pt.z + steps.dzs[i];
 
-                if (target.isInsideOf(minPt, maxPt) && this.map.inBounds(target)) {
-                    // the only allowed obstacle is the end point
-                    if (!target.equals(endPt) && this.map.isWalkable(target)) {
-                        continue;
-                    }
+                    if (tx >= minX && tx <= maxX
+                        && ty >= minY && ty <= maxY
+                        && tz >= minZ && tz <= maxZ) {
+                        final boolean isEnd = tx == endPt.x && ty == endPt.y && tz == endPt.z;
+                        // the only allowed obstacle is the end point
+                        if (!isEnd && !this.map.isWalkable(this.map.indexOf(tx, ty, tz))) {
+                            continue;
+                        }
 
-                    final double defaultCost = isMoveDiagonal ? 1.1 : 1.0;
-                    final Point3D delta = target.minus(minPt);
-                    if (nodeHash[delta.x][delta.y][delta.z] == null) {
-                        final PathNode n1 = new PathNode(target, step.g + defaultCost);
-                        n1.prev = step;
-                        n1.h = heuristic.apply(target, endPt);
-                        n1.computeCost();
-                        open.add(n1);
-                        nodeHash[delta.x][delta.y][delta.z] = n1;
-                    } else {
-                        final PathNode n1 = nodeHash[delta.x][delta.y][delta.z];
-                        if (n1.g > step.g + defaultCost) {
-                            n1.g = step.g + defaultCost;
+                        final double g = step.g + (double) steps.costs[i] / Steps.COST_SCALE;
+                        final int slot = ((tx - minX) * ySpan + ty - minY) * zSpan + tz - minZ;
+                        PathNode n1 = context.get(slot);
+                        if (n1 == null) {
+                            n1 = context.reach(slot, tx, ty, tz, g);
+                            n1.prev = step;
+                            n1.h = heuristic.apply(PackedPoint.pack(tx, ty, tz), endPacked);
+                            n1.computeCost();
+                            open.add(n1);
+                        } else if (n1.g > g) {
+                            n1.g = g;
                             n1.computeCost();
                             n1.prev = step;
                             if (open.contains(n1)) {
@@ -141,7 +158,9 @@ public class AStarPathfinder extends IPathfinder {
                     }
                 }
             }
+            return null;
+        } finally {
+            context.end();
         }
-        return null;
     }
 }
@@ -0,0 +1,777 @@
+package com.crown.maps.pathfinding;
+
+import com.crown.maps.Map;
+import com.crown.maps.PackedPoint;
+import com.crown.maps.Point3D;
+import com.crown.maps.pathfinding.heuristics.IAStarHeuristic;
+import com.crown.maps.pathfinding.heuristics.OctileHeuristic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Hierarchical pathfinding (HPA*) for the 3D grid map. Map is divided into clusters
+ * matching its chunks, i.e. columns of {@link Map#CHUNK_SIZE} x {@link Map#CHUNK_SIZE}
+ * cells through all the layers. Border of two adjacent clusters gets an entrance for each
+ * run of cells free on both sides in each layer: a pair of cells in the middle of the run,
+ * or two pairs at its ends if the run is long. With diagonal steps, a border also gets
+ * an entrance for each diagonal step across it which has no straight steps next to it,
+ * and clusters touching by corners get entrances for diagonal steps across the corner
+ * which can't be replaced by two steps across their borders.
+ * These cells are nodes of the abstract graph, linked across the border, and to other nodes
+ * of the same cluster with costs of paths inside the cluster. Query searches the abstract graph
+ * from the start to the end point linked to nodes of their clusters (and of clusters
+ * of their free neighbors, if the points are obstacles), then refines its edges
+ * into cells by searches inside single clusters.
+ * <p>
+ * Graph is built lazily, when the search reaches a cluster. Before each query, clusters
+ * with cells of changed walkability (found in the map journal, see {@link Map#forEachChange},
+ * or by checking chunks changed since the previous query, if the journal does not cover them)
+ * are dropped with their borders, so only them and their neighbors are computed again.
+ * Moves of objects which do not change walkability keep the graph.
+ * <p>
+ * Paths are near-optimal, as they cross borders at entrances only. Every step across
+ * a border is reachable through entrances, so if the graph has no path, there is none.
+ * Queries bounded by a radius do not use the graph.
+ * Queries are serialized, as they update the shared graph.
+ */
+public class HierarchicalPathfinder extends IPathfinder {
+    private static final int CLUSTER_SIZE = Map.CHUNK_SIZE;
+    // length of runs of free cells along a border, which get an entrance at each end
+    private static final int LONG_ENTRANCE = 6;
+    // ids of the query points in the abstract search
+    private static final int START = 0;
+    private static final int GOAL = 1;
+    // kinds of borders of a cluster with the linked one
+    private static final int EAST = 0;
+    private static final int SOUTH = 1;
+    private static final int SOUTH_EAST = 2;
+    private static final int SOUTH_WEST = 3;
+    private static final int BORDER_KINDS = 4;
+    // offsets of clusters linked by each kind of border
+    private static final int[] LINKED_X = {1, 0, 1, -1};
+    private static final int[] LINKED_Y = {0, 1, 1, 1};
+
+    // allowed steps
+    private final Steps steps;
+
+    private final int xClusters;
+    private final int yClusters;
+
+    // abstract graph nodes, ids of dropped ones are reused
+    private int[] nodeX = new int[64];
+    private int[] nodeY = new int[64];
+    private int[] nodeZ = new int[64];
+    private int[] partners = new int[64];
+    private int[][] edgeTargets = new int[64][];
+    private int[][] edgeCosts = new int[64][];
+    private int nodesCount = GOAL + 1;
+    private int[] freeNodes = new int[64];
+    private int freeCount;
+
+    // entrances on borders of each kind of each cluster, as pairs of inner and outer node ids
+    private final int[][][] entrances = new int[BORDER_KINDS][][];
+    private final BitSet[] bordersBuilt = new BitSet[BORDER_KINDS];
+    private final BitSet clusterBuilt = new BitSet();
+    private int[] entranceNodes = new int[8];
+    private int entranceNodesCount;
+
+    // walkability of cells the graph is built for, indexed by x, y and z
+    private final BitSet walkable;
+    private final BitSet changedClusters = new BitSet();
+    private long syncedVersion;
+
+    private final PrimitiveSearchContext local = new PrimitiveSearchContext();
+    private final PrimitiveSearchContext search = new PrimitiveSearchContext();
+    // region of the last local search
+    private int minX, minY, minZ, maxX, maxY, maxZ, ySpan, zSpan;
+
+    /**
+     * Initialize a new hierarchical pathfinder for given map.
+     * Uses 3D-Octile heuristic by default.
+     */
+    public HierarchicalPathfinder(final Map map) {
+        this(map, OctileHeuristic.get(), true);
+    }
+
+    /**
+     * Initialize a new hierarchical pathfinder for given map.
+     * You can specify any heuristic from [heuristics] package.
+     * Diagonal steps are enabled.
+     */
+    public HierarchicalPathfinder(final Map map, IAStarHeuristic heuristic) {
+        this(map, heuristic, true);
+    }
+
+    /**
+     * Initialize a new hierarchical pathfinder for given map.
+     * You can specify any heuristic from [heuristics] package,
+     * and allow/restrict pathfinder to use diagonal steps.
+     */
+    public HierarchicalPathfinder(
+        final Map map,
+        final IAStarHeuristic heuristic,
+        final boolean includeDiagonals
+    ) {
+        super(map, heuristic, includeDiagonals);
+        steps = Steps.of(includeDiagonals);
+
+        xClusters = (map.xSize + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+        yClusters = (map.ySize + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+        for (int kind = 0; kind < BORDER_KINDS; kind++) {
+            entrances[kind] = new int[xClusters * yClusters][];
+            bordersBuilt[kind] = new BitSet();
+        }
+        syncedVersion = map.getVersion();
+        walkable = new BitSet(map.xSize * map.ySize * map.zSize);
+        for (int x = 0, id = 0; x < map.xSize; x++) {
+            for (int y = 0; y < map.ySize; y++) {
+                for (int z = 0; z < map.zSize; z++, id++) {
+                    if (isWalkable(x, y, z)) {
+                        walkable.set(id);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns count of abstract graph nodes, i.e. of entrance cells
+     * of the clusters built so far.
+     */
+    public synchronized int getNodesCount() {
+        return nodesCount - GOAL - 1 - freeCount;
+    }
+
+    /**
+     * Finds a near-optimal path between given points.
+     */
+    public Point3D[] findPath(final Point3D startPt, final Point3D endPt) {
+        return findPath(startPt, endPt, -1);
+    }
+
+    /**
+     * Finds a path between given points, inside the cube of given radius around the start point.
+     * Bounded queries search cells of the cube directly, and their paths are optimal.
+     * Pass -1 to search the abstract graph without bounds.
+     */
+    public synchronized Point3D[] findPath(final Point3D startPt, final Point3D endPt, final int radius) {
+        if (!this.map.inBounds(startPt) || !this.map.inBounds(endPt)) {
+            return null;
+        }
+        if (radius >= 0) {
+            return findFlatPath(
+                startPt, endPt,
+                Math.max(0, startPt.x - radius),
+                Math.max(0, startPt.y - radius),
+                Math.max(0, startPt.z - radius),
+                Math.min(map.xSize - 1, startPt.x + radius),
+                Math.min(map.ySize - 1, startPt.y + radius),
+                Math.min(map.zSize - 1, startPt.z + radius)
+            );
+        }
+        return findHierarchicalPath(startPt, endPt);
+    }
+
+    /**
+     * Finds the shortest path between given points inside given box, without the graph.
+     */
+    private Point3D[] findFlatPath(
+        final Point3D startPt,
+        final Point3D endPt,
+        final int x0, final int y0, final int z0,
+        final int x1, final int y1, final int z1
+    ) {
+        try {
+            if (!searchInside(x0, y0, z0, x1, y1, z1, startPt.x, startPt.y, startPt.z, endPt, true)) {
+                return null;
+            }
+            final var points = new ArrayList<Point3D>();
+            addLocalPath(points, endPt.x, endPt.y, endPt.z, false);
+            return points.toArray(new Point3D[0]);
+        } finally {
+            local.end();
+        }
+    }
+
+    private Point3D[] findHierarchicalPath(final Point3D startPt, final Point3D endPt) {
+        sync();
+        final int startCluster = clusterOf(startPt.x, startPt.y);
+        final int goalCluster = clusterOf(endPt.x, endPt.y);
+        final var points = new ArrayList<Point3D>();
+        if (startCluster == goalCluster
+            && searchInside(startCluster, startPt.x, startPt.y, startPt.z, endPt, true)) {
+            addLocalPath(points, endPt.x, endPt.y, endPt.z, false);
+            return points.toArray(new Point3D[0]);
+        }
+
+        // nodes linked to the query points, with costs of paths between them
+        final int[] goalLinks = link(endPt);
+        final int[] startLinks = link(startPt);
+        final long endPacked = endPt.pack();
+        search.begin(nodesCount);
+        search.reach(START, 0, -1);
+        for (int i = 0; i < startLinks.length; i += 2) {
+            relax(startLinks[i], startLinks[i + 1], START, endPacked);
+        }
+
+        final var open = search.open;
+        while (open.size() > 0) {
+            final int u = open.poll();
+            if (u == GOAL) {
+                return refine(startPt, endPt, points);
+            }
+            final int cost = search.g[u];
+            relax(partners[u], cost + crossingCost(u), u, endPacked);
+
+            final int cluster = clusterOf(nodeX[u], nodeY[u]);
+            if (!clusterBuilt.get(cluster)) {
+                buildCluster(cluster);
+                search.grow(nodesCount);
+            }
+            final int[] targets = edgeTargets[u];
+            final int[] costs = edgeCosts[u];
+            for (int i = 0; i < targets.length; i++) {
+                relax(targets[i], cost + costs[i], u, endPacked);
+            }
+            for (int i = 0; i < goalLinks.length; i += 2) {
+                if (goalLinks[i] == u) {
+                    relax(GOAL, cost + goalLinks[i + 1], u, endPacked);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns nodes of the cluster of given point, and of clusters of its free neighbors
+     * if it is an obstacle (as it is left or entered across their borders then),
+     * with costs of paths between them and the point, as pairs of node ids and costs.
+     */
+    private int[] link(final Point3D pt) {
+        var clusters = new int[] {clusterOf(pt.x, pt.y)};
+        if (!isWalkable(pt.x, pt.y, pt.z)) {
+            for (int i = 0; i < steps.count(); i++) {
+                final int tx = pt.x + steps.dxs[i];
+                final int ty = pt.y + steps.dys[i];
+                final int tz = pt.z + steps.dzs[i];
+                if (map.inBounds(tx, ty, tz) && isWalkable(tx, ty, tz)) {
+                    final int cluster = clusterOf(tx, ty);
+                    if (Arrays.stream(clusters).noneMatch(c -> c == cluster)) {
+                        clusters = Arrays.copyOf(clusters, clusters.length + 1);
+                        clusters[clusters.length - 1] = cluster;
+                    }
+                }
+            }
+        }
+        var links = new int[0];
+        for (int cluster : clusters) {
+            final int[] nodes = buildCluster(cluster);
+            searchAround(cluster, pt, pt.x, pt.y, pt.z, null, false);
+            for (int n : nodes) {
+                final int id = localId(nodeX[n], nodeY[n], nodeZ[n]);
+                if (local.isReached(id)) {
+                    links = Arrays.copyOf(links, links.length + 2);
+                    links[links.length - 2] = n;
+                    links[links.length - 1] = local.g[id];
+                }
+            }
+        }
+        return links;
+    }
+
+    /**
+     * Returns cost of the step from given node to its partner across the border.
+     */
+    private int crossingCost(final int node) {
+        final int partner = partners[node];
+        return Steps.cost(
+            nodeX[partner] - nodeX[node],
+            nodeY[partner] - nodeY[node],
+            nodeZ[partner] - nodeZ[node]
+        );
+    }
+
+    private void relax(final int node, final int cost, final int from, final long endPacked) {
+        if (search.isReached(node) && search.g[node] <= cost) {
+            return;
+        }
+        search.reach(node, cost, from);
+        final double h = node == GOAL
+            ? 0
+            : heuristic.apply(PackedPoint.pack(nodeX[node], nodeY[node], nodeZ[node]), endPacked);
+        search.open.put(node, (float) (cost + Steps.COST_SCALE * h), cost);
+    }
+
+    /**
+     * Turns the found abstract path into cells, from the end point back to the start one.
+     */
+    private Point3D[] refine(final Point3D startPt, final Point3D endPt, final ArrayList<Point3D> points) {
+        int to = GOAL;
+        for (int from = search.prev[GOAL]; from != START; to = from, from = search.prev[from]) {
+            final int fx = nodeX[from];
+            final int fy = nodeY[from];
+            final int fz = nodeZ[from];
+            if (to == GOAL) {
+                searchAround(clusterOf(fx, fy), endPt, fx, fy, fz, endPt, true);
+                addLocalPath(points, endPt.x, endPt.y, endPt.z, true);
+            } else if (partners[from] == to) {
+                points.add(new Point3D(nodeX[to], nodeY[to], nodeZ[to]));
+            } else {
+                searchInside(clusterOf(fx, fy), fx, fy, fz, new Point3D(nodeX[to], nodeY[to], nodeZ[to]), false);
+                addLocalPath(points, nodeX[to], nodeY[to], nodeZ[to], true);
+            }
+        }
+        final int first = to;
+        searchAround(
+            clusterOf(nodeX[first], nodeY[first]),
+            startPt,
+            startPt.x,
+            startPt.y,
+            startPt.z,
+            new Point3D(nodeX[first], nodeY[first], nodeZ[first]),
+            false
+        );
+        addLocalPath(points, nodeX[first], nodeY[first], nodeZ[first], false);
+        return points.toArray(new Point3D[0]);
+    }
+
+    /**
+     * Adds cells of the path found by the last local search, from given cell back to its start.
+     */
+    private void addLocalPath(final ArrayList<Point3D> points, int x, int y, int z, boolean skipStart) {
+        for (int id = localId(x, y, z); id >= 0; id = local.prev[id]) {
+            if (skipStart && local.prev[id] < 0) {
+                break;
+            }
+            points.add(new Point3D(id / zSpan / ySpan + minX, id / zSpan % ySpan + minY, id % zSpan + minZ));
+        }
+    }
+
+    /**
+     * Drops clusters with cells of changed walkability since the previous query,
+     * with their borders, and invalidates their neighbors linked to the dropped entrances.
+     */
+    private void sync() {
+        final long version = map.getVersion();
+        if (version == syncedVersion) {
+            return;
+        }
+        changedClusters.clear();
+        final boolean isCovered = map.forEachChange(
+            syncedVersion, 0, 0, map.xSize - 1, map.ySize - 1,
+            (v, x, y, z, obj, added) -> addChange(x, y, z)
+        );
+        if (!isCovered) {
+            final var chunks = map.getChangedChunks(syncedVersion);
+            for (int c = chunks.nextSetBit(0); c >= 0; c = chunks.nextSetBit(c + 1)) {
+                final int x0 = c % xClusters * CLUSTER_SIZE;
+                final int y0 = c / xClusters * CLUSTER_SIZE;
+                for (int x = x0; x < Math.min(map.xSize, x0 + CLUSTER_SIZE); x++) {
+                    for (int y = y0; y < Math.min(map.ySize, y0 + CLUSTER_SIZE); y++) {
+                        for (int z = 0; z < map.zSize; z++) {
+                            addChange(x, y, z);
+                        }
+                    }
+                }
+            }
+        }
+        syncedVersion = version;
+        for (int c = changedClusters.nextSetBit(0); c >= 0; c = changedClusters.nextSetBit(c + 1)) {
+            final int cx = c % xClusters;
+            final int cy = c / xClusters;
+            clusterBuilt.clear(c);
+            // borders reading cells of the cluster, which are owned by it or by its neighbors
+            for (int kind = 0; kind < BORDER_KINDS; kind++) {
+                final int lx = LINKED_X[kind];
+                final int ly = LINKED_Y[kind];
+                dropBorder(kind, cx, cy);
+                dropBorder(kind, cx - lx, cy);
+                dropBorder(kind, cx, cy - ly);
+                dropBorder(kind, cx - lx, cy - ly);
+            }
+        }
+    }
+
+    private void addChange(final int x, final int y, final int z) {
+        final int id = (x * map.ySize + y) * map.zSize + z;
+        final boolean isWalkable = isWalkable(x, y, z);
+        if (walkable.get(id) != isWalkable) {
+            walkable.set(id, isWalkable);
+            changedClusters.set(clusterOf(x, y));
+        }
+    }
+
+    /**
+     * Drops given border of the cluster with given coordinates, if it is built,
+     * and invalidates both clusters it links.
+     */
+    private void dropBorder(final int kind, final int cx, final int cy) {
+        if (cx < 0 || cx >= xClusters || cy < 0 || cy >= yClusters) {
+            return;
+        }
+        final int cluster = cy * xClusters + cx;
+        final var built = bordersBuilt[kind];
+        if (!built.get(cluster)) {
+            return;
+        }
+        for (int node : entrances[kind][cluster]) {
+            edgeTargets[node] = null;
+            edgeCosts[node] = null;
+            if (freeCount == freeNodes.length) {
+                freeNodes = Arrays.copyOf(freeNodes, freeCount * 2);
+            }
+            freeNodes[freeCount++] = node;
+        }
+        entrances[kind][cluster] = null;
+        built.clear(cluster);
+        clusterBuilt.clear(cluster);
+        clusterBuilt.clear((cy + LINKED_Y[kind]) * xClusters + cx + LINKED_X[kind]);
+    }
+
+    private int newNode(final int x, final int y, final int z) {
+        final int node;
+        if (freeCount > 0) {
+            node = freeNodes[--freeCount];
+        } else {
+            node = nodesCount++;
+            if (node == nodeX.length) {
+                int capacity = node * 2;
+                nodeX = Arrays.copyOf(nodeX, capacity);
+                nodeY = Arrays.copyOf(nodeY, capacity);
+                nodeZ = Arrays.copyOf(nodeZ, capacity);
+                partners = Arrays.copyOf(partners, capacity);
+                edgeTargets = Arrays.copyOf(edgeTargets, capacity);
+                edgeCosts = Arrays.copyOf(edgeCosts, capacity);
+            }
+        }
+        nodeX[node] = x;
+        nodeY[node] = y;
+        nodeZ[node] = z;
+        return node;
+    }
+
+    private int clusterOf(final int x, final int y) {
+        return (y / CLUSTER_SIZE) * xClusters + x / CLUSTER_SIZE;
+    }
+
+    /**
+     * Checks if given cluster has a neighbor linked by given kind of border.
+     */
+    private boolean hasBorder(final int kind, final int cx, final int cy) {
+        final int lx = cx + LINKED_X[kind];
+        final int ly = cy + LINKED_Y[kind];
+        return cx >= 0 && cx < xClusters && cy >= 0 && lx >= 0 && lx < xClusters && ly < yClusters;
+    }
+
+    /**
+     * Builds entrances of given kind of border between given cluster and the linked one.
+     */
+    private int[] border(final int kind, final int cluster) {
+        final var built = bordersBuilt[kind];
+        if (built.get(cluster)) {
+            return entrances[kind][cluster];
+        }
+        entranceNodesCount = 0;
+        if (kind == EAST || kind == SOUTH) {
+            addSideEntrances(cluster, kind == EAST);
+        } else if (includeDiagonals) {
+            addCornerEntrances(cluster, kind == SOUTH_EAST ? 1 : -1);
+        }
+        entrances[kind][cluster] = Arrays.copyOf(entranceNodes, entranceNodesCount);
+        built.set(cluster);
+        return entrances[kind][cluster];
+    }
+
+    /**
+     * Adds entrances of the border between given cluster and its east or south neighbor.
+     */
+    private void addSideEntrances(final int cluster, final boolean east) {
+        final int cx = cluster % xClusters * CLUSTER_SIZE;
+        final int cy = cluster / xClusters * CLUSTER_SIZE;
+        // border line is at x (or y) and x + 1, and runs along y (or x) from t0 to t1
+        final int line = (east ? cx : cy) + CLUSTER_SIZE - 1;
+        final int t0 = east ? cy : cx;
+        final int t1 = Math.min(east ? map.ySize : map.xSize, t0 + CLUSTER_SIZE);
+        for (int z = 0; z < map.zSize; z++) {
+            int runStart = -1;
+            for (int t = t0; t <= t1; t++) {
+                final boolean open = t < t1
+                    && isBorderWalkable(east, line, t, z) && isBorderWalkable(east, line + 1, t, z);
+                if (open && runStart < 0) {
+                    runStart = t;
+                } else if (!open && runStart >= 0) {
+                    // long runs get entrances at both ends, short ones in the middle
+                    final int runEnd = t - 1;
+                    final boolean isLong = runEnd - runStart + 1 >= LONG_ENTRANCE;
+                    for (int i = 0; i < (isLong ? 2 : 1); i++) {
+                        final int at = !isLong ? (runStart + runEnd) / 2 : i == 0 ? runStart : runEnd;
+                        addBorderEntrance(east, line, at, z, at, z);
+                    }
+                    runStart = -1;
+                }
+            }
+        }
+        if (!includeDiagonals) {
+            return;
+        }
+        // diagonal steps with both straight steps next to them blocked;
+        // otherwise the straight step is in a run, and the diagonal one is reached from it
+        for (int z = 0; z < map.zSize; z++) {
+            for (int t = t0; t < t1; t++) {
+                if (!isBorderWalkable(east, line, t, z) || isBorderWalkable(east, line + 1, t, z)) {
+                    continue;
+                }
+                for (int dt = -1; dt <= 1; dt++) {
+                    for (int dz = -1; dz <= 1; dz++) {
+                        final int t2 = t + dt;
+                        final int z2 = z + dz;
+                        if ((dt != 0 || dz != 0) && t2 >= t0 && t2 < t1 && z2 >= 0 && z2 < map.zSize
+                            && isBorderWalkable(east, line + 1, t2, z2) && !isBorderWalkable(east, line, t2, z2)) {
+                            addBorderEntrance(east, line, t, z, t2, z2);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isBorderWalkable(final boolean east, final int line, final int t, final int z) {
+        return east ? isWalkable(line, t, z) : isWalkable(t, line, z);
+    }
+
+    private void addBorderEntrance(final boolean east, final int line, final int t, final int z, final int t2, final int z2) {
+        if (east) {
+            addEntrance(line, t, z, line + 1, t2, z2);
+        } else {
+            addEntrance(t, line, z, t2, line + 1, z2);
+        }
+    }
+
+    /**
+     * Adds entrances across the south-east (or south-west) corner of given cluster,
+     * for diagonal steps which can't be replaced by two steps across the borders
+     * with the east (or west) and the south neighbors.
+     */
+    private void addCornerEntrances(final int cluster, final int sx) {
+        final int x = cluster % xClusters * CLUSTER_SIZE + (sx > 0 ? CLUSTER_SIZE - 1 : 0);
+        final int y = cluster / xClusters * CLUSTER_SIZE + CLUSTER_SIZE - 1;
+        for (int z = 0; z < map.zSize; z++) {
+            if (!isWalkable(x, y, z)) {
+                continue;
+            }
+            for (int z2 = Math.max(0, z - 1); z2 <= Math.min(map.zSize - 1, z + 1); z2++) {
+                if (!isWalkable(x + sx, y + 1, z2)) {
+                    continue;
+                }
+                boolean isReplaced = false;
+                for (int k = Math.max(0, Math.max(z, z2) - 1); k <= Math.min(map.zSize - 1, Math.min(z, z2) + 1); k++) {
+                    if (isWalkable(x + sx, y, k) || isWalkable(x, y + 1, k)) {
+                        isReplaced = true;
+                        break;
+                    }
+                }
+                if (!isReplaced) {
+                    addEntrance(x, y, z, x + sx, y + 1, z2);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a pair of partner nodes at given inner and outer cells.
+     */
+    private void addEntrance(final int x, final int y, final int z, final int x2, final int y2, final int z2) {
+        final int inner = newNode(x, y, z);
+        final int outer = newNode(x2, y2, z2);
+        partners[inner] = outer;
+        partners[outer] = inner;
+        if (entranceNodesCount + 2 > entranceNodes.length) {
+            entranceNodes = Arrays.copyOf(entranceNodes, entranceNodes.length * 2);
+        }
+        entranceNodes[entranceNodesCount++] = inner;
+        entranceNodes[entranceNodesCount++] = outer;
+    }
+
+    /**
+     * Builds borders of given cluster and links its nodes by costs of paths inside it.
+     * Returns nodes of the cluster.
+     */
+    private int[] buildCluster(final int cluster) {
+        final int cx = cluster % xClusters;
+        final int cy = cluster / xClusters;
+        var nodes = new int[0];
+        // inner nodes of own borders, and outer ones of borders of the neighbors linked to it
+        for (int kind = 0; kind < BORDER_KINDS; kind++) {
+            if (hasBorder(kind, cx, cy)) {
+                nodes = concat(nodes, border(kind, cluster), 0);
+            }
+            final int ox = cx - LINKED_X[kind];
+            final int oy = cy - LINKED_Y[kind];
+            if (hasBorder(kind, ox, oy)) {
+                nodes = concat(nodes, border(kind, oy * xClusters + ox), 1);
+            }
+        }
+        if (clusterBuilt.get(cluster)) {
+            return nodes;
+        }
+        final var targets = new int[nodes.length];
+        final var costs = new int[nodes.length];
+        for (int node : nodes) {
+            searchInside(cluster, nodeX[node], nodeY[node], nodeZ[node], null, false);
+            int count = 0;
+            for (int other : nodes) {
+                final int id = localId(nodeX[other], nodeY[other], nodeZ[other]);
+                if (other != node && local.isReached(id)) {
+                    targets[count] = other;
+                    costs[count++] = local.g[id];
+                }
+            }
+            edgeTargets[node] = Arrays.copyOf(targets, count);
+            edgeCosts[node] = Arrays.copyOf(costs, count);
+        }
+        clusterBuilt.set(cluster);
+        return nodes;
+    }
+
+    /**
+     * Appends every other id of given pairs, starting from given offset.
+     */
+    private static int[] concat(final int[] nodes, final int[] pairs, final int offset) {
+        final var result = Arrays.copyOf(nodes, nodes.length + pairs.length / 2);
+        for (int i = offset, j = nodes.length; i < pairs.length; i += 2) {
+            result[j++] = pairs[i];
+        }
+        return result;
+    }
+
+    private boolean isWalkable(final int x, final int y, final int z) {
+        return map.isWalkable(map.indexOf(x, y, z));
+    }
+
+    private int localId(final int x, final int y, final int z) {
+        return ((x - minX) * ySpan + y - minY) * zSpan + z - minZ;
+    }
+
+    /**
+     * Searches cells of given cluster from given cell, up to the target if it is given,
+     * or all of them otherwise. Target may be an obstacle if it is allowed to.
+     * Returns true if the target is found.
+     */
+    private boolean searchInside(
+        final int cluster,
+        final int sx,
+        final int sy,
+        final int sz,
+        final Point3D target,
+        final boolean targetMayBeObstacle
+    ) {
+        final int x0 = cluster % xClusters * CLUSTER_SIZE;
+        final int y0 = cluster / xClusters * CLUSTER_SIZE;
+        return searchInside(
+            x0, y0, 0,
+            Math.min(map.xSize, x0 + CLUSTER_SIZE) - 1,
+            Math.min(map.ySize, y0 + CLUSTER_SIZE) - 1,
+            map.zSize - 1,
+            sx, sy, sz, target, targetMayBeObstacle
+        );
+    }
+
+    /**
+     * Same as {@link #searchInside(int, int, int, int, Point3D, boolean)},
+     * but the cluster is extended to cover given query point.
+     */
+    private boolean searchAround(
+        final int cluster,
+        final Point3D pt,
+        final int sx,
+        final int sy,
+        final int sz,
+        final Point3D target,
+        final boolean targetMayBeObstacle
+    ) {
+        final int x0 = cluster % xClusters * CLUSTER_SIZE;
+        final int y0 = cluster / xClusters * CLUSTER_SIZE;
+        return searchInside(
+            Math.min(x0, pt.x),
+            Math.min(y0, pt.y),
+            0,
+            Math.max(Math.min(map.xSize, x0 + CLUSTER_SIZE) - 1, pt.x),
+            Math.max(Math.min(map.ySize, y0 + CLUSTER_SIZE) - 1, pt.y),
+            map.zSize - 1,
+            sx, sy, sz, target, targetMayBeObstacle
+        );
+    }
+
+    /**
+     * Same as {@link #searchInside(int, int, int, int, Point3D, boolean)},
+     * but searches cells of given box.
+     */
+    private boolean searchInside(
+        final int x0, final int y0, final int z0,
+        final int x1, final int y1, final int z1,
+        final int sx,
+        final int sy,
+        final int sz,
+        final Point3D target,
+        final boolean targetMayBeObstacle
+    ) {
+        minX = x0;
+        minY = y0;
+        minZ = z0;
+        maxX = x1;
+        maxY = y1;
+        maxZ = z1;
+        ySpan = maxY - minY + 1;
+        zSpan = maxZ - minZ + 1;
+        local.begin((maxX - minX + 1) * ySpan * zSpan);
+
+        if (target != null
+            && (target.x < minX || target.x > maxX
+            || target.y < minY || target.y > maxY
+            || target.z < minZ || target.z > maxZ)) {
+            return false;
+        }
+        final long targetPacked = target == null ? 0 : target.pack();
+        final int targetId = target == null ? -1 : localId(target.x, target.y, target.z);
+        final var open = local.open;
+        final int[] g = local.g;
+        final int startId = localId(sx, sy, sz);
+        local.reach(startId, 0, -1);
+        open.put(startId, 0, 0);
+        while (open.size() > 0) {
+            final int id = open.poll();
+            if (id == targetId) {
+                return true;
+            }
+            final int z = id % zSpan + minZ;
+            final int y = id / zSpan % ySpan + minY;
+            final int x = id / zSpan / ySpan + minX;
+            for (int i = 0; i < steps.count(); i++) {
+                final int tx = x + steps.dxs[i];
+                final int ty = y + steps.dys[i];
+                final int tz = z + steps.dzs[i];
+                if (tx < minX || tx > maxX
+                    || ty < minY || ty > maxY
+                    || tz < minZ || tz > maxZ) {
+                    continue;
+                }
+                final int t = localId(tx, ty, tz);
+                if (!(t == targetId && targetMayBeObstacle) && !isWalkable(tx, ty, tz)) {
+                    continue;
+                }
+                final int cost = g[id] + steps.costs[i];
+                if (local.isReached(t) && g[t] <= cost) {
+                    continue;
+                }
+                local.reach(t, cost, id);
+                final double h = target == null
+                    ? 0
+                    : heuristic.apply(PackedPoint.pack(tx, ty, tz), targetPacked);
+                open.put(t, (float) (cost + Steps.COST_SCALE * h), cost);
+            }
+        }
+        return false;
+    }
+}
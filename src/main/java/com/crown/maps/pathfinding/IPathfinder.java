@@ -4,8 +4,6 @@ import com.crown.maps.Map;
 import com.crown.maps.Point3D;
 import com.crown.maps.pathfinding.heuristics.IAStarHeuristic;
 
-import java.util.ArrayList;
-
 public abstract class IPathfinder {
     protected final Map map;
     protected final IAStarHeuristic heuristic;
@@ -23,24 +21,34 @@ public abstract class IPathfinder {
         mapMaxPoint = new Point3D(map.xSize, map.ySize, map.zSize).minus(1);
     }
 
-//    Point3D[] findPath(
-//        final Point3D startPt,
-//        final Point3D endPt,
-//        final int radius
-//    );
+    /**
+     * Finds a path between given points, inside the cube of given radius around the start point.
+     * Pass -1 to search without bounds. Returns points from the end point back to the start one,
+     * or null if there is no path.
+     */
+    public abstract Point3D[] findPath(
+        final Point3D startPt,
+        final Point3D endPt,
+        final int radius
+    );
 
+    /**
+     * Returns points of the path ending with given node,
+     * from the end point back to the start one.
+     * Points are copied, as nodes are reused by later searches.
+     */
     protected static Point3D[] createPath(PathNode end) {
         if (end == null)
             return null;
 
-        final var v = new ArrayList<Point3D>();
-        while (end != null) {
-            v.add(end.point);
-            end = end.prev;
+        int length = 0;
+        for (var node = end; node != null; node = node.prev) {
+            length++;
         }
-        final var result = new Point3D[v.size()];
-        for (int i = v.size() - 1; i >= 0; i--) {
-            result[i] = v.get(i);
+        final var result = new Point3D[length];
+        int i = 0;
+        for (var node = end; node != null; node = node.prev) {
+            result[i++] = new Point3D(node.point);
         }
         return result;
     }
@@ -0,0 +1,413 @@
+package com.crown.maps.pathfinding;
+
+import com.crown.maps.Map;
+import com.crown.maps.PackedPoint;
+import com.crown.maps.Point3D;
+import com.crown.maps.pathfinding.heuristics.IAStarHeuristic;
+import com.crown.maps.pathfinding.heuristics.OctileHeuristic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Incremental pathfinder (D* Lite) for a creature following a path to one goal.
+ * Search goes from the goal to the creature and is kept between calls,
+ * so when the creature moves or map cells change, only the part of the search
+ * affected by the changes is repaired. Use one instance per creature and goal,
+ * and ask it for the {@link #nextStep next step} each tick.
+ * <p>
+ * Changes of cells are read from the map journal (see {@link Map#forEachChange}).
+ * If the journal does not keep them anymore, the search is started again.
+ * <p>
+ * Search is bounded by the box around the goal and the creature, extended by
+ * {@link #MARGIN} cells to each side. If no path is found inside the box, or the found one
+ * is longer than any path leaving the box could be, the margin is doubled
+ * and the search is started again, up to the whole map. Search is also started again
+ * when the creature leaves the box. As in other pathfinders, the goal may be
+ * an obstacle, step costs are 1 for straight steps and 1.1 for diagonal ones.
+ * <p>
+ * Pathfinder is used by one thread at a time.
+ */
+public class IncrementalPathfinder extends IPathfinder {
+    /**
+     * Initial count of cells the search box is extended by, around the goal and the creature.
+     */
+    public static final int MARGIN = 16;
+
+    private static final int INFINITY = Integer.MAX_VALUE / 2;
+
+    // allowed steps
+    private final Steps steps;
+
+    private Point3D goal;
+    private boolean isStarted;
+    private long syncedVersion;
+    private int expandedCount;
+
+    // search box
+    private int minX, minY, minZ, maxX, maxY, maxZ, ySpan, zSpan;
+    private int goalId;
+    private int startId;
+    private long startPacked;
+    private int margin = MARGIN;
+    // sum of heuristics between the previous positions of the creature, added to keys
+    // instead of updating them on each move
+    private double keyModifier;
+
+    private int[] g = new int[0];
+    private int[] rhs = new int[0];
+    private final IndexedHeap open = new IndexedHeap();
+    // packed cells changed since the previous call
+    private long[] changes = new long[16];
+    private int changesCount;
+
+    /**
+     * Initialize a new incremental pathfinder to given goal.
+     * Uses 3D-Octile heuristic by default.
+     */
+    public IncrementalPathfinder(final Map map, final Point3D goal) {
+        this(map, goal, OctileHeuristic.get(), true);
+    }
+
+    /**
+     * Initialize a new incremental pathfinder to given goal.
+     * You can specify any heuristic from [heuristics] package.
+     * Diagonal steps are enabled.
+     */
+    public IncrementalPathfinder(final Map map, final Point3D goal, final IAStarHeuristic heuristic) {
+        this(map, goal, heuristic, true);
+    }
+
+    /**
+     * Initialize a new incremental pathfinder to given goal.
+     * You can specify any heuristic from [heuristics] package,
+     * and allow/restrict pathfinder to use diagonal steps.
+     */
+    public IncrementalPathfinder(
+        final Map map,
+        final Point3D goal,
+        final IAStarHeuristic heuristic,
+        final boolean includeDiagonals
+    ) {
+        super(map, heuristic, includeDiagonals);
+        steps = Steps.of(includeDiagonals);
+        setGoal(goal);
+    }
+
+    public Point3D getGoal() {
+        return goal;
+    }
+
+    /**
+     * Changes the goal. Search is started again on the next call.
+     */
+    public void setGoal(final Point3D goal) {
+        this.goal = new Point3D(goal);
+        margin = MARGIN;
+        isStarted = false;
+    }
+
+    /**
+     * Returns count of cells expanded by the last call,
+     * i.e. the work done to repair the search.
+     */
+    public int getExpandedCount() {
+        return expandedCount;
+    }
+
+    /**
+     * Returns the next cell of the shortest path from given position to the goal,
+     * the goal itself if the position is the goal,
+     * or null if the goal is not reachable (or out of map bounds).
+     */
+    public Point3D nextStep(final Point3D position) {
+        if (!update(position)) {
+            return null;
+        }
+        if (startId == goalId) {
+            return new Point3D(goal);
+        }
+        final int next = bestSuccessor(startId);
+        return next < 0 ? null : pointOf(next);
+    }
+
+    /**
+     * Returns the shortest path from given position to the goal,
+     * from the goal back to the position as other pathfinders do,
+     * or null if the goal is not reachable (or out of map bounds).
+     */
+    public Point3D[] findPath(final Point3D position) {
+        if (!update(position)) {
+            return null;
+        }
+        final var points = new ArrayList<Point3D>();
+        points.add(new Point3D(position));
+        for (int id = startId; id != goalId; ) {
+            id = bestSuccessor(id);
+            if (id < 0 || points.size() > g.length) {
+                return null;
+            }
+            points.add(pointOf(id));
+        }
+        final var path = new Point3D[points.size()];
+        for (int i = 0; i < path.length; i++) {
+            path[i] = points.get(path.length - 1 - i);
+        }
+        return path;
+    }
+
+    /**
+     * Same as {@link #findPath(Point3D)}, but retargets the pathfinder to given end point first,
+     * if it is not the goal. Radius is not supported, pass -1.
+     */
+    public Point3D[] findPath(final Point3D startPt, final Point3D endPt, final int radius) {
+        if (radius >= 0) {
+            throw new IllegalArgumentException("Radius is not supported: " + radius);
+        }
+        if (!endPt.equals(goal)) {
+            setGoal(endPt);
+        }
+        return findPath(startPt);
+    }
+
+    /**
+     * Moves the search to given position, applies map changes,
+     * and repairs the search. Returns false if the goal is not reachable.
+     */
+    private boolean update(final Point3D position) {
+        expandedCount = 0;
+        if (!map.inBounds(position) || !map.inBounds(goal)) {
+            return false;
+        }
+        if (!isStarted || !contains(position.x, position.y, position.z)) {
+            start(position);
+        } else {
+            final int id = idOf(position.x, position.y, position.z);
+            if (id != startId) {
+                keyModifier += Steps.COST_SCALE * heuristic.apply(startPacked, position.pack());
+                startId = id;
+                startPacked = position.pack();
+            }
+            // changes are collected first, as the journal may be locked while visited
+            final long version = map.getVersion();
+            changesCount = 0;
+            final boolean isCovered = map.forEachChange(
+                syncedVersion, minX, minY, maxX, maxY,
+                (v, x, y, z, obj, added) -> addChange(x, y, z)
+            );
+            syncedVersion = version;
+            if (!isCovered) {
+                start(position);
+            } else {
+                for (int i = 0; i < changesCount; i++) {
+                    final long cell = changes[i];
+                    cellChanged(PackedPoint.x(cell), PackedPoint.y(cell), PackedPoint.z(cell));
+                }
+            }
+        }
+        computeShortestPath();
+        while (!isBoxEnough()) {
+            margin *= 2;
+            start(position);
+            computeShortestPath();
+        }
+        return rhs[startId] < INFINITY;
+    }
+
+    /**
+     * Checks if the path found in the search box is the shortest one in the whole map.
+     * Any path leaving the box goes more than the margin away from both of its ends,
+     * so it costs more than two margins of straight steps.
+     */
+    private boolean isBoxEnough() {
+        if (minX == 0 && minY == 0 && minZ == 0
+            && maxX == map.xSize - 1 && maxY == map.ySize - 1 && maxZ == map.zSize - 1) {
+            return true;
+        }
+        return rhs[startId] <= 2L * Steps.STEP_COST * (margin + 1);
+    }
+
+    /**
+     * Starts a new search in the box around given position and the goal.
+     */
+    private void start(final Point3D position) {
+        syncedVersion = map.getVersion();
+        minX = Math.max(0, Math.min(position.x, goal.x) - margin);
+        minY = Math.max(0, Math.min(position.y, goal.y) - margin);
+        minZ = Math.max(0, Math.min(position.z, goal.z) - margin);
+        maxX = Math.min(map.xSize - 1, Math.max(position.x, goal.x) + margin);
+        maxY = Math.min(map.ySize - 1, Math.max(position.y, goal.y) + margin);
+        maxZ = Math.min(map.zSize - 1, Math.max(position.z, goal.z) + margin);
+        ySpan = maxY - minY + 1;
+        zSpan = maxZ - minZ + 1;
+        final int volume = (maxX - minX + 1) * ySpan * zSpan;
+        if (volume > g.length) {
+            g = new int[volume];
+            rhs = new int[volume];
+        }
+        Arrays.fill(g, 0, volume, INFINITY);
+        Arrays.fill(rhs, 0, volume, INFINITY);
+        open.reset(volume);
+        keyModifier = 0;
+        goalId = idOf(goal.x, goal.y, goal.z);
+        startId = idOf(position.x, position.y, position.z);
+        startPacked = position.pack();
+        rhs[goalId] = 0;
+        putOpen(goalId);
+        isStarted = true;
+    }
+
+    private void addChange(final int x, final int y, final int z) {
+        if (changesCount == changes.length) {
+            changes = Arrays.copyOf(changes, changesCount * 2);
+        }
+        changes[changesCount++] = PackedPoint.pack(x, y, z);
+    }
+
+    /**
+     * Updates cells whose steps into the changed cell have changed their costs.
+     */
+    private void cellChanged(final int x, final int y, final int z) {
+        if (z < minZ || z > maxZ) {
+            return;
+        }
+        for (int i = 0; i < steps.count(); i++) {
+            final int nx = x - steps.dxs[i];
+            final int ny = y - steps.dys[i];
+            final int nz = z - steps.dzs[i];
+            if (contains(nx, ny, nz)) {
+                updateCell(idOf(nx, ny, nz));
+            }
+        }
+    }
+
+    private void computeShortestPath() {
+        while (open.size() > 0) {
+            final int u = open.peek();
+            final float key = open.getKey(u);
+            final int tiebreaker = open.getTiebreaker(u);
+            final boolean isStartConsistent = rhs[startId] == g[startId];
+            if (isStartConsistent && !less(key, tiebreaker, startId)) {
+                break;
+            }
+            expandedCount++;
+            final float newKey = keyOf(u);
+            final int newTiebreaker = -Math.min(g[u], rhs[u]);
+            if (key < newKey || key == newKey && tiebreaker > newTiebreaker) {
+                // the key is outdated by moves of the creature
+                open.put(u, newKey, newTiebreaker);
+            } else if (g[u] > rhs[u]) {
+                g[u] = rhs[u];
+                open.remove(u);
+                updatePredecessors(u);
+            } else {
+                g[u] = INFINITY;
+                updateCell(u);
+                updatePredecessors(u);
+            }
+        }
+    }
+
+    /**
+     * Compares given key with the key of given cell.
+     */
+    private boolean less(final float key, final int tiebreaker, final int id) {
+        final float other = keyOf(id);
+        return key < other || key == other && tiebreaker > -Math.min(g[id], rhs[id]);
+    }
+
+    private float keyOf(final int id) {
+        final int cost = Math.min(g[id], rhs[id]);
+        return (float) (cost + keyModifier + Steps.COST_SCALE * heuristic.apply(startPacked, packedOf(id)));
+    }
+
+    private void putOpen(final int id) {
+        // greater tiebreakers go first, so the cost is negated
+        open.put(id, keyOf(id), -Math.min(g[id], rhs[id]));
+    }
+
+    private void updatePredecessors(final int id) {
+        final int z = id % zSpan + minZ;
+        final int y = id / zSpan % ySpan + minY;
+        final int x = id / zSpan / ySpan + minX;
+        for (int i = 0; i < steps.count(); i++) {
+            final int nx = x - steps.dxs[i];
+            final int ny = y - steps.dys[i];
+            final int nz = z - steps.dzs[i];
+            if (contains(nx, ny, nz)) {
+                updateCell(idOf(nx, ny, nz));
+            }
+        }
+    }
+
+    /**
+     * Recomputes the cost of the path from given cell through its best successor.
+     */
+    private void updateCell(final int id) {
+        if (id != goalId) {
+            final int next = bestSuccessor(id);
+            rhs[id] = next < 0 ? INFINITY : Math.min(INFINITY, g[next] + stepCost(id, next));
+        }
+        if (g[id] != rhs[id]) {
+            putOpen(id);
+        } else {
+            open.remove(id);
+        }
+    }
+
+    /**
+     * Returns the neighbor of given cell with the least cost of the path through it,
+     * or -1 if there is no path.
+     */
+    private int bestSuccessor(final int id) {
+        final int z = id % zSpan + minZ;
+        final int y = id / zSpan % ySpan + minY;
+        final int x = id / zSpan / ySpan + minX;
+        int best = -1;
+        int bestCost = INFINITY;
+        for (int i = 0; i < steps.count(); i++) {
+            final int nx = x + steps.dxs[i];
+            final int ny = y + steps.dys[i];
+            final int nz = z + steps.dzs[i];
+            if (!contains(nx, ny, nz)) {
+                continue;
+            }
+            final int next = idOf(nx, ny, nz);
+            if (g[next] >= INFINITY
+                || next != goalId && !map.isWalkable(map.indexOf(nx, ny, nz))) {
+                continue;
+            }
+            final int cost = g[next] + steps.costs[i];
+            if (cost < bestCost) {
+                best = next;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    private int stepCost(final int from, final int to) {
+        final int dz = to % zSpan - from % zSpan;
+        final int dy = to / zSpan % ySpan - from / zSpan % ySpan;
+        final int dx = to / zSpan / ySpan - from / zSpan / ySpan;
+        return Steps.cost(dx, dy, dz);
+    }
+
+    private boolean contains(final int x, final int y, final int z) {
+        return x >= minX && x <= maxX
+            && y >= minY && y <= maxY
+            && z >= minZ && z <= maxZ;
+    }
+
+    private int idOf(final int x, final int y, final int z) {
+        return ((x - minX) * ySpan + y - minY) * zSpan + z - minZ;
+    }
+
+    private long packedOf(final int id) {
+        return PackedPoint.pack(id / zSpan / ySpan + minX, id / zSpan % ySpan + minY, id % zSpan + minZ);
+    }
+
+    private Point3D pointOf(final int id) {
+        return new Point3D(id / zSpan / ySpan + minX, id / zSpan % ySpan + minY, id % zSpan + minZ);
+    }
+}
@@ -0,0 +1,158 @@
+package com.crown.maps.pathfinding;
+
+import java.util.Arrays;
+
+/**
+ * Indexed binary min-heap of int ids with float keys.
+ * Position of each id in the heap is kept, so a key is decreased
+ * in O(log n) without searching for the id. Positions are kept shifted by one,
+ * so zeroes of grown arrays mean absent ids and nothing is filled.
+ * Ties of keys are broken by greater tiebreaker values first.
+ * <p>
+ * Ids are from 0 to the capacity given by {@link #reset}.
+ */
+public final class IndexedHeap {
+    private int[] heap = new int[64];
+    private float[] keys = new float[0];
+    private int[] tiebreakers = new int[0];
+    // position + 1 of each id in the heap, 0 if absent
+    private int[] positions = new int[0];
+    private int size;
+
+    /**
+     * Empties the heap, and makes it accept ids below given capacity.
+     */
+    public void reset(final int capacity) {
+        for (int i = 0; i < size; i++) {
+            positions[heap[i]] = 0;
+        }
+        size = 0;
+        ensureCapacity(capacity);
+    }
+
+    /**
+     * Makes the heap accept ids below given capacity, keeping its content.
+     */
+    public void ensureCapacity(final int capacity) {
+        if (capacity > positions.length) {
+            keys = Arrays.copyOf(keys, capacity);
+            tiebreakers = Arrays.copyOf(tiebreakers, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(final int id) {
+        return positions[id] != 0;
+    }
+
+    /**
+     * Adds given id, or changes its key if it is already in the heap.
+     */
+    public void put(final int id, final float key, final int tiebreaker) {
+        keys[id] = key;
+        tiebreakers[id] = tiebreaker;
+        int pos = positions[id] - 1;
+        if (pos < 0) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size * 2);
+            }
+            pos = size++;
+        } else {
+            // sifted down below in case the key is increased
+            siftDown(pos, id);
+            pos = positions[id] - 1;
+        }
+        siftUp(pos, id);
+    }
+
+    /**
+     * Returns the id with the least key without removing it.
+     * Heap must not be empty.
+     */
+    public int peek() {
+        return heap[0];
+    }
+
+    /**
+     * Returns the key given to the id in the heap.
+     */
+    public float getKey(final int id) {
+        return keys[id];
+    }
+
+    /**
+     * Returns the tiebreaker given to the id in the heap.
+     */
+    public int getTiebreaker(final int id) {
+        return tiebreakers[id];
+    }
+
+    /**
+     * Removes the id with the least key, and returns it.
+     * Heap must not be empty.
+     */
+    public int poll() {
+        final int result = heap[0];
+        remove(result);
+        return result;
+    }
+
+    /**
+     * Removes given id, if it is in the heap.
+     */
+    public void remove(final int id) {
+        final int pos = positions[id] - 1;
+        if (pos < 0) {
+            return;
+        }
+        positions[id] = 0;
+        final int last = heap[--size];
+        if (pos < size) {
+            siftDown(pos, last);
+            siftUp(positions[last] - 1, last);
+        }
+    }
+
+    private boolean less(final int a, final int b) {
+        return keys[a] < keys[b] || keys[a] == keys[b] && tiebreakers[a] > tiebreakers[b];
+    }
+
+    private void siftUp(int pos, final int id) {
+        while (pos > 0) {
+            final int parent = (pos - 1) >>> 1;
+            final int p = heap[parent];
+            if (!less(id, p)) {
+                break;
+            }
+            heap[pos] = p;
+            positions[p] = pos + 1;
+            pos = parent;
+        }
+        heap[pos] = id;
+        positions[id] = pos + 1;
+    }
+
+    private void siftDown(int pos, final int id) {
+        final int half = size >>> 1;
+        while (pos < half) {
+            int child = (pos << 1) + 1;
+            int c = heap[child];
+            final int right = child + 1;
+            if (right < size && less(heap[right], c)) {
+                c = heap[child = right];
+            }
+            if (!less(c, id)) {
+                break;
+            }
+            heap[pos] = c;
+            positions[c] = pos + 1;
+            pos = child;
+        }
+        heap[pos] = id;
+        positions[id] = pos + 1;
+    }
+}
@@ -0,0 +1,997 @@
+package com.crown.maps.pathfinding;
+
+import com.crown.maps.Map;
+import com.crown.maps.PackedPoint;
+import com.crown.maps.Point3D;
+import com.crown.maps.pathfinding.heuristics.IAStarHeuristic;
+import com.crown.maps.pathfinding.heuristics.OctileHeuristic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Jump Point Search for the 3D grid map. Finds paths of the same cost as
+ * {@link AStarPathfinder} (same steps, step costs and end point rule), but instead
+ * of adding every neighbor to the open set, it moves along straight lines
+ * and adds only the jump points, where an optimal path may turn.
+ * <p>
+ * Successors of a node reached in direction {@code d} are its natural neighbors,
+ * i.e. directions composed of components of {@code d} (with diagonals),
+ * or directions of the later axes (without them), and its forced neighbors.
+ * Neighbor {@code n} of {@code x} reached from {@code p} is forced if every other
+ * path from {@code p} to {@code n} which is not longer than the one through {@code x}
+ * (or shorter, if {@code x} is reached by a diagonal step) is blocked.
+ * Such paths have at most one cell in between, so they are precomputed
+ * for each pair of directions as lists of cells to check.
+ * As any diagonal step costs the same, some 3D diagonal neighbors have no
+ * shorter alternatives, and diagonal jumps through free 3D space stop at each cell.
+ * <p>
+ * Searches over the whole map use jump distances precomputed for each cell
+ * and direction (as in JPS+), so a jump takes a few lookups instead of a scan
+ * of every cell it passes. Tables do not depend on the end point: cells from which
+ * the end is reached, or where it is a forced neighbor (when it is an obstacle),
+ * are found on the way of each jump from its coordinates. Tables take 2 bytes per
+ * cell for each direction the map allows, and are built on the first search
+ * in time linear in the map volume. When walkability of cells changes, the next search
+ * repairs only the lines of each direction which pass through the changed cells,
+ * found in the map journal, and the lines depending on them.
+ * Searches bounded by a radius scan cells, as the bounds add forced neighbors.
+ */
+public class JumpPointPathfinder extends IPathfinder {
+    private static final int DIRECTIONS = 27;
+    private static final int NONE = 13;
+    // longest run kept in the tables, longer ones are split
+    private static final int MAX_RUN = Short.MAX_VALUE;
+
+    private static final ThreadLocal<PrimitiveSearchContext> contexts =
+        ThreadLocal.withInitial(PrimitiveSearchContext::new);
+
+    // steps allowed by includeDiagonals, for the start node
+    private final int[] allSteps;
+    // natural directions of each direction, except for itself
+    private final int[][] naturals;
+    // forced candidates of each direction, and cells checked for them
+    private final int[][] forced;
+    private final int[][][] forcedVia;
+    // steps ordered so that natural directions of each one go before it
+    private final int[] buildOrder;
+    // differences of ids of neighbor cells in the tables, for each direction
+    private final int[] cellOffsets = new int[DIRECTIONS];
+
+    private final ReentrantReadWriteLock tablesLock = new ReentrantReadWriteLock();
+    private JumpTables tables;
+    private long syncedVersion;
+    // cells of changed walkability found by the last sync
+    private int[] changed = new int[16];
+    private int changedCount;
+
+    /**
+     * Initialize a new JPS pathfinder for given map.
+     * Uses 3D-Octile heuristic by default.
+     */
+    public JumpPointPathfinder(final Map map) {
+        this(map, OctileHeuristic.get(), true);
+    }
+
+    /**
+     * Initialize a new JPS pathfinder for given map.
+     * You can specify any heuristic from [heuristics] package.
+     * Diagonal steps are enabled.
+     */
+    public JumpPointPathfinder(final Map map, IAStarHeuristic heuristic) {
+        this(map, heuristic, true);
+    }
+
+    /**
+     * Initialize a new JPS pathfinder for given map.
+     * You can specify any heuristic from [heuristics] package,
+     * and allow/restrict pathfinder to use diagonal steps.
+     */
+    public JumpPointPathfinder(
+        final Map map,
+        final IAStarHeuristic heuristic,
+        final boolean includeDiagonals
+    ) {
+        super(map, heuristic, includeDiagonals);
+        var steps = Steps.of(includeDiagonals);
+        allSteps = new int[steps.count()];
+        for (int i = 0; i < allSteps.length; i++) {
+            allSteps[i] = direction(steps.dxs[i], steps.dys[i], steps.dzs[i]);
+        }
+
+        naturals = new int[DIRECTIONS][];
+        forced = new int[DIRECTIONS][];
+        forcedVia = new int[DIRECTIONS][][];
+        for (int d : allSteps) {
+            var natural = new ArrayList<Integer>();
+            var candidates = new ArrayList<Integer>();
+            var via = new ArrayList<int[]>();
+            for (int n : allSteps) {
+                if (n == d) {
+                    continue;
+                }
+                if (isNatural(d, n)) {
+                    natural.add(n);
+                    continue;
+                }
+                // p = x - d, neighbor is at x + n, all offsets are relative to x
+                int length = cost(d) + cost(n);
+                int pn = plus(n, d);
+                if (pn >= 0 && (pn == NONE || isStep(pn) && shorter(cost(pn), length, d))) {
+                    // neighbor is reached from p directly
+                    continue;
+                }
+                var cells = new ArrayList<Integer>();
+                for (int m = 0; m < DIRECTIONS; m++) {
+                    int pm = plus(m, d);
+                    int mn = minus(n, m);
+                    if (m == NONE || pm < 0 || mn < 0 || !isStep(pm) || !isStep(mn)) {
+                        continue;
+                    }
+                    if (shorter(cost(pm) + cost(mn), length, d)) {
+                        cells.add(m);
+                    }
+                }
+                candidates.add(n);
+                via.add(cells.stream().mapToInt(Integer::intValue).toArray());
+            }
+            naturals[d] = natural.stream().mapToInt(Integer::intValue).toArray();
+            forced[d] = candidates.stream().mapToInt(Integer::intValue).toArray();
+            forcedVia[d] = via.toArray(new int[0][]);
+        }
+
+        var order = new ArrayList<Integer>();
+        while (order.size() < allSteps.length) {
+            for (int d : allSteps) {
+                if (!order.contains(d) && Arrays.stream(naturals[d]).allMatch(order::contains)) {
+                    order.add(d);
+                }
+            }
+        }
+        buildOrder = order.stream().mapToInt(Integer::intValue).toArray();
+        for (int d = 0; d < DIRECTIONS; d++) {
+            cellOffsets[d] = (dx(d) * map.ySize + dy(d)) * map.zSize + dz(d);
+        }
+    }
+
+    private static int dx(int d) {
+        return d / 9 - 1;
+    }
+
+    private static int dy(int d) {
+        return d / 3 % 3 - 1;
+    }
+
+    private static int dz(int d) {
+        return d % 3 - 1;
+    }
+
+    private static int direction(int dx, int dy, int dz) {
+        if (dx < -1 || dx > 1 || dy < -1 || dy > 1 || dz < -1 || dz > 1) {
+            return -1;
+        }
+        return (dx + 1) * 9 + (dy + 1) * 3 + dz + 1;
+    }
+
+    private static int plus(int a, int b) {
+        return direction(dx(a) + dx(b), dy(a) + dy(b), dz(a) + dz(b));
+    }
+
+    private static int minus(int a, int b) {
+        return direction(dx(a) - dx(b), dy(a) - dy(b), dz(a) - dz(b));
+    }
+
+    private static boolean isDiagonal(int d) {
+        return Steps.isDiagonal(dx(d), dy(d), dz(d));
+    }
+
+    private static int cost(int d) {
+        return Steps.cost(dx(d), dy(d), dz(d));
+    }
+
+    /**
+     * Checks if other path of given cost is preferred to the one of given length
+     * through the cell reached in direction d.
+     */
+    private static boolean shorter(int cost, int length, int d) {
+        return isDiagonal(d) ? cost < length : cost <= length;
+    }
+
+    private boolean isStep(int d) {
+        return d != NONE && (includeDiagonals || !isDiagonal(d));
+    }
+
+    /**
+     * Checks if optimal paths going in direction d may go on in direction n
+     * without obstacles around, according to the canonical order of steps:
+     * diagonals before their components, or axes in X, Y, Z order without diagonals.
+     */
+    private boolean isNatural(int d, int n) {
+        if (includeDiagonals) {
+            return (dx(n) == 0 || dx(n) == dx(d))
+                && (dy(n) == 0 || dy(n) == dy(d))
+                && (dz(n) == 0 || dz(n) == dz(d));
+        }
+        int axisD = dx(d) != 0 ? 0 : dy(d) != 0 ? 1 : 2;
+        int axisN = dx(n) != 0 ? 0 : dy(n) != 0 ? 1 : 2;
+        return axisN > axisD;
+    }
+
+    /**
+     * Finds an optimal path between given points.
+     */
+    public Point3D[] findPath(final Point3D startPt, final Point3D endPt) {
+        return findPath(startPt, endPt, -1);
+    }
+
+    /**
+     * Finds an optimal path between given points, searching only the cube
+     * of given radius around the start point, or the whole map if radius is negative.
+     * Search state is kept in the context of the calling thread.
+     */
+    public Point3D[] findPath(
+        final Point3D startPt,
+        final Point3D endPt,
+        final int radius
+    ) {
+        return findPath(startPt, endPt, radius, contexts.get());
+    }
+
+    /**
+     * Same as {@link #findPath(Point3D, Point3D, int)}, but keeps search state in given context.
+     */
+    public Point3D[] findPath(
+        final Point3D startPt,
+        final Point3D endPt,
+        final int radius,
+        final PrimitiveSearchContext context
+    ) {
+        if (!this.map.inBounds(startPt) || !this.map.inBounds(endPt)) {
+            return null;
+        }
+        if (radius == 0) {
+            return new Point3D[] { startPt };
+        }
+        var search = new Search(context, startPt, endPt, radius);
+        try {
+            return search.contains(endPt.x, endPt.y, endPt.z) ? search.run(startPt) : null;
+        } finally {
+            context.end();
+            if (search.distances != null) {
+                tablesLock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns jump distances of the current map state, holding the read lock of the tables,
+     * which is released by the caller when the search ends.
+     * Tables are repaired for cells of changed walkability, or built again if the journal
+     * of the map does not cover changes since the last search.
+     */
+    private short[][] lockTables() {
+        final var readLock = tablesLock.readLock();
+        readLock.lock();
+        if (tables != null && syncedVersion == map.getVersion()) {
+            return tables.distances;
+        }
+        readLock.unlock();
+        final var writeLock = tablesLock.writeLock();
+        writeLock.lock();
+        try {
+            syncTables();
+            // downgrading, so tables are not changed until the search ends
+            readLock.lock();
+            return tables.distances;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void syncTables() {
+        final long version = map.getVersion();
+        if (tables != null && version != syncedVersion) {
+            changedCount = 0;
+            final boolean isCovered = map.forEachChange(
+                syncedVersion, 0, 0, map.xSize - 1, map.ySize - 1,
+                (v, x, y, z, obj, added) -> addChange(x, y, z)
+            );
+            // a repair walks lines of each direction around each changed cell,
+            // so after many changes building all tables again is cheaper
+            if (!isCovered || (long) changedCount * DIRECTIONS * maxSize() > (long) map.xSize * map.ySize * map.zSize) {
+                tables = null;
+            } else if (changedCount > 0) {
+                repairTables();
+            }
+        }
+        if (tables == null) {
+            tables = buildTables();
+        }
+        syncedVersion = version;
+    }
+
+    private void addChange(final int x, final int y, final int z) {
+        final int id = (x * map.ySize + y) * map.zSize + z;
+        final boolean isWalkable = map.isWalkable(map.indexOf(x, y, z));
+        if (tables.walkable.get(id) != isWalkable) {
+            tables.walkable.set(id, isWalkable);
+            if (changedCount == changed.length) {
+                changed = Arrays.copyOf(changed, changedCount * 2);
+            }
+            changed[changedCount++] = id;
+        }
+    }
+
+    private int maxSize() {
+        return Math.max(map.xSize, Math.max(map.ySize, map.zSize));
+    }
+
+    /**
+     * Returns walkable neighbors of given cell, a bit per direction.
+     */
+    private int neighborMask(final BitSet walkable, final int x, final int y, final int z) {
+        int mask = 0;
+        if (x > 0 && x < map.xSize - 1 && y > 0 && y < map.ySize - 1 && z > 0 && z < map.zSize - 1) {
+            // all neighbors are inside the map
+            final int id = (x * map.ySize + y) * map.zSize + z;
+            for (int d = 0; d < DIRECTIONS; d++) {
+                if (d != NONE && walkable.get(id + cellOffsets[d])) {
+                    mask |= 1 << d;
+                }
+            }
+            return mask;
+        }
+        for (int d = 0; d < DIRECTIONS; d++) {
+            final int nx = x + dx(d);
+            final int ny = y + dy(d);
+            final int nz = z + dz(d);
+            if (d != NONE && nx >= 0 && nx < map.xSize && ny >= 0 && ny < map.ySize && nz >= 0 && nz < map.zSize
+                && walkable.get((nx * map.ySize + ny) * map.zSize + nz)) {
+                mask |= 1 << d;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Returns masks of cells checked for each forced candidate of given direction.
+     */
+    private int[] candidateMasks(final int d) {
+        final int[] masks = new int[forced[d].length];
+        for (int i = 0; i < masks.length; i++) {
+            for (int m : forcedVia[d][i]) {
+                masks[i] |= 1 << m;
+            }
+        }
+        return masks;
+    }
+
+    /**
+     * Computes jump distances of all cells, for each direction from the cells
+     * farthest along it, as a jump from a cell goes on with the jump from its neighbor.
+     */
+    private JumpTables buildTables() {
+        final int xSize = map.xSize;
+        final int ySize = map.ySize;
+        final int zSize = map.zSize;
+        final int volume = xSize * ySize * zSize;
+        final var walkable = new BitSet(volume);
+        for (int x = 0, id = 0; x < xSize; x++) {
+            for (int y = 0; y < ySize; y++) {
+                for (int z = 0; z < zSize; z++, id++) {
+                    if (map.isWalkable(map.indexOf(x, y, z))) {
+                        walkable.set(id);
+                    }
+                }
+            }
+        }
+        // walkable neighbors of each cell, a bit per direction
+        final int[] neighbors = new int[volume];
+        for (int x = 0, id = 0; x < xSize; x++) {
+            for (int y = 0; y < ySize; y++) {
+                for (int z = 0; z < zSize; z++, id++) {
+                    neighbors[id] = neighborMask(walkable, x, y, z);
+                }
+            }
+        }
+
+        final var distances = new short[DIRECTIONS][];
+        for (int d : buildOrder) {
+            final int dx = dx(d);
+            final int dy = dy(d);
+            final int dz = dz(d);
+            if (dx != 0 && xSize == 1 || dy != 0 && ySize == 1 || dz != 0 && zSize == 1) {
+                // no jumps this way, distances of missing directions are 0
+                continue;
+            }
+            final int[] candidateMasks = candidateMasks(d);
+            final int offset = (dx * ySize + dy) * zSize + dz;
+            final var current = distances[d] = new short[volume];
+            for (int i = 0; i < xSize; i++) {
+                final int x = dx > 0 ? xSize - 1 - i : i;
+                for (int j = 0; j < ySize; j++) {
+                    final int y = dy > 0 ? ySize - 1 - j : j;
+                    for (int k = 0; k < zSize; k++) {
+                        final int z = dz > 0 ? zSize - 1 - k : k;
+                        final int id = (x * ySize + y) * zSize + z;
+                        if ((neighbors[id] & 1 << d) == 0) {
+                            continue;
+                        }
+                        final int next = id + offset;
+                        current[id] = (short) (isJumpPoint(neighbors[next], d, candidateMasks, distances, next)
+                            ? 1
+                            : extend(current[next]));
+                    }
+                }
+            }
+        }
+        return new JumpTables(walkable, distances);
+    }
+
+    /**
+     * Returns jump distance of a cell, which is followed by a cell of given distance
+     * without being a jump point.
+     */
+    private static int extend(final int run) {
+        return run > 0
+            ? (run < MAX_RUN ? run + 1 : -MAX_RUN)
+            : Math.max(run - 1, -MAX_RUN);
+    }
+
+    /**
+     * Computes jump distances again on the lines of each direction which pass
+     * through the changed cells or their neighbors, or through cells where jumps
+     * in natural directions of it started or stopped finding jump points.
+     * Distances of other cells do not depend on the changes, as a distance depends
+     * only on the cells of its line ahead, their neighbors, and their natural jumps.
+     */
+    private void repairTables() {
+        final int ySize = map.ySize;
+        final int zSize = map.zSize;
+        final var distances = tables.distances;
+        // changed cells and their neighbors, with directions to the changed cells,
+        // as neighbor masks are changed in these directions
+        final var around = new CellList();
+        for (int i = 0; i < changedCount; i++) {
+            final int id = changed[i];
+            final int x = id / zSize / ySize;
+            final int y = id / zSize % ySize;
+            final int z = id % zSize;
+            for (int m = 0; m < DIRECTIONS; m++) {
+                final int nx = x + dx(m);
+                final int ny = y + dy(m);
+                final int nz = z + dz(m);
+                if (nx >= 0 && nx < map.xSize && ny >= 0 && ny < ySize && nz >= 0 && nz < zSize) {
+                    around.add((long) ((nx * ySize + ny) * zSize + nz) * DIRECTIONS + DIRECTIONS - 1 - m);
+                }
+            }
+        }
+        // cells where jumps of each direction started or stopped finding jump points
+        final var flipped = new CellList[DIRECTIONS];
+        final int length = maxSize();
+        final boolean[] wasFound = new boolean[length];
+        final boolean[] isFound = new boolean[length];
+        final var keys = new CellList();
+        for (int d : buildOrder) {
+            if (distances[d] == null) {
+                continue;
+            }
+            flipped[d] = new CellList();
+            final int[] candidateMasks = candidateMasks(d);
+            // neighbors checked for forced ones
+            int checked = 0;
+            for (int i = 0; i < candidateMasks.length; i++) {
+                checked |= candidateMasks[i] | 1 << forced[d][i];
+            }
+            keys.size = 0;
+            for (int i = 0; i < around.size; i++) {
+                final int toChanged = (int) (around.values[i] % DIRECTIONS);
+                // walkability of the cell itself matters for the cell before it
+                if (toChanged == NONE || (checked & 1 << toChanged) != 0) {
+                    addLineKey(keys, (int) (around.values[i] / DIRECTIONS), d);
+                }
+            }
+            for (int n : naturals[d]) {
+                final var cells = flipped[n];
+                for (int i = 0; cells != null && i < cells.size; i++) {
+                    addLineKey(keys, (int) cells.values[i], d);
+                }
+            }
+            keys.sort();
+            for (int i = 0; i < keys.size; ) {
+                final long end = keys.values[i] / length;
+                final int from = (int) (keys.values[i] % length);
+                int to = from;
+                for (; i < keys.size && keys.values[i] / length == end; i++) {
+                    to = (int) (keys.values[i] % length);
+                }
+                repairLine((int) end, from, to, d, candidateMasks, flipped[d], wasFound, isFound);
+            }
+        }
+    }
+
+    /**
+     * Adds key of the line of given direction through given cell, ordered by the last
+     * cell of the line, then by count of steps from the given cell to it.
+     */
+    private void addLineKey(final CellList keys, final int id, final int d) {
+        final int ySize = map.ySize;
+        final int zSize = map.zSize;
+        final int x = id / zSize / ySize;
+        final int y = id / zSize % ySize;
+        final int z = id % zSize;
+        int steps = Integer.MAX_VALUE;
+        if (dx(d) != 0) steps = Math.min(steps, dx(d) > 0 ? map.xSize - 1 - x : x);
+        if (dy(d) != 0) steps = Math.min(steps, dy(d) > 0 ? ySize - 1 - y : y);
+        if (dz(d) != 0) steps = Math.min(steps, dz(d) > 0 ? zSize - 1 - z : z);
+        keys.add((long) (id + steps * cellOffsets[d]) * maxSize() + steps);
+    }
+
+    /**
+     * Computes jump distances of the line of given direction ending with given cell,
+     * from the cell given steps before the end, back until the distances are the same
+     * as before, once the cell following the one given steps before the end is passed.
+     * Adds cells where jumps started or stopped finding jump points.
+     */
+    private void repairLine(
+        final int end,
+        final int from,
+        final int to,
+        final int d,
+        final int[] candidateMasks,
+        final CellList flipped,
+        final boolean[] wasFound,
+        final boolean[] isFound
+    ) {
+        final int ySize = map.ySize;
+        final int zSize = map.zSize;
+        final int dx = dx(d);
+        final int dy = dy(d);
+        final int dz = dz(d);
+        final int offset = (dx * ySize + dy) * zSize + dz;
+        final var walkable = tables.walkable;
+        final var distances = tables.distances;
+        final var current = distances[d];
+        // runs going on past the longest one kept find what their continuation finds,
+        // so distances of lines that long are computed from the end
+        final boolean isLong = maxSize() > MAX_RUN;
+        final int first = isLong ? 0 : from;
+        int x = end / zSize / ySize - first * dx;
+        int y = end / zSize % ySize - first * dy;
+        int z = end % zSize - first * dz;
+        for (int i = first, id = end - first * offset;
+             x >= 0 && x < map.xSize && y >= 0 && y < ySize && z >= 0 && z < zSize;
+             i++, id -= offset, x -= dx, y -= dy, z -= dz) {
+            final int old = current[id];
+            final int next = id + offset;
+            final int run;
+            if (i == 0 || !walkable.get(next)) {
+                run = 0;
+            } else if (isJumpPoint(neighborMask(walkable, x + dx, y + dy, z + dz), d, candidateMasks, distances, next)) {
+                run = 1;
+            } else {
+                run = extend(current[next]);
+            }
+            current[id] = (short) run;
+            if (isLong) {
+                wasFound[i] = old > 0 || old == -MAX_RUN && wasFound[i - MAX_RUN];
+                isFound[i] = run > 0 || run == -MAX_RUN && isFound[i - MAX_RUN];
+                if (wasFound[i] != isFound[i]) {
+                    flipped.add(id);
+                }
+            } else if (old > 0 != run > 0) {
+                flipped.add(id);
+            } else if (old == run && i > to) {
+                // distances behind depend on this one and unchanged cells only
+                break;
+            }
+        }
+    }
+
+    /**
+     * Checks if the cell reached in given direction has a forced neighbor,
+     * or a natural direction where a jump point is found.
+     */
+    private boolean isJumpPoint(
+        final int neighbors,
+        final int d,
+        final int[] candidateMasks,
+        final short[][] distances,
+        final int id
+    ) {
+        final var candidates = forced[d];
+        for (int i = 0; i < candidates.length; i++) {
+            if ((neighbors & candidateMasks[i]) == 0 && (neighbors & 1 << candidates[i]) != 0) {
+                return true;
+            }
+        }
+        for (int n : naturals[d]) {
+            final var runs = distances[n];
+            if (runs == null) {
+                continue;
+            }
+            // runs going on past the longest one kept are followed
+            final int offset = MAX_RUN * ((dx(n) * map.ySize + dy(n)) * map.zSize + dz(n));
+            int run = runs[id];
+            for (int next = id; run == -MAX_RUN; ) {
+                next += offset;
+                run = runs[next];
+            }
+            if (run > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Jump distances of each cell in each direction, indexed by x, y and z.
+     * Positive distance is count of steps to the nearest jump point, otherwise
+     * its negation is count of walkable cells before an obstacle or the map border.
+     * Runs of {@link #MAX_RUN} cells go on without any of them.
+     */
+    private static final class JumpTables {
+        final BitSet walkable;
+        final short[][] distances;
+
+        JumpTables(BitSet walkable, short[][] distances) {
+            this.walkable = walkable;
+            this.distances = distances;
+        }
+    }
+
+    /**
+     * Growable list of cell ids, or of keys of cells on lines.
+     */
+    private static final class CellList {
+        long[] values = new long[16];
+        int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void sort() {
+            Arrays.sort(values, 0, size);
+        }
+    }
+
+    /**
+     * State of a single search: its region and the end point.
+     */
+    private class Search {
+        final PrimitiveSearchContext context;
+        final int minX, minY, minZ, maxX, maxY, maxZ;
+        final int ySpan, zSpan;
+        final int endX, endY, endZ;
+        final long endPacked;
+        final boolean isEndBlocked;
+        // jump distances, if the search region is the whole map
+        final short[][] distances;
+
+        Search(PrimitiveSearchContext context, Point3D startPt, Point3D endPt, int radius) {
+            this.context = context;
+            if (radius < 0) {
+                minX = minY = minZ = 0;
+                maxX = mapMaxPoint.x;
+                maxY = mapMaxPoint.y;
+                maxZ = mapMaxPoint.z;
+            } else {
+                minX = Math.max(0, startPt.x - radius);
+                minY = Math.max(0, startPt.y - radius);
+                minZ = Math.max(0, startPt.z - radius);
+                maxX = Math.min(mapMaxPoint.x, startPt.x + radius);
+                maxY = Math.min(mapMaxPoint.y, startPt.y + radius);
+                maxZ = Math.min(mapMaxPoint.z, startPt.z + radius);
+            }
+            ySpan = maxY - minY + 1;
+            zSpan = maxZ - minZ + 1;
+            endX = endPt.x;
+            endY = endPt.y;
+            endZ = endPt.z;
+            endPacked = endPt.pack();
+            isEndBlocked = !map.isWalkable(map.indexOf(endX, endY, endZ));
+            final boolean isWholeMap = minX == 0 && minY == 0 && minZ == 0
+                && maxX == mapMaxPoint.x && maxY == mapMaxPoint.y && maxZ == mapMaxPoint.z;
+            distances = isWholeMap ? lockTables() : null;
+        }
+
+        boolean contains(int x, int y, int z) {
+            return x >= minX && x <= maxX
+                && y >= minY && y <= maxY
+                && z >= minZ && z <= maxZ;
+        }
+
+        int idOf(int x, int y, int z) {
+            return ((x - minX) * ySpan + y - minY) * zSpan + z - minZ;
+        }
+
+        boolean isWalkable(int x, int y, int z) {
+            return contains(x, y, z) && map.isWalkable(map.indexOf(x, y, z));
+        }
+
+        Point3D[] run(Point3D startPt) {
+            context.begin((maxX - minX + 1) * ySpan * zSpan);
+            final var open = context.open;
+            final int[] g = context.g;
+            final int startId = idOf(startPt.x, startPt.y, startPt.z);
+            final int endId = idOf(endX, endY, endZ);
+            context.reach(startId, 0, -1);
+            open.put(startId, (float) (Steps.COST_SCALE * heuristic.apply(startPt.pack(), endPacked)), 0);
+            while (open.size() > 0) {
+                final int id = open.poll();
+                if (id == endId) {
+                    return createPath(id);
+                }
+                final int z = id % zSpan + minZ;
+                final int y = id / zSpan % ySpan + minY;
+                final int x = id / zSpan / ySpan + minX;
+
+                final int prev = context.prev[id];
+                if (prev < 0) {
+                    for (int d : allSteps) {
+                        jumpFrom(id, x, y, z, d);
+                    }
+                    continue;
+                }
+                // direction of the last step
+                final int d = direction(
+                    Integer.signum(x - (prev / zSpan / ySpan + minX)),
+                    Integer.signum(y - (prev / zSpan % ySpan + minY)),
+                    Integer.signum(z - (prev % zSpan + minZ))
+                );
+                jumpFrom(id, x, y, z, d);
+                for (int n : naturals[d]) {
+                    jumpFrom(id, x, y, z, n);
+                }
+                final var candidates = forced[d];
+                for (int i = 0; i < candidates.length; i++) {
+                    if (isForced(x, y, z, candidates[i], forcedVia[d][i])) {
+                        jumpFrom(id, x, y, z, candidates[i]);
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Jumps from the node in given direction, and adds the found jump point to the open set.
+         */
+        private void jumpFrom(int id, int x, int y, int z, int d) {
+            int steps = jump(x, y, z, d);
+            if (steps <= 0) {
+                return;
+            }
+            final int tx = x + steps * dx(d);
+            final int ty = y + steps * dy(d);
+            final int tz = z + steps * dz(d);
+            final int t = idOf(tx, ty, tz);
+            final int cost = context.g[id] + steps * cost(d);
+            if (context.isReached(t) && context.g[t] <= cost) {
+                return;
+            }
+            context.reach(t, cost, id);
+            final double h = heuristic.apply(PackedPoint.pack(tx, ty, tz), endPacked);
+            context.open.put(t, (float) (cost + Steps.COST_SCALE * h), cost);
+        }
+
+        /**
+         * Moves from given cell in given direction until a jump point,
+         * and returns count of steps to it, or 0 if there is none.
+         */
+        private int jump(int x, int y, int z, int d) {
+            return distances != null ? jumpByTable(x, y, z, d) : scan(x, y, z, d);
+        }
+
+        /**
+         * Same as {@link #jump}, but takes jump points of the map from the tables,
+         * and checks only the cells of the run related to the end point.
+         */
+        private int jumpByTable(int x, int y, int z, int d) {
+            final short[] runs = distances[d];
+            if (runs == null) {
+                return 0;
+            }
+            for (int done = 0; ; ) {
+                final int run = runs[idOf(x, y, z)];
+                // walkable cells passed before the jump point or the obstacle
+                final int free = run > 0 ? run - 1 : -run;
+                // the obstacle may be the end point, unless the run goes on
+                final int last = run > 0 ? run : run > -MAX_RUN ? free + 1 : free;
+                final int steps = findEnd(x, y, z, d, free, last);
+                if (steps > 0) {
+                    return done + steps;
+                }
+                if (run > 0) {
+                    return done + run;
+                }
+                if (run > -MAX_RUN) {
+                    return 0;
+                }
+                x += free * dx(d);
+                y += free * dy(d);
+                z += free * dz(d);
+                done += free;
+            }
+        }
+
+        /**
+         * Returns count of steps from given cell in given direction to the first cell
+         * which is the end point (up to given last step), or where the end point is
+         * a forced neighbor, or is reached by a natural jump (up to given free step), or 0.
+         */
+        private int findEnd(int x, int y, int z, int d, int free, int last) {
+            final int dx = dx(d);
+            final int dy = dy(d);
+            final int dz = dz(d);
+            int best = stepsToEnd(x, y, z, d);
+            if (best == 0 || best > last) {
+                best = Integer.MAX_VALUE;
+            }
+            if (isEndBlocked) {
+                // cells next to the end point, the only ones it can be forced for
+                int from = 1;
+                int to = Math.min(free, best - 1);
+                for (int axis = 0; axis < 3; axis++) {
+                    final int c = axis == 0 ? x : axis == 1 ? y : z;
+                    final int e = axis == 0 ? endX : axis == 1 ? endY : endZ;
+                    final int delta = axis == 0 ? dx : axis == 1 ? dy : dz;
+                    if (delta == 0) {
+                        if (Math.abs(e - c) > 1) {
+                            to = 0;
+                        }
+                    } else {
+                        from = Math.max(from, (e - c) * delta - 1);
+                        to = Math.min(to, (e - c) * delta + 1);
+                    }
+                }
+                for (int steps = from; steps <= to; steps++) {
+                    if (hasForced(x + steps * dx, y + steps * dy, z + steps * dz, d)) {
+                        best = steps;
+                        break;
+                    }
+                }
+            }
+            final int spread = isEndBlocked ? 1 : 0;
+            for (int sub : naturals[d]) {
+                // natural jumps keep coordinates of the axes left by sub,
+                // so the end point is reached from a single cell of the run
+                final int steps = dx != 0 && dx(sub) == 0 ? (endX - x) * dx
+                    : dy != 0 && dy(sub) == 0 ? (endY - y) * dy
+                    : (endZ - z) * dz;
+                final int to = Math.min(Math.min(free, best - 1), steps + spread);
+                for (int s = Math.max(1, steps - spread); s <= to; s++) {
+                    if (jumpByTable(x + s * dx, y + s * dy, z + s * dz, sub) > 0) {
+                        best = s;
+                        break;
+                    }
+                }
+            }
+            return best == Integer.MAX_VALUE ? 0 : best;
+        }
+
+        /**
+         * Returns count of steps from given cell in given direction to the end point,
+         * or 0 if it is not on the way.
+         */
+        private int stepsToEnd(int x, int y, int z, int d) {
+            int steps = 0;
+            for (int axis = 0; axis < 3; axis++) {
+                final int c = axis == 0 ? x : axis == 1 ? y : z;
+                final int e = axis == 0 ? endX : axis == 1 ? endY : endZ;
+                final int delta = axis == 0 ? dx(d) : axis == 1 ? dy(d) : dz(d);
+                if (delta == 0) {
+                    if (c != e) {
+                        return 0;
+                    }
+                    continue;
+                }
+                final int axisSteps = (e - c) * delta;
+                if (axisSteps < 1 || steps != 0 && axisSteps != steps) {
+                    return 0;
+                }
+                steps = axisSteps;
+            }
+            return steps;
+        }
+
+        /**
+         * Moves from given cell in given direction one cell after another,
+         * same as {@link #jump}.
+         */
+        private int scan(int x, int y, int z, int d) {
+            final int dx = dx(d);
+            final int dy = dy(d);
+            final int dz = dz(d);
+            final var subs = naturals[d];
+            for (int steps = 1; ; steps++) {
+                x += dx;
+                y += dy;
+                z += dz;
+                if (x == endX && y == endY && z == endZ) {
+                    return contains(x, y, z) ? steps : 0;
+                }
+                if (!isWalkable(x, y, z)) {
+                    return 0;
+                }
+                if (hasForced(x, y, z, d)) {
+                    return steps;
+                }
+                for (int sub : subs) {
+                    if (jump(x, y, z, sub) > 0) {
+                        return steps;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Checks if given cell reached in given direction has any forced neighbor.
+         */
+        private boolean hasForced(int x, int y, int z, int d) {
+            final var candidates = forced[d];
+            for (int i = 0; i < candidates.length; i++) {
+                if (isForced(x, y, z, candidates[i], forcedVia[d][i])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Checks if the neighbor in direction n of given cell is forced,
+         * i.e. it can be entered, and all given cells of other paths to it are blocked.
+         */
+        private boolean isForced(int x, int y, int z, int n, int[] via) {
+            final int nx = x + dx(n);
+            final int ny = y + dy(n);
+            final int nz = z + dz(n);
+            if (!contains(nx, ny, nz)) {
+                return false;
+            }
+            // other paths are mostly free, so they are checked before the neighbor
+            for (int m : via) {
+                if (isWalkable(x + dx(m), y + dy(m), z + dz(m))) {
+                    return false;
+                }
+            }
+            return nx == endX && ny == endY && nz == endZ || map.isWalkable(map.indexOf(nx, ny, nz));
+        }
+
+        /**
+         * Returns all points of the path ending with the node with given id,
+         * from the end point back to the start one, filling lines between jump points.
+         */
+        private Point3D[] createPath(int end) {
+            var points = new ArrayList<Point3D>();
+            for (int id = end; id >= 0; id = context.prev[id]) {
+                int x = id / zSpan / ySpan + minX;
+                int y = id / zSpan % ySpan + minY;
+                int z = id % zSpan + minZ;
+                int prev = context.prev[id];
+                if (prev < 0) {
+                    points.add(new Point3D(x, y, z));
+                    break;
+                }
+                int px = prev / zSpan / ySpan + minX;
+                int py = prev / zSpan % ySpan + minY;
+                int pz = prev % zSpan + minZ;
+                int sx = Integer.signum(px - x);
+                int sy = Integer.signum(py - y);
+                int sz = Integer.signum(pz - z);
+                while (x != px || y != py || z != pz) {
+                    points.add(new Point3D(x, y, z));
+                    x += sx;
+                    y += sy;
+                    z += sz;
+                }
+            }
+            return points.toArray(new Point3D[0]);
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package com.crown.maps.pathfinding;
+
+import com.crown.maps.Map;
+import com.crown.maps.PackedPoint;
+import com.crown.maps.Point3D;
+import com.crown.maps.pathfinding.heuristics.IAStarHeuristic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+
+/**
+ * Cache of paths found by pathfinders of one map, for routes requested over and over.
+ * Paths are keyed by their start and end points, radius, and the pathfinder type,
+ * heuristic and diagonal steps. Least recently used paths are evicted
+ * when the cache is full.
+ * <p>
+ * Before each request, paths affected by changes of map cells since the previous one
+ * are dropped. Changes are read from the map journal (see {@link Map#forEachChange}),
+ * and the whole cache is dropped if the journal does not keep them anymore.
+ * A path is affected if one of its cells is not walkable anymore,
+ * or if a cell is freed close enough to its start and end points
+ * to make a shorter path possible. A missing path is affected by any cell
+ * freed inside its search cube.
+ * <p>
+ * Cache is thread-safe. Paths are found outside the lock, and are not cached
+ * if the map is changed meanwhile.
+ */
+public class PathCache {
+    private final Map map;
+    private final int capacity;
+    private final int xChunks;
+
+    // in access order, so the least recently used path goes first
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // entries watching cells of each chunk, and entries watching the whole map
+    private final ArrayList<HashSet<Entry>> byChunk;
+    private final HashSet<Entry> unbounded = new HashSet<>();
+    private long syncedVersion;
+    // packed cells changed since the previous request
+    private long[] changes = new long[16];
+    private int changesCount;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * Creates a cache of given count of paths for pathfinders of given map.
+     */
+    public PathCache(final Map map, final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.map = map;
+        this.capacity = capacity;
+        xChunks = (map.xSize + Map.CHUNK_SIZE - 1) / Map.CHUNK_SIZE;
+        byChunk = new ArrayList<>(Collections.nCopies(map.getChunksCount(), null));
+        syncedVersion = map.getVersion();
+    }
+
+    /**
+     * Same as {@link IPathfinder#findPath(Point3D, Point3D, int)},
+     * but returns the cached path if it is still valid.
+     */
+    public Point3D[] findPath(
+        final IPathfinder pathfinder,
+        final Point3D startPt,
+        final Point3D endPt,
+        final int radius
+    ) {
+        if (pathfinder.map != map) {
+            throw new IllegalArgumentException("Pathfinder of another map");
+        }
+        final var key = new Key(pathfinder, startPt.pack(), endPt.pack(), Math.max(radius, -1));
+        final long version;
+        synchronized (this) {
+            sync();
+            final var entry = entries.get(key);
+            if (entry != null) {
+                hits++;
+                return copyOf(entry.path);
+            }
+            misses++;
+            version = syncedVersion;
+        }
+
+        final var path = pathfinder.findPath(startPt, endPt, radius);
+        synchronized (this) {
+            // path may be outdated already if the map is changed during the search
+            if (map.getVersion() == version && !entries.containsKey(key)) {
+                add(key, copyOf(path), pathfinder.includeDiagonals);
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Drops all paths.
+     */
+    public synchronized void clear() {
+        while (!entries.isEmpty()) {
+            remove(entries.values().iterator().next());
+        }
+    }
+
+    /**
+     * Returns count of cached paths.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns count of requests answered by cached paths.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns count of requests passed to pathfinders.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns count of paths evicted to free space for new ones.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns count of paths dropped as affected by map changes.
+     */
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    private void add(final Key key, final Point3D[] path, final boolean includeDiagonals) {
+        final var entry = new Entry(key, path);
+        final var start = PackedPoint.unpack(key.start);
+        final var end = PackedPoint.unpack(key.end);
+        if (path != null) {
+            entry.cells = new long[Math.max(0, path.length - 2)];
+            // the start and end points may be obstacles
+            for (int i = 1; i < path.length - 1; i++) {
+                entry.cells[i - 1] = path[i].pack();
+            }
+            Arrays.sort(entry.cells);
+            for (int i = 1; i < path.length; i++) {
+                final var from = path[i - 1];
+                entry.cost += Steps.cost(path[i].x - from.x, path[i].y - from.y, path[i].z - from.z);
+            }
+            entry.includeDiagonals = includeDiagonals;
+            // cells closer to both of the points than the path cost
+            final int reach = entry.cost / Steps.STEP_COST;
+            entry.minX = Math.max(start.x, end.x) - reach;
+            entry.minY = Math.max(start.y, end.y) - reach;
+            entry.minZ = Math.max(start.z, end.z) - reach;
+            entry.maxX = Math.min(start.x, end.x) + reach;
+            entry.maxY = Math.min(start.y, end.y) + reach;
+            entry.maxZ = Math.min(start.z, end.z) + reach;
+        } else if (key.radius < 0) {
+            entry.minX = entry.minY = entry.minZ = 0;
+            entry.maxX = map.xSize - 1;
+            entry.maxY = map.ySize - 1;
+            entry.maxZ = map.zSize - 1;
+        } else {
+            entry.minX = start.x - key.radius;
+            entry.minY = start.y - key.radius;
+            entry.minZ = start.z - key.radius;
+            entry.maxX = start.x + key.radius;
+            entry.maxY = start.y + key.radius;
+            entry.maxZ = start.z + key.radius;
+        }
+        if (key.radius >= 0) {
+            entry.minX = Math.max(entry.minX, start.x - key.radius);
+            entry.minY = Math.max(entry.minY, start.y - key.radius);
+            entry.minZ = Math.max(entry.minZ, start.z - key.radius);
+            entry.maxX = Math.min(entry.maxX, start.x + key.radius);
+            entry.maxY = Math.min(entry.maxY, start.y + key.radius);
+            entry.maxZ = Math.min(entry.maxZ, start.z + key.radius);
+        }
+        entry.minX = Math.max(entry.minX, 0);
+        entry.minY = Math.max(entry.minY, 0);
+        entry.maxX = Math.min(entry.maxX, map.xSize - 1);
+        entry.maxY = Math.min(entry.maxY, map.ySize - 1);
+
+        entries.put(key, entry);
+        if (path == null && key.radius < 0) {
+            unbounded.add(entry);
+        } else {
+            for (int chunk : chunksOf(entry)) {
+                var watching = byChunk.get(chunk);
+                if (watching == null) {
+                    watching = new HashSet<>();
+                    byChunk.set(chunk, watching);
+                }
+                watching.add(entry);
+            }
+        }
+        if (entries.size() > capacity) {
+            remove(entries.values().iterator().next());
+            evictions++;
+        }
+    }
+
+    private void remove(final Entry entry) {
+        entries.remove(entry.key);
+        if (!unbounded.remove(entry)) {
+            for (int chunk : chunksOf(entry)) {
+                byChunk.get(chunk).remove(entry);
+            }
+        }
+    }
+
+    private int[] chunksOf(final Entry entry) {
+        final int x0 = entry.minX / Map.CHUNK_SIZE;
+        final int y0 = entry.minY / Map.CHUNK_SIZE;
+        final int x1 = entry.maxX / Map.CHUNK_SIZE;
+        final int y1 = entry.maxY / Map.CHUNK_SIZE;
+        final var result = new int[(x1 - x0 + 1) * (y1 - y0 + 1)];
+        int i = 0;
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
+                result[i++] = y * xChunks + x;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Drops paths affected by map changes since the previous request.
+     */
+    private void sync() {
+        final long version = map.getVersion();
+        if (version == syncedVersion) {
+            return;
+        }
+        // changes are collected first, as the journal may be locked while visited
+        changesCount = 0;
+        final boolean isCovered = map.forEachChange(
+            syncedVersion, 0, 0, map.xSize - 1, map.ySize - 1,
+            (v, x, y, z, obj, added) -> addChange(x, y, z)
+        );
+        syncedVersion = version;
+        if (!isCovered) {
+            invalidations += entries.size();
+            clear();
+            return;
+        }
+        final var affected = new ArrayList<Entry>();
+        for (int i = 0; i < changesCount; i++) {
+            final long cell = changes[i];
+            final int x = PackedPoint.x(cell);
+            final int y = PackedPoint.y(cell);
+            final int z = PackedPoint.z(cell);
+            final boolean isWalkable = map.isWalkable(map.indexOf(x, y, z));
+            final var watching = byChunk.get((y / Map.CHUNK_SIZE) * xChunks + x / Map.CHUNK_SIZE);
+            if (watching != null) {
+                for (var entry : watching) {
+                    if (entry.isAffected(cell, x, y, z, isWalkable)) {
+                        affected.add(entry);
+                    }
+                }
+            }
+            if (isWalkable) {
+                affected.addAll(unbounded);
+            }
+            for (var entry : affected) {
+                if (entries.containsKey(entry.key)) {
+                    remove(entry);
+                    invalidations++;
+                }
+            }
+            affected.clear();
+        }
+    }
+
+    private void addChange(final int x, final int y, final int z) {
+        if (changesCount == changes.length) {
+            changes = Arrays.copyOf(changes, changesCount * 2);
+        }
+        changes[changesCount++] = PackedPoint.pack(x, y, z);
+    }
+
+    private static Point3D[] copyOf(final Point3D[] path) {
+        if (path == null) {
+            return null;
+        }
+        final var result = new Point3D[path.length];
+        for (int i = 0; i < path.length; i++) {
+            result[i] = new Point3D(path[i]);
+        }
+        return result;
+    }
+
+    private static final class Key {
+        final Class<?> type;
+        final IAStarHeuristic heuristic;
+        final boolean includeDiagonals;
+        final long start;
+        final long end;
+        final int radius;
+
+        Key(final IPathfinder pathfinder, final long start, final long end, final int radius) {
+            type = pathfinder.getClass();
+            heuristic = pathfinder.heuristic;
+            includeDiagonals = pathfinder.includeDiagonals;
+            this.start = start;
+            this.end = end;
+            this.radius = radius;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return start == key.start
+                && end == key.end
+                && radius == key.radius
+                && includeDiagonals == key.includeDiagonals
+                && type == key.type
+                && heuristic.equals(key.heuristic);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, heuristic, includeDiagonals, start, end, radius);
+        }
+    }
+
+    private static final class Entry {
+        final Key key;
+        final Point3D[] path;
+        // sorted packed cells of the path, except its start and end points
+        long[] cells;
+        int cost;
+        boolean includeDiagonals;
+        // box of cells whose changes may affect the entry
+        int minX, minY, minZ, maxX, maxY, maxZ;
+
+        Entry(final Key key, final Point3D[] path) {
+            this.key = key;
+            this.path = path;
+        }
+
+        boolean isAffected(final long cell, final int x, final int y, final int z, final boolean isWalkable) {
+            if (x < minX || x > maxX || y < minY || y > maxY || z < minZ || z > maxZ) {
+                return false;
+            }
+            if (path == null) {
+                return isWalkable;
+            }
+            if (!isWalkable) {
+                return Arrays.binarySearch(cells, cell) >= 0;
+            }
+            // freed cell may give a shorter path if it is closer to both points than the path cost
+            return distance(key.start, x, y, z) + distance(key.end, x, y, z) < cost;
+        }
+
+        /**
+         * Returns the least cost of a path between given points, in tenths of a step.
+         */
+        private int distance(final long packed, final int x, final int y, final int z) {
+            final int dx = Math.abs(PackedPoint.x(packed) - x);
+            final int dy = Math.abs(PackedPoint.y(packed) - y);
+            final int dz = Math.abs(PackedPoint.z(packed) - z);
+            if (!includeDiagonals) {
+                return Steps.STEP_COST * (dx + dy + dz);
+            }
+            final int max = Math.max(dx, Math.max(dy, dz));
+            final int min = Math.min(dx, Math.min(dy, dz));
+            // diagonal steps cover the second largest delta
+            return Steps.STEP_COST * max + (Steps.DIAGONAL_STEP_COST - Steps.STEP_COST) * (dx + dy + dz - max - min);
+        }
+    }
+}
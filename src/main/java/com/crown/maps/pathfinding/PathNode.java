@@ -20,6 +20,18 @@ public class PathNode implements HeapNode {
         this.g = g;
     }
 
+    /**
+     * Reuses this node for another point of a search.
+     */
+    void reset(final int x, final int y, final int z, final double g) {
+        this.point.x = x;
+        this.point.y = y;
+        this.point.z = z;
+        this.g = g;
+        this.prev = null;
+        this.heapIndex = -1;
+    }
+
     public void computeCost() {
         this.cost = this.h + this.g;
     }
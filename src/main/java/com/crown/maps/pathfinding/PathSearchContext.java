@@ -0,0 +1,113 @@
+package com.crown.maps.pathfinding;
+
+import com.crown.maps.Point3D;
+
+import java.util.Arrays;
+
+/**
+ * Reusable state of A* searches: index of nodes of the searched region kept in flat arrays,
+ * pool of nodes, and the open set heap. Each slot of the region is stamped with the generation
+ * of the search which has reached it, so a new search starts in O(1) without clearing the arrays.
+ * Nodes are taken from the pool in order of reaching, so it holds as many nodes
+ * as the largest search has reached, not one per cell of the region.
+ * <p>
+ * Slot arrays are kept between searches, so repeated searches of the whole map
+ * don't allocate them again. The pool grown by a large search beyond {@link #RETAINED_NODES}
+ * is cut when it ends, as its nodes are objects, not flat arrays.
+ * <p>
+ * Context is used by one thread at a time. {@link AStarPathfinder} keeps one per thread.
+ */
+public final class PathSearchContext {
+    /**
+     * Max count of pooled nodes kept for the next search.
+     */
+    public static final int RETAINED_NODES = 1 << 14;
+
+    private int[] stamps = new int[0];
+    // position of the node of each reached slot in the pool
+    private int[] slotNodes = new int[0];
+    private int generation;
+    private PathNode[] pool = new PathNode[0];
+    private int reachedCount;
+
+    final SimpleHeap<PathNode> open = new SimpleHeap<>(1000);
+
+    /**
+     * Starts a new search over a region with given count of cells.
+     */
+    void begin(final int volume) {
+        if (volume > stamps.length) {
+            // zero stamps are never taken for the current generation
+            stamps = new int[volume];
+            slotNodes = new int[volume];
+        }
+        open.clear();
+        reachedCount = 0;
+        if (++generation == 0) {
+            // stamps of the old generations would be taken for current ones
+            Arrays.fill(stamps, 0);
+            generation = 1;
+        }
+    }
+
+    /**
+     * Ends the search, cutting the pool if it is too large to be kept.
+     */
+    void end() {
+        open.clear();
+        if (pool.length > RETAINED_NODES) {
+            pool = Arrays.copyOf(pool, RETAINED_NODES);
+            // kept nodes must not hold the dropped ones
+            for (var node : pool) {
+                if (node != null) {
+                    node.prev = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns count of pooled nodes.
+     */
+    public int getPooledCount() {
+        int count = 0;
+        for (var node : pool) {
+            if (node != null) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns count of region slots kept in the index.
+     */
+    public int getSlotsCount() {
+        return stamps.length;
+    }
+
+    /**
+     * Returns node of the cell in given slot, if it is reached by the current search.
+     */
+    PathNode get(final int slot) {
+        return stamps[slot] == generation ? pool[slotNodes[slot]] : null;
+    }
+
+    /**
+     * Returns node of the cell in given slot, reset for the current search.
+     * Slot must not be reached by the current search yet.
+     */
+    PathNode reach(final int slot, final int x, final int y, final int z, final double g) {
+        if (reachedCount == pool.length) {
+            pool = Arrays.copyOf(pool, Math.max(64, pool.length * 2));
+        }
+        var node = pool[reachedCount];
+        if (node == null) {
+            node = pool[reachedCount] = new PathNode(new Point3D(x, y, z), g);
+            node.heapIndex = -1;
+        } else {
+            node.reset(x, y, z, g);
+        }
+        slotNodes[slot] = reachedCount++;
+        stamps[slot] = generation;
+        return node;
+    }
+}
@@ -0,0 +1,187 @@
+package com.crown.maps.pathfinding;
+
+import com.crown.maps.Map;
+import com.crown.maps.PackedPoint;
+import com.crown.maps.Point3D;
+import com.crown.maps.pathfinding.heuristics.IAStarHeuristic;
+import com.crown.maps.pathfinding.heuristics.OctileHeuristic;
+
+/**
+ * A* pathfinding over primitives. Nodes are int ids of cells in the searched region,
+ * costs are kept in parallel arrays of {@link PrimitiveSearchContext},
+ * and the open set is an {@link IndexedHeap} of ids keyed by estimated path costs.
+ * Step costs and heuristics are the same as of {@link AStarPathfinder},
+ * so paths found by both have the same cost.
+ */
+public class PrimitiveAStarPathfinder extends IPathfinder {
+    private static final ThreadLocal<PrimitiveSearchContext> contexts =
+        ThreadLocal.withInitial(PrimitiveSearchContext::new);
+
+    // allowed steps
+    private final Steps steps;
+
+    /**
+     * Initialize a new A* pathfinder for given map.
+     * Uses 3D-Octile heuristic by default.
+     */
+    public PrimitiveAStarPathfinder(final Map map) {
+        this(map, OctileHeuristic.get(), true);
+    }
+
+    /**
+     * Initialize a new A* pathfinder for given map.
+     * You can specify any heuristic from [heuristics] package.
+     * Diagonal steps are enabled.
+     */
+    public PrimitiveAStarPathfinder(final Map map, IAStarHeuristic heuristic) {
+        this(map, heuristic, true);
+    }
+
+    /**
+     * Initialize a new A* pathfinder for given map.
+     * You can specify any heuristic from [heuristics] package,
+     * and allow/restrict pathfinder to use diagonal steps.
+     */
+    public PrimitiveAStarPathfinder(
+        final Map map,
+        final IAStarHeuristic heuristic,
+        final boolean includeDiagonals
+    ) {
+        super(map, heuristic, includeDiagonals);
+        steps = Steps.of(includeDiagonals);
+    }
+
+    /**
+     * Finds an optimal path between given points.
+     */
+    public Point3D[] findPath(final Point3D startPt, final Point3D endPt) {
+        return findPath(startPt, endPt, -1);
+    }
+
+    /**
+     * Finds an optimal path between given points, searching only the cube
+     * of given radius around the start point, or the whole map if radius is negative.
+     * Search state is kept in the context of the calling thread.
+     */
+    public Point3D[] findPath(
+        final Point3D startPt,
+        final Point3D endPt,
+        final int radius
+    ) {
+        return findPath(startPt, endPt, radius, contexts.get());
+    }
+
+    /**
+     * Same as {@link #findPath(Point3D, Point3D, int)}, but keeps search state in given context.
+     */
+    public Point3D[] findPath(
+        final Point3D startPt,
+        final Point3D endPt,
+        final int radius,
+        final PrimitiveSearchContext context
+    ) {
+        if (!this.map.inBounds(startPt) || !this.map.inBounds(endPt)) {
+            return null;
+        }
+        if (radius == 0) {
+            return new Point3D[] { startPt };
+        }
+
+        final int minX, minY, minZ, maxX, maxY, maxZ;
+        if (radius < 0) {
+            minX = minY = minZ = 0;
+            maxX = mapMaxPoint.x;
+            maxY = mapMaxPoint.y;
+            maxZ = mapMaxPoint.z;
+        } else {
+            minX = Math.max(0, startPt.x - radius);
+            minY = Math.max(0, startPt.y - radius);
+            minZ = Math.max(0, startPt.z - radius);
+            maxX = Math.min(mapMaxPoint.x, startPt.x + radius);
+            maxY = Math.min(mapMaxPoint.y, startPt.y + radius);
+            maxZ = Math.min(mapMaxPoint.z, startPt.z + radius);
+        }
+        if (endPt.x < minX || endPt.x > maxX
+            || endPt.y < minY || endPt.y > maxY
+            || endPt.z < minZ || endPt.z > maxZ) {
+            return null;
+        }
+        // node id is (x * ySpan + y) * zSpan + z relative to the region
+        final int ySpan = maxY - minY + 1;
+        final int zSpan = maxZ - minZ + 1;
+        context.begin((maxX - minX + 1) * ySpan * zSpan);
+        try {
+            final long endPacked = endPt.pack();
+            final int endId = ((endPt.x - minX) * ySpan + endPt.y - minY) * zSpan + endPt.z - minZ;
+            final int startId = ((startPt.x - minX) * ySpan + startPt.y - minY) * zSpan + startPt.z - minZ;
+            final var open = context.open;
+            final int[] g = context.g;
+            context.reach(startId, 0, -1);
+            open.put(startId, (float) (Steps.COST_SCALE * heuristic.apply(startPt.pack(), endPacked)), 0);
+            while (open.size() > 0) {
+                final int id = open.poll();
+                if (id == endId) {
+                    return createPath(context, id, minX, minY, minZ, ySpan, zSpan);
+                }
+                final int z = id % zSpan + minZ;
+                final int y = id / zSpan % ySpan + minY;
+                final int x = id / zSpan / ySpan + minX;
+
+                for (int i = 0; i < steps.count(); i++) {
+                    final int tx = x + steps.dxs[i];
+                    final int ty = y + steps.dys[i];
+                    final int tz = z + steps.dzs[i];
+                    if (tx < minX || tx > maxX
+                        || ty < minY || ty > maxY
+                        || tz < minZ || tz > maxZ) {
+                        continue;
+                    }
+                    final int t = ((tx - minX) * ySpan + ty - minY) * zSpan + tz - minZ;
+                    // the only allowed obstacle is the end point
+                    if (t != endId && !this.map.isWalkable(this.map.indexOf(tx, ty, tz))) {
+                        continue;
+                    }
+                    final int cost = g[id] + steps.costs[i];
+                    if (context.isReached(t) && g[t] <= cost) {
+                        continue;
+                    }
+                    context.reach(t, cost, id);
+                    final double h = heuristic.apply(PackedPoint.pack(tx, ty, tz), endPacked);
+                    open.put(t, (float) (cost + Steps.COST_SCALE * h), cost);
+                }
+            }
+            return null;
+        } finally {
+            context.end();
+        }
+    }
+
+    /**
+     * Returns points of the path ending with the node with given id,
+     * from the end point back to the start one.
+     */
+    private static Point3D[] createPath(
+        final PrimitiveSearchContext context,
+        final int end,
+        final int minX,
+        final int minY,
+        final int minZ,
+        final int ySpan,
+        final int zSpan
+    ) {
+        int length = 0;
+        for (int id = end; id >= 0; id = context.prev[id]) {
+            length++;
+        }
+        final var result = new Point3D[length];
+        int i = 0;
+        for (int id = end; id >= 0; id = context.prev[id]) {
+            result[i++] = new Point3D(
+                id / zSpan / ySpan + minX,
+                id / zSpan % ySpan + minY,
+                id % zSpan + minZ
+            );
+        }
+        return result;
+    }
+}
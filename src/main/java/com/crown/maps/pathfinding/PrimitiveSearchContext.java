@@ -0,0 +1,84 @@
+package com.crown.maps.pathfinding;
+
+import java.util.Arrays;
+
+/**
+ * Reusable state of {@link PrimitiveAStarPathfinder} searches:
+ * path costs and previous nodes in parallel int arrays, indexed by node ids,
+ * and the open set heap. Like in {@link PathSearchContext}, nodes are stamped
+ * with the generation of the search which has reached them,
+ * so a new search starts without clearing the arrays.
+ * Arrays are kept between searches, so repeated searches of the whole map don't allocate.
+ * <p>
+ * Context is used by one thread at a time.
+ * {@link PrimitiveAStarPathfinder} keeps one per thread.
+ */
+public final class PrimitiveSearchContext {
+    private int[] stamps = new int[0];
+    private int generation;
+
+    int[] g = new int[0];
+    int[] prev = new int[0];
+    final IndexedHeap open = new IndexedHeap();
+
+    /**
+     * Starts a new search over a region with given count of cells.
+     */
+    void begin(final int volume) {
+        if (volume > stamps.length) {
+            stamps = Arrays.copyOf(stamps, volume);
+            g = new int[volume];
+            prev = new int[volume];
+        }
+        open.reset(volume);
+        if (++generation == 0) {
+            // stamps of the old generations would be taken for current ones
+            Arrays.fill(stamps, 0);
+            generation = 1;
+        }
+    }
+
+    /**
+     * Ends the search, emptying the open set.
+     */
+    void end() {
+        open.reset(0);
+    }
+
+    /**
+     * Returns count of node ids kept in the arrays.
+     */
+    public int getSlotsCount() {
+        return stamps.length;
+    }
+
+    /**
+     * Makes the current search accept node ids below given count, e.g. for nodes
+     * of a graph growing during the search.
+     */
+    void grow(final int volume) {
+        if (volume > stamps.length) {
+            int capacity = Math.max(volume, stamps.length * 2);
+            stamps = Arrays.copyOf(stamps, capacity);
+            g = Arrays.copyOf(g, capacity);
+            prev = Arrays.copyOf(prev, capacity);
+            open.ensureCapacity(capacity);
+        }
+    }
+
+    /**
+     * Checks if the node with given id is reached by the current search.
+     */
+    boolean isReached(final int id) {
+        return stamps[id] == generation;
+    }
+
+    /**
+     * Marks the node with given id reached by the current search.
+     */
+    void reach(final int id, final int cost, final int prevId) {
+        stamps[id] = generation;
+        g[id] = cost;
+        prev[id] = prevId;
+    }
+}
@@ -0,0 +1,74 @@
+package com.crown.maps.pathfinding;
+
+/**
+ * Steps to neighbor cells allowed by pathfinders of this package, and their costs.
+ * Steps go in order of their (dx, dy, dz) offsets from -1 to 1, dz changing fastest.
+ * Costs are scaled to keep them integer: a straight step costs 1,
+ * and a diagonal one (changing more than one coordinate) costs 1.1.
+ */
+final class Steps {
+    static final int COST_SCALE = 10;
+    static final int STEP_COST = 10;
+    static final int DIAGONAL_STEP_COST = 11;
+
+    private static final Steps ALL = new Steps(true);
+    private static final Steps STRAIGHT = new Steps(false);
+
+    // offsets and costs of each step, must not be changed
+    final int[] dxs;
+    final int[] dys;
+    final int[] dzs;
+    final int[] costs;
+
+    private Steps(final boolean includeDiagonals) {
+        final int count = includeDiagonals ? 26 : 6;
+        dxs = new int[count];
+        dys = new int[count];
+        dzs = new int[count];
+        costs = new int[count];
+        int i = 0;
+        // @formatter:off
+        for (int dx = -1; dx <= 1; dx++)
+        for (int dy = -1; dy <= 1; dy++)
+        for (int dz = -1; dz <= 1; dz++) {
+            // @formatter:on
+            final boolean isMoveDiagonal = isDiagonal(dx, dy, dz);
+            if (dx == 0 && dy == 0 && dz == 0
+                || isMoveDiagonal && !includeDiagonals) {
+                continue;
+            }
+            dxs[i] = dx;
+            dys[i] = dy;
+            dzs[i] = dz;
+            costs[i++] = isMoveDiagonal ? DIAGONAL_STEP_COST : STEP_COST;
+        }
+    }
+
+    /**
+     * Returns steps to all 26 neighbors, or to 6 straight ones only.
+     */
+    static Steps of(final boolean includeDiagonals) {
+        return includeDiagonals ? ALL : STRAIGHT;
+    }
+
+    /**
+     * Returns count of steps.
+     */
+    int count() {
+        return dxs.length;
+    }
+
+    /**
+     * Checks if a step by given offsets changes more than one coordinate.
+     */
+    static boolean isDiagonal(final int dx, final int dy, final int dz) {
+        return (dx != 0 ? 1 : 0) + (dy != 0 ? 1 : 0) + (dz != 0 ? 1 : 0) > 1;
+    }
+
+    /**
+     * Returns cost of a step by given offsets.
+     */
+    static int cost(final int dx, final int dy, final int dz) {
+        return isDiagonal(dx, dy, dz) ? DIAGONAL_STEP_COST : STEP_COST;
+    }
+}
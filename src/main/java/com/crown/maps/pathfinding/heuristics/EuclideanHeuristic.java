@@ -1,5 +1,6 @@
 package com.crown.maps.pathfinding.heuristics;
 
+import com.crown.maps.PackedPoint;
 import com.crown.maps.Point3D;
 
 /**
@@ -17,7 +18,23 @@ public class EuclideanHeuristic implements IAStarHeuristic {
 
     @Override
     public double apply(Point3D startPoint, Point3D endPoint) {
-        var d = startPoint.minus(endPoint).abs();
-        return Math.sqrt(Math.pow(d.x, 2) + Math.pow(d.y, 2) + Math.pow(d.z, 2));
+        return apply(
+            Math.abs(startPoint.x - endPoint.x),
+            Math.abs(startPoint.y - endPoint.y),
+            Math.abs(startPoint.z - endPoint.z)
+        );
+    }
+
+    @Override
+    public double apply(long startPoint, long endPoint) {
+        return apply(
+            Math.abs(PackedPoint.x(startPoint) - PackedPoint.x(endPoint)),
+            Math.abs(PackedPoint.y(startPoint) - PackedPoint.y(endPoint)),
+            Math.abs(PackedPoint.z(startPoint) - PackedPoint.z(endPoint))
+        );
+    }
+
+    private static double apply(int dx, int dy, int dz) {
+        return Math.sqrt((double) dx * dx + (double) dy * dy + (double) dz * dz);
     }
 }
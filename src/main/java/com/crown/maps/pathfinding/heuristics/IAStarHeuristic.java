@@ -1,7 +1,16 @@
 package com.crown.maps.pathfinding.heuristics;
 
+import com.crown.maps.PackedPoint;
 import com.crown.maps.Point3D;
 
 public interface IAStarHeuristic {
     double apply(Point3D startPoint, Point3D endPoint);
+
+    /**
+     * Same as {@link #apply(Point3D, Point3D)},
+     * but for packed points (see {@link PackedPoint}).
+     */
+    default double apply(long startPoint, long endPoint) {
+        return apply(PackedPoint.unpack(startPoint), PackedPoint.unpack(endPoint));
+    }
 }
@@ -1,5 +1,6 @@
 package com.crown.maps.pathfinding.heuristics;
 
+import com.crown.maps.PackedPoint;
 import com.crown.maps.Point3D;
 
 /**
@@ -17,12 +18,28 @@ public class OctileHeuristic implements IAStarHeuristic {
 
     @Override
     public double apply(Point3D startPoint, Point3D endPoint) {
-        var d = startPoint.minus(endPoint).abs();
+        return apply(
+            Math.abs(startPoint.x - endPoint.x),
+            Math.abs(startPoint.y - endPoint.y),
+            Math.abs(startPoint.z - endPoint.z)
+        );
+    }
+
+    @Override
+    public double apply(long startPoint, long endPoint) {
+        return apply(
+            Math.abs(PackedPoint.x(startPoint) - PackedPoint.x(endPoint)),
+            Math.abs(PackedPoint.y(startPoint) - PackedPoint.y(endPoint)),
+            Math.abs(PackedPoint.z(startPoint) - PackedPoint.z(endPoint))
+        );
+    }
+
+    private static double apply(int dx, int dy, int dz) {
         // sort deltas
-        int d1 = Math.min(d.x, Math.min(d.y, d.z));
-        int d3 = Math.max(d.x, Math.max(d.y, d.z));
-        int d2 = d.x + d.y + d.z - d1 - d3;
+        int d1 = Math.min(dx, Math.min(dy, dz));
+        int d3 = Math.max(dx, Math.max(dy, dz));
+        int d2 = dx + dy + dz - d1 - d3;
         // Reference: Real-Time, 3D Path Planning for UAVs, by Jay Lanzafane
-        return d.x + d.y + d.z - (3 - Math.sqrt(3)) * d1 - (2 - Math.sqrt(2)) * d2;
+        return dx + dy + dz - (3 - Math.sqrt(3)) * d1 - (2 - Math.sqrt(2)) * d2;
     }
 }
@@ -1,6 +1,7 @@
 package com.crown.maps.vision;
 
 import com.crown.maps.IMap;
+import com.crown.maps.PackedPoint;
 import com.crown.maps.Point3D;
 import org.apache.commons.lang3.tuple.Pair;
 
@@ -21,4 +22,18 @@ public interface ILineOfSight {
         Point3D start,
         Point3D end
     );
+
+    /**
+     * Determines whether line of sight exists between packed
+     * points start and end (see {@link PackedPoint}).
+     * Doesn't calculate the path of projection.
+     *
+     * @param b        The board to be visited.
+     * @param start    Starting point.
+     * @param end      Target point.
+     * @return true if a line of sight could be established.
+     */
+    default boolean exists(final IMap b, long start, long end) {
+        return exists(b, PackedPoint.unpack(start), PackedPoint.unpack(end)).getLeft();
+    }
 }
@@ -1,79 +1,103 @@
 package com.crown.maps.vision.los;
 
+import com.crown.maps.PackedPoint;
 import com.crown.maps.Point3D;
 
 import java.util.ArrayList;
+import java.util.function.LongPredicate;
 
 /**
  * Bresenham's line drawing algorithm for 3D.
  */
 public final class BresenhamLine {
     public static Point3D[] getFor(Point3D start, Point3D end) {
-        int pointX = start.x;
-        int pointY = start.y;
-        int pointZ = start.z;
-        final Point3D d = end.minus(start);
-        final Point3D inc = d.positiveSign();
-        final Point3D abs = d.abs();
-        int dx2 = abs.x << 1;
-        int dy2 = abs.y << 1;
-        int dz2 = abs.z << 1;
-
         var points = new ArrayList<Point3D>();
+        forEach(start.pack(), end.pack(), pt -> points.add(PackedPoint.unpack(pt)));
+        return points.toArray(new Point3D[0]);
+    }
+
+    /**
+     * Walks the line between packed points (see {@link PackedPoint}),
+     * passing each point, including start & end, to the visitor.
+     * Walk is stopped as soon as visitor returns false.
+     *
+     * @return true if the whole line was visited.
+     */
+    public static boolean forEach(long start, long end, LongPredicate visitor) {
+        int pointX = PackedPoint.x(start);
+        int pointY = PackedPoint.y(start);
+        int pointZ = PackedPoint.z(start);
+        int dx = PackedPoint.x(end) - pointX;
+        int dy = PackedPoint.y(end) - pointY;
+        int dz = PackedPoint.z(end) - pointZ;
+        int incX = dx >= 0 ? 1 : -1;
+        int incY = dy >= 0 ? 1 : -1;
+        int incZ = dz >= 0 ? 1 : -1;
+        int absX = Math.abs(dx);
+        int absY = Math.abs(dy);
+        int absZ = Math.abs(dz);
+        int dx2 = absX << 1;
+        int dy2 = absY << 1;
+        int dz2 = absZ << 1;
 
-        if (abs.x >= abs.y && abs.x >= abs.z) {
-            int err1 = dy2 - abs.x;
-            int err2 = dz2 - abs.x;
-            for (int i = 0; i < abs.x; i++) {
-                points.add(new Point3D(pointX, pointY, pointZ));
+        if (absX >= absY && absX >= absZ) {
+            int err1 = dy2 - absX;
+            int err2 = dz2 - absX;
+            for (int i = 0; i < absX; i++) {
+                if (!visitor.test(PackedPoint.pack(pointX, pointY, pointZ))) {
+                    return false;
+                }
                 if (err1 > 0) {
-                    pointY += inc.y;
+                    pointY += incY;
                     err1 -= dx2;
                 }
                 if (err2 > 0) {
-                    pointZ += inc.z;
+                    pointZ += incZ;
                     err2 -= dx2;
                 }
                 err1 += dy2;
                 err2 += dz2;
-                pointX += inc.x;
+                pointX += incX;
             }
-        } else if (abs.y >= abs.x && abs.y >= abs.z) {
-            int err1 = dx2 - abs.y;
-            int err2 = dz2 - abs.y;
-            for (int i = 0; i < abs.y; i++) {
-                points.add(new Point3D(pointX, pointY, pointZ));
+        } else if (absY >= absX && absY >= absZ) {
+            int err1 = dx2 - absY;
+            int err2 = dz2 - absY;
+            for (int i = 0; i < absY; i++) {
+                if (!visitor.test(PackedPoint.pack(pointX, pointY, pointZ))) {
+                    return false;
+                }
                 if (err1 > 0) {
-                    pointX += inc.x;
+                    pointX += incX;
                     err1 -= dy2;
                 }
                 if (err2 > 0) {
-                    pointZ += inc.z;
+                    pointZ += incZ;
                     err2 -= dy2;
                 }
                 err1 += dx2;
                 err2 += dz2;
-                pointY += inc.y;
+                pointY += incY;
             }
         } else {
-            int err1 = dy2 - abs.z;
-            int err2 = dx2 - abs.z;
-            for (int i = 0; i < abs.z; i++) {
-                points.add(new Point3D(pointX, pointY, pointZ));
+            int err1 = dy2 - absZ;
+            int err2 = dx2 - absZ;
+            for (int i = 0; i < absZ; i++) {
+                if (!visitor.test(PackedPoint.pack(pointX, pointY, pointZ))) {
+                    return false;
+                }
                 if (err1 > 0) {
-                    pointY += inc.y;
+                    pointY += incY;
                     err1 -= dz2;
                 }
                 if (err2 > 0) {
-                    pointX += inc.x;
+                    pointX += incX;
                     err2 -= dz2;
                 }
                 err1 += dy2;
                 err2 += dx2;
-                pointZ += inc.z;
+                pointZ += incZ;
             }
         }
-        points.add(new Point3D(pointX, pointY, pointZ));
-        return points.toArray(new Point3D[0]);
+        return visitor.test(PackedPoint.pack(pointX, pointY, pointZ));
     }
-}
\ No newline at end of file
+}
@@ -5,6 +5,8 @@ import com.crown.maps.Point3D;
 import com.crown.maps.vision.ILineOfSight;
 import org.apache.commons.lang3.tuple.Pair;
 
+import java.util.function.LongPredicate;
+
 /**
  * Bresenham LOS class.
  * Checks if a bresenham line can be drawn from
@@ -61,4 +63,14 @@ public class BresenhamLos implements ILineOfSight {
         }
         return Pair.of(los, path);
     }
+
+    @Override
+    public boolean exists(final IMap map, long start, long end) {
+        if (start == end) {
+            return false;
+        }
+        LongPredicate isClear = pt -> pt == start || pt == end || map.isTransparent(pt);
+        return BresenhamLine.forEach(start, end, isClear)
+            || isSymmetric && BresenhamLine.forEach(end, start, isClear);
+    }
 }
@@ -6,11 +6,13 @@ import com.crown.i18n.I18n;
 import com.crown.i18n.ITemplate;
 import com.crown.maps.Map;
 import com.rits.cloning.Cloner;
+import com.rits.cloning.IFastCloner;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.time.Duration;
 import java.time.Instant;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.concurrent.ConcurrentSkipListMap;
 
 /**
@@ -98,7 +100,7 @@ public class Timeline {
         // mirror actions from main timeline to alternatives
         if (this == main) {
             for (var alternative : alternatives.values()) {
-                var cloner = new Cloner();
+                var cloner = newCloner();
                 if (action.getTarget() != null) {
                     // skip cloning performer, it is replaced in alternative timeline
                     cloner.nullInsteadOfClone(action.getTarget().getClass());
@@ -169,7 +171,7 @@ public class Timeline {
         final Organism[] travellerClone = new Organism[1];
         clock.freeze(() -> {
             // cloning timeline
-            var cloner = new Cloner();
+            var cloner = newCloner(traveller.getMap());
             // DEBUG
             //  cloner.setDumpClonedClasses(true);
             var timelineClone = cloner.deepClone(main);
@@ -255,6 +257,38 @@ public class Timeline {
         return Pair.of(I18n.okMessage, tl.originalTraveller);
     }
 
+    /**
+     * Creates a cloner that copies maps as copy-on-write snapshots
+     * (see {@link Map#snapshot(java.util.function.UnaryOperator)}),
+     * instead of deep-cloning all their cells.
+     * Objects of snapshot are cloned right away, so later changes
+     * of the original map and its objects don't leak into the copy.
+     */
+    private static Cloner newCloner(Map... maps) {
+        var cloner = new Cloner();
+        IFastCloner mapCloner = (t, deepCloner, clones) -> {
+            var snapshot = ((Map) t).snapshot(mapObj -> deepCloner.deepClone(mapObj, clones));
+            // cloned objects refer to the map, it must be known to the cloner before they are cloned
+            clones.put(t, snapshot);
+            snapshot.materializeRemap();
+            return snapshot;
+        };
+        // cloner rejects a second fast cloner for the same class
+        var mapClasses = new HashSet<Class<?>>();
+        if (main != null) {
+            mapClasses.add(main.gameState.getGlobalMap().getClass());
+        }
+        for (var map : maps) {
+            if (map != null) {
+                mapClasses.add(map.getClass());
+            }
+        }
+        for (var mapClass : mapClasses) {
+            cloner.registerFastCloner(mapClass, mapCloner);
+        }
+        return cloner;
+    }
+
     private void startFlow() {
         flowAction = new TimelineFlowAction(this);
         clock.schedule(flowAction);
@@ -5,8 +5,10 @@ import org.jetbrains.annotations.NotNull;
 
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Abstraction over in-game virtual clock logic.
@@ -20,6 +22,7 @@ public class VirtualClock {
     private final Runnable tickAction;
 
     private final ObjectsMap<TimelineFlowAction> scheduledActions = new ObjectsMap<>();
+    private final List<Runnable> tickListeners = new CopyOnWriteArrayList<>();
 
     public boolean paused = false;
 
@@ -57,6 +60,18 @@ public class VirtualClock {
         scheduledActions.remove(action);
     }
 
+    /**
+     * Adds a listener called on each tick after scheduled actions,
+     * i.e. when the game state is not changed by the tick anymore.
+     */
+    public void addTickListener(Runnable listener) {
+        tickListeners.add(listener);
+    }
+
+    public void removeTickListener(Runnable listener) {
+        tickListeners.remove(listener);
+    }
+
     /**
      * Returns initial value of this clock.
      */
@@ -114,6 +129,9 @@ public class VirtualClock {
                     for (var a : scheduledActions) {
                         a.run();
                     }
+                    for (var l : tickListeners) {
+                        l.run();
+                    }
                 }
             }
         }, 0, tickPeriod);
@@ -49,44 +49,19 @@ public class Random {
     }
 
     /**
-     * Returns a random point of map not occupied by obstacle.
-     * TODO: Add point selection strategy, e.g.
-     * () -> Random.getPoint(map) or
-     * (map, xs, ys, zs) -> Random.getPoint(map, xs, ys)
+     * Returns a random point of map not occupied by obstacle,
+     * or null if there is no such point.
      */
     public static Point3D getFreePoint(Map map) {
-        Point3D pt;
-        MapObject obj;
-        long attempts = -1;
-        do {
-            if (++attempts == map.xSize * map.ySize * map.zSize) {
-                return null;
-            }
-
-            pt = Random.getPoint(map);
-            obj = map.get(pt);
-        } while (obj != null && !obj.isWalkable());
-
-        return pt;
+        return map.getRandomFreePoint(rnd);
     }
 
     /**
      * Returns a random point of map not occupied by obstacle
-     * for object with specified size.
+     * for object with specified size, or null if there is no such point.
+     * All points covered by the object are checked.
      */
     public static Point3D getFreePoint(Map map, int xSize, int ySize) {
-        Point3D pt;
-        MapObject obj;
-        long attempts = -1;
-        do {
-            if (++attempts == map.xSize * map.ySize * map.zSize) {
-                return null;
-            }
-
-            pt = Random.getPoint(map, xSize, ySize);
-            obj = map.get(pt);
-        } while (obj != null && !obj.isWalkable());
-
-        return pt;
+        return map.getRandomFreePoint(rnd, xSize, ySize);
     }
 }
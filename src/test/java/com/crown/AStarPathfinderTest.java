@@ -0,0 +1,247 @@
+package com.crown;
+
+import com.crown.maps.Point3D;
+import com.crown.maps.pathfinding.AStarPathfinder;
+import com.crown.maps.pathfinding.PathSearchContext;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AStarPathfinderTest {
+    static void assertValidPath(MapTest.TestMap map, Point3D[] path, Point3D start, Point3D end) {
+        // path goes from the end back to the start
+        assertEquals(path[0].pack(), end.pack());
+        assertEquals(path[path.length - 1].pack(), start.pack());
+        for (int i = 1; i < path.length; i++) {
+            assertTrue(Math.abs(path[i].x - path[i - 1].x) <= 1);
+            assertTrue(Math.abs(path[i].y - path[i - 1].y) <= 1);
+            assertTrue(Math.abs(path[i].z - path[i - 1].z) <= 1);
+            assertTrue(map.isWalkable(path[i]));
+        }
+    }
+
+    /**
+     * Builds a wall along X = 10 with a gap at Y = 18.
+     */
+    static MapTest.TestMap wallMap() {
+        var map = new MapTest.TestMap(20, 20, 1);
+        for (int y = 0; y < 20; y++) {
+            if (y != 18) {
+                new MapTest.TestObject("wall" + y, map, new Point3D(10, y, 0));
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Builds a maze of one cell wide corridors, carved by a random depth-first walk.
+     */
+    static MapTest.TestMap mazeMap(int size, long seed) {
+        var map = new MapTest.TestMap(size, size, 1);
+        var walls = new boolean[size][size];
+        for (var column : walls) {
+            java.util.Arrays.fill(column, true);
+        }
+        var rnd = new Random(seed);
+        var stack = new java.util.ArrayDeque<int[]>();
+        walls[1][1] = false;
+        stack.push(new int[] {1, 1});
+        int[][] steps = {{2, 0}, {-2, 0}, {0, 2}, {0, -2}};
+        while (!stack.isEmpty()) {
+            var cell = stack.peek();
+            int first = rnd.nextInt(4);
+            boolean moved = false;
+            for (int i = 0; i < 4 && !moved; i++) {
+                var step = steps[(first + i) % 4];
+                int x = cell[0] + step[0];
+                int y = cell[1] + step[1];
+                if (x > 0 && y > 0 && x < size - 1 && y < size - 1 && walls[x][y]) {
+                    walls[x][y] = false;
+                    walls[cell[0] + step[0] / 2][cell[1] + step[1] / 2] = false;
+                    stack.push(new int[] {x, y});
+                    moved = true;
+                }
+            }
+            if (!moved) {
+                stack.pop();
+            }
+        }
+        fill(map, walls);
+        return map;
+    }
+
+    /**
+     * Builds caves by smoothing random noise with a cellular automaton.
+     */
+    static MapTest.TestMap caveMap(int size, long seed) {
+        var map = new MapTest.TestMap(size, size, 1);
+        var rnd = new Random(seed);
+        var walls = new boolean[size][size];
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                walls[x][y] = rnd.nextInt(100) < 45;
+            }
+        }
+        for (int round = 0; round < 4; round++) {
+            var next = new boolean[size][size];
+            for (int x = 0; x < size; x++) {
+                for (int y = 0; y < size; y++) {
+                    int count = 0;
+                    for (int dx = -1; dx <= 1; dx++) {
+                        for (int dy = -1; dy <= 1; dy++) {
+                            int nx = x + dx;
+                            int ny = y + dy;
+                            if (nx < 0 || ny < 0 || nx >= size || ny >= size || walls[nx][ny]) {
+                                count++;
+                            }
+                        }
+                    }
+                    next[x][y] = count >= 5;
+                }
+            }
+            walls = next;
+        }
+        fill(map, walls);
+        return map;
+    }
+
+    /**
+     * Builds a map with given share of random obstacles.
+     */
+    static MapTest.TestMap randomMap(int size, int zSize, int obstaclesPercent, long seed) {
+        var map = new MapTest.TestMap(size, size, zSize);
+        var rnd = new Random(seed);
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                for (int z = 0; z < zSize; z++) {
+                    if (rnd.nextInt(100) < obstaclesPercent) {
+                        new MapTest.TestObject("rock", map, new Point3D(x, y, z));
+                    }
+                }
+            }
+        }
+        return map;
+    }
+
+    private static void fill(MapTest.TestMap map, boolean[][] walls) {
+        for (int x = 0; x < walls.length; x++) {
+            for (int y = 0; y < walls[x].length; y++) {
+                if (walls[x][y]) {
+                    new MapTest.TestObject("wall", map, new Point3D(x, y, 0));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns random walkable point of given map.
+     */
+    static Point3D walkablePoint(MapTest.TestMap map, Random rnd) {
+        while (true) {
+            var pt = new Point3D(rnd.nextInt(map.xSize), rnd.nextInt(map.ySize), rnd.nextInt(map.zSize));
+            if (map.isWalkable(pt)) {
+                return pt;
+            }
+        }
+    }
+
+    /**
+     * Returns exact cost of the path between given points without obstacles.
+     */
+    static double diagonalDistance(Point3D a, Point3D b) {
+        int dx = Math.abs(a.x - b.x);
+        int dy = Math.abs(a.y - b.y);
+        int dz = Math.abs(a.z - b.z);
+        int max = Math.max(dx, Math.max(dy, dz));
+        int min = Math.min(dx, Math.min(dy, dz));
+        // diagonal steps cover the second largest delta
+        return max + 0.1 * (dx + dy + dz - max - min);
+    }
+
+    /**
+     * Returns cost of given path in tenths of a straight step.
+     */
+    static int costOf(Point3D[] path) {
+        int cost = 0;
+        for (int i = 1; i < path.length; i++) {
+            int axes = (path[i].x != path[i - 1].x ? 1 : 0)
+                + (path[i].y != path[i - 1].y ? 1 : 0)
+                + (path[i].z != path[i - 1].z ? 1 : 0);
+            cost += axes > 1 ? 11 : 10;
+        }
+        return cost;
+    }
+
+    @Test
+    public void testFindPath() {
+        var map = wallMap();
+        var pathfinder = new AStarPathfinder(map);
+        var start = new Point3D(2, 2, 0);
+        var end = new Point3D(17, 2, 0);
+
+        var path = pathfinder.findPath(start, end);
+        assertValidPath(map, path, start, end);
+        // goes through the gap
+        assertTrue(path.length >= 17);
+        boolean throughGap = false;
+        for (var pt : path) {
+            throughGap |= pt.x == 10 && pt.y == 18;
+        }
+        assertTrue(throughGap);
+
+        // straight line without obstacles
+        path = pathfinder.findPath(start, new Point3D(8, 2, 0));
+        assertEquals(path.length, 7);
+
+        // radius does not reach the gap
+        assertNull(pathfinder.findPath(start, end, 12));
+        assertEquals(pathfinder.findPath(start, start, 0).length, 1);
+        assertNull(pathfinder.findPath(start, new Point3D(20, 2, 0)));
+    }
+
+    @Test
+    public void testReusedContext() {
+        var map = wallMap();
+        var pathfinder = new AStarPathfinder(map);
+        var context = new PathSearchContext();
+        var start = new Point3D(2, 2, 0);
+        var end = new Point3D(17, 2, 0);
+        var expected = pathfinder.findPath(start, end);
+
+        for (int i = 0; i < 100; i++) {
+            // searches of other regions in between
+            pathfinder.findPath(new Point3D(1, i % 20, 0), new Point3D(5, 5, 0), 6, context);
+            var path = pathfinder.findPath(start, end, -1, context);
+            assertEquals(path.length, expected.length);
+            for (int j = 0; j < path.length; j++) {
+                assertEquals(path[j].pack(), expected[j].pack());
+            }
+        }
+        // the wall is closed
+        new MapTest.TestObject("gap", map, new Point3D(10, 18, 0));
+        assertNull(pathfinder.findPath(start, end, -1, context));
+
+        // pool holds reached nodes only, not one per cell of the region
+        assertTrue(context.getPooledCount() < map.xSize * map.ySize);
+    }
+
+    @Test
+    public void testContextTrimmed() {
+        var map = new MapTest.TestMap(1100, 1000, 1);
+        var pathfinder = new AStarPathfinder(map);
+        var context = new PathSearchContext();
+        // the whole map is searched
+        new MapTest.TestObject("wall", map, new Point3D(1, 0, 0), new Point3D(1, 1, 0), new Point3D(0, 1, 0));
+        assertNull(pathfinder.findPath(new Point3D(500, 500, 0), new Point3D(0, 0, 0), -1, context));
+        // slots are kept for the next whole map search, nodes are cut
+        assertEquals(context.getSlotsCount(), map.xSize * map.ySize);
+        assertTrue(context.getPooledCount() <= PathSearchContext.RETAINED_NODES);
+        assertEquals(pathfinder.findPath(new Point3D(2, 2, 0), new Point3D(5, 2, 0), -1, context).length, 4);
+        assertNull(pathfinder.findPath(new Point3D(700, 500, 0), new Point3D(0, 0, 0), -1, context));
+        assertEquals(context.getSlotsCount(), map.xSize * map.ySize);
+    }
+}
@@ -0,0 +1,127 @@
+package com.crown;
+
+import com.crown.maps.Point3D;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static com.crown.GameStateFileTest.codec;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AutoSaveTest {
+    private static BaseGameState reopen(Path file) throws IOException {
+        var state = new BaseGameState(new MapTest.TestMap(64, 64, 2));
+        AutoSave.open(state, file, codec).close();
+        return state;
+    }
+
+    private static void assertSameState(BaseGameState loaded, BaseGameState state) {
+        assertEquals(loaded.getGlobalMap().getStateHash(), state.getGlobalMap().getStateHash());
+        assertTrue(loaded.getGlobalMap().getDifferentChunks(state.getGlobalMap()).isEmpty());
+        assertEquals(loaded.players.size(), state.players.size());
+        for (var player : state.players) {
+            var loadedPlayer = loaded.players.get(player.getId());
+            assertEquals(loadedPlayer.getHp(), player.getHp());
+            assertEquals(loadedPlayer.getMap() == null, player.getMap() == null);
+        }
+    }
+
+    @Test
+    public void testIncrementalSave() throws IOException {
+        var dir = Files.createTempDirectory("autosave");
+        var file = dir.resolve("world.log");
+        try {
+            var state = new BaseGameState(new MapTest.TestMap(64, 64, 2));
+            var map = state.getGlobalMap();
+            var objects = new MapTest.TestObject[1000];
+            for (int i = 0; i < objects.length; i++) {
+                objects[i] = new MapTest.TestObject("o" + i, map, new Point3D(i % 64, i * 7 % 64, i % 2));
+            }
+            var player = new GameStateFileTest.TestOrganism("player", map, new Point3D(40, 40, 1));
+            var ghost = new GameStateFileTest.TestOrganism("ghost", null, new Point3D(1, 1, 0));
+            state.players.add(player);
+            state.players.add(ghost);
+
+            try (var autoSave = AutoSave.open(state, file, codec)) {
+                long fullSize = autoSave.getSize();
+                assertEquals(Files.size(file), fullSize);
+
+                // nothing is appended without changes
+                autoSave.save();
+                assertEquals(autoSave.getSize(), fullSize);
+
+                // one chunk and the player's chunk are appended
+                map.remove(objects[0]);
+                player.changeHp(-20);
+                autoSave.save();
+                long size = autoSave.getSize();
+                assertTrue(size > fullSize && size - fullSize < fullSize / 4);
+                assertSameState(reopen(file), state);
+
+                // off-map player is saved with players
+                ghost.changeHp(-5);
+                new MapTest.TestObject("new", map, new Point3D(63, 63, 0));
+                autoSave.save();
+                assertSameState(reopen(file), state);
+
+                // compacted log drops replaced records
+                for (int i = 1; i < 200; i++) {
+                    map.remove(objects[i]);
+                    autoSave.save();
+                }
+                long before = autoSave.getSize();
+                autoSave.compact();
+                assertTrue(autoSave.getSize() < before);
+                assertEquals(Files.size(file), autoSave.getSize());
+                assertSameState(reopen(file), state);
+
+                // later saves are appended to the compacted log
+                map.remove(objects[500]);
+                autoSave.save();
+                assertSameState(reopen(file), state);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void testTornTail() throws IOException {
+        var dir = Files.createTempDirectory("autosave");
+        var file = dir.resolve("world.log");
+        try {
+            var state = new BaseGameState(new MapTest.TestMap(64, 64, 2));
+            var map = state.getGlobalMap();
+            var first = new MapTest.TestObject("first", map, new Point3D(1, 1, 0));
+            AutoSave.open(state, file, codec).close();
+            long committed = Files.size(file);
+
+            // save torn in the middle is dropped with its records
+            var loaded = new BaseGameState(new MapTest.TestMap(64, 64, 2));
+            try (var autoSave = AutoSave.open(loaded, file, codec)) {
+                new MapTest.TestObject("second", loaded.getGlobalMap(), new Point3D(30, 30, 0));
+                autoSave.save();
+            }
+            var data = Files.readAllBytes(file);
+            Files.write(file, java.util.Arrays.copyOf(data, data.length - 6));
+            assertSameState(reopen(file), state);
+            assertEquals(Files.size(file), committed);
+
+            // garbage after the last commit is ignored
+            Files.write(file, new byte[] {1, 0, 0, 0, 3, 7, 7, 7, 1, 2, 3, 4, 5}, StandardOpenOption.APPEND);
+            var recovered = reopen(file);
+            assertSameState(recovered, state);
+            assertEquals(recovered.getGlobalMap().get(1, 1, 0).getId(), first.getId());
+            assertNull(recovered.getGlobalMap().get(30, 30, 0));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.crown;
+
+import com.crown.maps.Map;
+import com.crown.maps.MapObject;
+import com.crown.maps.Point3D;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConcurrentMapTest {
+    static final int THREADS = 8;
+
+    /**
+     * Creates single-cell and two-cell creatures for each thread,
+     * the latter ones are spanning across chunk borders from time to time.
+     */
+    static List<List<MapObject>> populate(Map map, int perThread) {
+        var random = ThreadLocalRandom.current();
+        var groups = new ArrayList<List<MapObject>>();
+        for (int t = 0; t < THREADS; t++) {
+            var group = new ArrayList<MapObject>();
+            for (int i = 0; i < perThread; i++) {
+                int x = random.nextInt(map.xSize - 1);
+                int y = random.nextInt(map.ySize);
+                String name = "c" + t + "." + i;
+                group.add(i % 2 == 0
+                    ? new MapTest.TestObject(name, map, new Point3D(x, y, 0))
+                    : new MapTest.TestObject(name, map, new Point3D(x, y, 0), new Point3D(x + 1, y, 0))
+                );
+            }
+            groups.add(group);
+        }
+        return groups;
+    }
+
+    /**
+     * Moves given creature by a random step, keeping it on the map.
+     */
+    static void step(Map map, MapObject creature, ThreadLocalRandom random) {
+        int dx = random.nextInt(3) - 1;
+        int dy = random.nextInt(3) - 1;
+        var min = creature.getMinPoint();
+        var max = creature.getMaxPoint();
+        if (min.x + dx < 0 || max.x + dx >= map.xSize) dx = 0;
+        if (min.y + dy < 0 || max.y + dy >= map.ySize) dy = 0;
+        creature.moveView(dx, dy, 0);
+    }
+
+    @Test
+    public void testConcurrentMoves() throws InterruptedException {
+        var map = new MapTest.TestMap(48, 48, 1, false);
+        map.enableConcurrency();
+        assertTrue(map.isConcurrent());
+        var groups = populate(map, 40);
+
+        var error = new AtomicReference<Throwable>();
+        var threads = new ArrayList<Thread>();
+        for (var group : groups) {
+            threads.add(new Thread(() -> {
+                var random = ThreadLocalRandom.current();
+                try {
+                    for (int i = 0; i < 5000; i++) {
+                        step(map, group.get(random.nextInt(group.size())), random);
+                        // reads of cells changed by other threads
+                        var pt = new Point3D(random.nextInt(map.xSize), random.nextInt(map.ySize), 0);
+                        map.get(pt);
+                        map.isWalkable(pt);
+                        map.getTopmostZ(pt.x, pt.y, 0);
+                        map.getWalkableRow(pt.y, 0);
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (var thread : threads) {
+            thread.start();
+        }
+        for (var thread : threads) {
+            thread.join();
+        }
+        assertNull(error.get());
+
+        // each cell keeps exactly the objects standing on it
+        int pointsCount = 0;
+        for (var group : groups) {
+            for (var creature : group) {
+                pointsCount += creature.getPoints().length;
+            }
+        }
+        int cellsCount = 0;
+        for (int y = 0; y < map.ySize; y++) {
+            for (int x = 0; x < map.xSize; x++) {
+                var pt = new Point3D(x, y, 0);
+                for (var obj : map.getAll3D(MapTest.TestObject.class, pt, 0)) {
+                    assertTrue(List.of(obj.getPoints()).contains(pt));
+                    cellsCount++;
+                }
+            }
+        }
+        assertEquals(pointsCount, cellsCount);
+    }
+
+    @Test
+    public void testConcurrentFreePoints() throws InterruptedException {
+        var map = new MapTest.TestMap(48, 48, 1, false);
+        map.enableConcurrency();
+        var groups = populate(map, 40);
+
+        var error = new AtomicReference<Throwable>();
+        var threads = new ArrayList<Thread>();
+        for (var group : groups) {
+            threads.add(new Thread(() -> {
+                var random = ThreadLocalRandom.current();
+                try {
+                    for (int i = 0; i < 3000; i++) {
+                        step(map, group.get(random.nextInt(group.size())), random);
+                        // readers sync the shared free cells index
+                        var pt = map.getRandomFreePoint(random);
+                        assertTrue(pt != null && map.inBounds(pt));
+                        assertTrue(map.getFreeCellsCount() > 0);
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (var thread : threads) {
+            thread.start();
+        }
+        for (var thread : threads) {
+            thread.join();
+        }
+        assertNull(error.get());
+
+        int freeCount = 0;
+        for (int y = 0; y < map.ySize; y++) {
+            for (int x = 0; x < map.xSize; x++) {
+                if (map.isWalkable(new Point3D(x, y, 0))) {
+                    freeCount++;
+                }
+            }
+        }
+        assertEquals(map.getFreeCellsCount(), freeCount);
+    }
+}
@@ -0,0 +1,169 @@
+package com.crown;
+
+import com.crown.creatures.Organism;
+import com.crown.i18n.ITemplate;
+import com.crown.items.InventoryItem;
+import com.crown.items.ItemCodec;
+import com.crown.maps.Map;
+import com.crown.maps.MapFile;
+import com.crown.maps.MapIcon;
+import com.crown.maps.MapObject;
+import com.crown.maps.MapObjectCodec;
+import com.crown.maps.Point3D;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class GameStateFileTest {
+    static class TestOrganism extends Organism {
+        private final MapIcon<?> icon;
+
+        TestOrganism(String name, Map map, Point3D position) {
+            this(name, map, new MapTest.TestIcon(name), position);
+        }
+
+        private TestOrganism(String name, Map map, MapIcon<?> icon, Point3D position) {
+            super(name, map, icon, position, 100, 50, 1, 5);
+            this.icon = icon;
+        }
+
+        @Override
+        public ITemplate getStats() {
+            return lang -> "hp " + getHp();
+        }
+
+        @Override
+        public MapIcon<?> getMapIcon() {
+            return icon;
+        }
+    }
+
+    static class TestItem extends InventoryItem {
+        TestItem(String keyName) {
+            super(keyName);
+        }
+    }
+
+    static final ItemCodec itemCodec = new ItemCodec() {
+        @Override
+        public void write(DataOutput out, InventoryItem item) throws IOException {
+            out.writeUTF(item.getKeyName());
+        }
+
+        @Override
+        public InventoryItem read(DataInput in) throws IOException {
+            return new TestItem(in.readUTF());
+        }
+    };
+
+    static final MapObjectCodec codec = new MapObjectCodec() {
+        @Override
+        public void write(DataOutput out, MapObject mapObj) throws IOException {
+            boolean isOrganism = mapObj instanceof Organism;
+            out.writeBoolean(isOrganism);
+            MapObjectCodec.writeHeader(out, mapObj);
+            if (isOrganism) {
+                ((Organism) mapObj).writeStats(out);
+                ((Organism) mapObj).writeInventory(out, itemCodec);
+            }
+        }
+
+        @Override
+        public MapObject read(DataInput in, Map map) throws IOException {
+            boolean isOrganism = in.readBoolean();
+            var header = MapObjectCodec.readHeader(in);
+            if (!isOrganism) {
+                return header.applyTo(new MapTest.TestObject(header.keyName, null, header.points), map);
+            }
+            var organism = header.applyTo(new TestOrganism(header.keyName, null, header.points[0]), map);
+            organism.readStats(in);
+            organism.readInventory(in, itemCodec);
+            return organism;
+        }
+    };
+
+    @Test
+    public void testSaveLoad() throws IOException {
+        var state = new BaseGameState(new MapTest.TestMap(40, 40, 2));
+        var map = state.getGlobalMap();
+        for (int i = 0; i < 300; i++) {
+            new MapTest.TestObject("o" + i, map, new Point3D(i % 40, i % 37, i % 2));
+        }
+        var large = new MapTest.TestObject("large", map, new Point3D(15, 15, 1), new Point3D(16, 16, 1));
+        large.setWalkable(true);
+        var bottom = map.get(3, 3, 1);
+        var top = new MapTest.TestObject("top", map, new Point3D(3, 3, 1));
+
+        var player = new TestOrganism("player", map, new Point3D(20, 20, 0));
+        player.changeHp(-10);
+        player.getInventory().add(new TestItem("sword"));
+        var ghost = new TestOrganism("ghost", null, new Point3D(1, 1, 0));
+        state.players.add(player);
+        state.players.add(ghost);
+
+        var bytes = new ByteArrayOutputStream();
+        state.save(Channels.newChannel(bytes), codec);
+        var loaded = new BaseGameState(new MapTest.TestMap(40, 40, 2));
+        loaded.load(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())), codec);
+
+        var loadedMap = loaded.getGlobalMap();
+        assertEquals(loadedMap.getStateHash(), map.getStateHash());
+        assertTrue(loadedMap.getDifferentChunks(map).isEmpty());
+        // order of stacked objects is kept
+        assertEquals(loadedMap.get(3, 3, 1).getId(), top.getId());
+        loadedMap.remove(loadedMap.get(3, 3, 1));
+        assertEquals(loadedMap.get(3, 3, 1).getId(), bottom.getId());
+        assertTrue(loadedMap.isWalkable(new Point3D(16, 16, 1)));
+        assertSame(loadedMap.get(15, 15, 1), loadedMap.get(16, 16, 1));
+        assertEquals(loadedMap.get(15, 15, 1).getId(), large.getId());
+
+        var loadedPlayer = loaded.players.get(player.getId());
+        assertSame(loadedMap.get(20, 20, 0), loadedPlayer);
+        assertEquals(loadedPlayer.getHp(), 40);
+        assertEquals(loadedPlayer.getInventory().get(0).getKeyName(), "sword");
+        var loadedGhost = loaded.players.get("ghost");
+        assertEquals(loadedGhost.getId(), ghost.getId());
+        assertNull(loadedGhost.getMap());
+    }
+
+    @Test
+    public void testFileErrors() throws IOException {
+        var file = Files.createTempFile("state", ".bin");
+        try {
+            var map = new MapTest.TestMap(20, 20, 1);
+            new MapTest.TestObject("a", map, new Point3D(1, 1, 0));
+            new BaseGameState(map).save(file, codec);
+
+            var loaded = new MapTest.TestMap(20, 20, 1);
+            new BaseGameState(loaded).load(file, codec);
+            assertEquals(loaded.getStateHash(), map.getStateHash());
+
+            // map of other size
+            assertThrows(IOException.class, () -> new BaseGameState(new MapTest.TestMap(20, 21, 1)).load(file, codec));
+            // truncated file
+            var data = Files.readAllBytes(file);
+            Files.write(file, java.util.Arrays.copyOf(data, data.length - 10));
+            assertThrows(IOException.class, () -> new BaseGameState(new MapTest.TestMap(20, 20, 1)).load(file, codec));
+            // map file is not a game state
+            try (var out = Files.newByteChannel(file, java.nio.file.StandardOpenOption.WRITE,
+                java.nio.file.StandardOpenOption.TRUNCATE_EXISTING)) {
+                MapFile.save(map, out, codec);
+            }
+            assertThrows(IOException.class, () -> new BaseGameState(new MapTest.TestMap(20, 20, 1)).load(file, codec));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
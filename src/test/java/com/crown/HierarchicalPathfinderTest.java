@@ -0,0 +1,184 @@
+package com.crown;
+
+import com.crown.maps.Point3D;
+import com.crown.maps.pathfinding.HierarchicalPathfinder;
+import com.crown.maps.pathfinding.PrimitiveAStarPathfinder;
+import com.crown.maps.pathfinding.heuristics.IAStarHeuristic;
+import com.crown.maps.pathfinding.heuristics.ManhattanHeuristic;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static com.crown.AStarPathfinderTest.assertValidPath;
+import static com.crown.AStarPathfinderTest.caveMap;
+import static com.crown.AStarPathfinderTest.costOf;
+import static com.crown.AStarPathfinderTest.mazeMap;
+import static com.crown.AStarPathfinderTest.randomMap;
+import static com.crown.AStarPathfinderTest.walkablePoint;
+import static com.crown.AStarPathfinderTest.wallMap;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HierarchicalPathfinderTest {
+    @Test
+    public void testPaths() {
+        var maps = new MapTest.TestMap[] {
+            wallMap(),
+            mazeMap(41, 1),
+            caveMap(48, 2),
+            randomMap(40, 3, 25, 4),
+        };
+        var rnd = new Random(7);
+        for (var map : maps) {
+            for (boolean diagonals : new boolean[] {true, false}) {
+                IAStarHeuristic heuristic = diagonals
+                    ? AStarPathfinderTest::diagonalDistance
+                    : ManhattanHeuristic.get();
+                var pathfinder = new PrimitiveAStarPathfinder(map, heuristic, diagonals);
+                var hierarchical = new HierarchicalPathfinder(map, heuristic, diagonals);
+                long optimalCost = 0;
+                long cost = 0;
+                for (int i = 0; i < 60; i++) {
+                    var start = walkablePoint(map, rnd);
+                    var end = i % 5 == 0
+                        ? new Point3D(rnd.nextInt(map.xSize), rnd.nextInt(map.ySize), rnd.nextInt(map.zSize))
+                        : walkablePoint(map, rnd);
+                    var expected = pathfinder.findPath(start, end);
+                    var path = hierarchical.findPath(start, end);
+                    if (expected == null) {
+                        assertNull(path);
+                        continue;
+                    }
+                    assertValidPath(map, path, start, end);
+                    assertTrue(costOf(path) >= costOf(expected));
+                    optimalCost += costOf(expected);
+                    cost += costOf(path);
+                }
+                assertTrue(cost <= optimalCost * 1.2);
+            }
+        }
+    }
+
+    @Test
+    public void testMapChanges() {
+        var map = wallMap();
+        var pathfinder = new HierarchicalPathfinder(map);
+        var start = new Point3D(2, 2, 0);
+        var end = new Point3D(17, 2, 0);
+        var path = pathfinder.findPath(start, end);
+        assertValidPath(map, path, start, end);
+        int nodesCount = pathfinder.getNodesCount();
+
+        // the gap is closed, and another one is opened
+        var gap = new MapTest.TestObject("gap", map, new Point3D(10, 18, 0));
+        assertNull(pathfinder.findPath(start, end));
+        map.remove(map.get(10, 3, 0));
+        path = pathfinder.findPath(start, end);
+        assertValidPath(map, path, start, end);
+        assertTrue(passes(path, 10, 3));
+
+        map.remove(gap);
+        path = pathfinder.findPath(start, end);
+        assertValidPath(map, path, start, end);
+        assertTrue(passes(path, 10, 3) || passes(path, 10, 18));
+
+        // doors are closed and opened in place
+        var door = new MapTest.TestObject("door", map, new Point3D(10, 3, 0));
+        door.setWalkable(true);
+        gap = new MapTest.TestObject("gap", map, new Point3D(10, 18, 0));
+        assertTrue(passes(pathfinder.findPath(start, end), 10, 3));
+        door.setWalkable(false);
+        assertNull(pathfinder.findPath(start, end));
+        door.setWalkable(true);
+        assertTrue(passes(pathfinder.findPath(start, end), 10, 3));
+        // nodes of dropped entrances are reused
+        assertTrue(pathfinder.getNodesCount() <= nodesCount + 4);
+    }
+
+    @Test
+    public void testDiagonalPassage() {
+        // walls along the border of the clusters, with a passage crossing it diagonally only
+        var map = new MapTest.TestMap(32, 16, 1);
+        for (int y = 0; y < 16; y++) {
+            if (y != 5) {
+                new MapTest.TestObject("wall", map, new Point3D(15, y, 0));
+            }
+            if (y != 6) {
+                new MapTest.TestObject("wall", map, new Point3D(16, y, 0));
+            }
+        }
+        var start = new Point3D(2, 5, 0);
+        var end = new Point3D(30, 5, 0);
+        var path = new HierarchicalPathfinder(map).findPath(start, end);
+        assertValidPath(map, path, start, end);
+        assertTrue(passes(path, 15, 5) && passes(path, 16, 6));
+    }
+
+    @Test
+    public void testCornerPassage() {
+        // walls along the borders of four clusters, with a passage crossing their corner only
+        var map = new MapTest.TestMap(32, 32, 1);
+        for (int t = 0; t < 32; t++) {
+            for (int line = 15; line <= 16; line++) {
+                if (t != line) {
+                    new MapTest.TestObject("wall", map, new Point3D(line, t, 0));
+                }
+                if (t != 15 && t != 16) {
+                    new MapTest.TestObject("wall", map, new Point3D(t, line, 0));
+                }
+            }
+        }
+        var pathfinder = new HierarchicalPathfinder(map);
+        var start = new Point3D(2, 3, 0);
+        var end = new Point3D(29, 30, 0);
+        var path = pathfinder.findPath(start, end);
+        assertValidPath(map, path, start, end);
+        assertTrue(passes(path, 15, 15) && passes(path, 16, 16));
+
+        // the goal is unreachable without the corner
+        new MapTest.TestObject("wall", map, new Point3D(16, 16, 0));
+        assertNull(pathfinder.findPath(start, end));
+        assertNull(new PrimitiveAStarPathfinder(map).findPath(start, end));
+    }
+
+    @Test
+    public void testKeepsGraphOnMoves() {
+        var map = new MapTest.TestMap(48, 48, 1);
+        var pathfinder = new HierarchicalPathfinder(map);
+        var rnd = new Random(4);
+        for (int i = 0; i < 20; i++) {
+            pathfinder.findPath(walkablePoint(map, rnd), walkablePoint(map, rnd));
+        }
+        int nodesCount = pathfinder.getNodesCount();
+        var creature = new MapTest.TestObject("creature", map, walkablePoint(map, rnd));
+        creature.setWalkable(true);
+        // queries inside a cluster sync the graph, but do not build it
+        var start = new Point3D(1, 1, 0);
+        var end = new Point3D(1, 2, 0);
+        pathfinder.findPath(start, end);
+        assertEquals(pathfinder.getNodesCount(), nodesCount);
+
+        // walkable objects moving around don't change the graph
+        for (int i = 0; i < 10; i++) {
+            var to = walkablePoint(map, rnd);
+            var pt = creature.getPt0();
+            creature.moveView(Integer.signum(to.x - pt.x), Integer.signum(to.y - pt.y), 0);
+            pathfinder.findPath(start, end);
+            assertEquals(pathfinder.getNodesCount(), nodesCount);
+        }
+        // an obstacle drops entrances of its cluster
+        creature.setWalkable(false);
+        pathfinder.findPath(start, end);
+        assertTrue(pathfinder.getNodesCount() < nodesCount);
+    }
+
+    private static boolean passes(Point3D[] path, int x, int y) {
+        for (var pt : path) {
+            if (pt.x == x && pt.y == y) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,128 @@
+package com.crown;
+
+import com.crown.maps.Point3D;
+import com.crown.maps.pathfinding.IncrementalPathfinder;
+import com.crown.maps.pathfinding.PrimitiveAStarPathfinder;
+import com.crown.maps.pathfinding.heuristics.IAStarHeuristic;
+import com.crown.maps.pathfinding.heuristics.ManhattanHeuristic;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static com.crown.AStarPathfinderTest.assertValidPath;
+import static com.crown.AStarPathfinderTest.caveMap;
+import static com.crown.AStarPathfinderTest.costOf;
+import static com.crown.AStarPathfinderTest.randomMap;
+import static com.crown.AStarPathfinderTest.walkablePoint;
+import static com.crown.AStarPathfinderTest.wallMap;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IncrementalPathfinderTest {
+    @Test
+    public void testMatchesAStar() {
+        // maps fit into search boxes, so paths are the same as unbounded ones
+        var maps = new MapTest.TestMap[] {wallMap(), caveMap(32, 2), randomMap(16, 4, 25, 5)};
+        var rnd = new Random(8);
+        for (var map : maps) {
+            for (boolean diagonals : new boolean[] {true, false}) {
+                IAStarHeuristic heuristic = diagonals
+                    ? AStarPathfinderTest::diagonalDistance
+                    : ManhattanHeuristic.get();
+                var pathfinder = new PrimitiveAStarPathfinder(map, heuristic, diagonals);
+                for (int i = 0; i < 30; i++) {
+                    var start = walkablePoint(map, rnd);
+                    var end = i % 5 == 0
+                        ? new Point3D(rnd.nextInt(map.xSize), rnd.nextInt(map.ySize), rnd.nextInt(map.zSize))
+                        : walkablePoint(map, rnd);
+                    var incremental = new IncrementalPathfinder(map, end, heuristic, diagonals);
+                    var expected = pathfinder.findPath(start, end);
+                    var path = incremental.findPath(start);
+                    if (expected == null) {
+                        assertNull(path);
+                        assertNull(incremental.nextStep(start));
+                        continue;
+                    }
+                    assertValidPath(map, path, start, end);
+                    assertEquals(costOf(path), costOf(expected));
+                    assertEquals(incremental.nextStep(start).pack(), path[Math.max(0, path.length - 2)].pack());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReplanning() {
+        var map = caveMap(48, 2);
+        var rnd = new Random(9);
+        IAStarHeuristic heuristic = AStarPathfinderTest::diagonalDistance;
+        var pathfinder = new PrimitiveAStarPathfinder(map, heuristic, true);
+        int repairs = 0;
+        int restarts = 0;
+        for (int walk = 0; walk < 5; walk++) {
+            var position = walkablePoint(map, rnd);
+            var end = walkablePoint(map, rnd);
+            var incremental = new IncrementalPathfinder(map, end, heuristic, true);
+            for (int step = 0; step < 200 && !position.equals(end); step++) {
+                // obstacles appear on the way
+                if (step % 4 == 1) {
+                    var path = incremental.findPath(position);
+                    if (path != null && path.length > 3) {
+                        new MapTest.TestObject("rock", map, path[path.length / 2]);
+                    }
+                }
+                var next = incremental.nextStep(position);
+                repairs += incremental.getExpandedCount();
+                var fresh = new IncrementalPathfinder(map, end, heuristic, true);
+                fresh.nextStep(position);
+                restarts += fresh.getExpandedCount();
+
+                var expected = pathfinder.findPath(position, end);
+                if (expected == null) {
+                    assertNull(next);
+                    break;
+                }
+                var path = incremental.findPath(position);
+                assertValidPath(map, path, position, end);
+                assertEquals(costOf(path), costOf(expected));
+                assertTrue(Math.abs(next.x - position.x) <= 1 && Math.abs(next.y - position.y) <= 1);
+                position = next;
+            }
+        }
+        assertTrue(repairs * 2 < restarts);
+    }
+
+    @Test
+    public void testDetourAndDoors() {
+        // the only passage is far outside of the initial search box
+        var map = new MapTest.TestMap(80, 80, 1);
+        for (int y = 0; y < 79; y++) {
+            new MapTest.TestObject("wall", map, new Point3D(40, y, 0));
+        }
+        var start = new Point3D(38, 2, 0);
+        var end = new Point3D(42, 2, 0);
+        IAStarHeuristic heuristic = AStarPathfinderTest::diagonalDistance;
+        var incremental = new IncrementalPathfinder(map, end, heuristic, true);
+        var path = incremental.findPath(start, end, -1);
+        assertValidPath(map, path, start, end);
+        var expected = new PrimitiveAStarPathfinder(map, heuristic, true).findPath(start, end);
+        assertEquals(costOf(path), costOf(expected));
+
+        // a door in the wall is opened and closed in place
+        var door = new MapTest.TestObject("door", map, new Point3D(40, 3, 0));
+        assertEquals(incremental.findPath(start).length, path.length);
+        door.setWalkable(true);
+        assertEquals(incremental.findPath(start).length, 5);
+        door.setWalkable(false);
+        assertEquals(incremental.findPath(start).length, path.length);
+
+        // the goal is walled in, then the wall is opened
+        var walled = wallMap();
+        var closed = new MapTest.TestObject("door", walled, new Point3D(10, 18, 0));
+        var pathfinder = new IncrementalPathfinder(walled, new Point3D(17, 2, 0));
+        assertNull(pathfinder.nextStep(new Point3D(2, 2, 0)));
+        closed.setWalkable(true);
+        assertValidPath(walled, pathfinder.findPath(new Point3D(2, 2, 0)), new Point3D(2, 2, 0), new Point3D(17, 2, 0));
+    }
+}
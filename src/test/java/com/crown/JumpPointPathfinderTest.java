@@ -0,0 +1,108 @@
+package com.crown;
+
+import com.crown.maps.Point3D;
+import com.crown.maps.pathfinding.JumpPointPathfinder;
+import com.crown.maps.pathfinding.PrimitiveAStarPathfinder;
+import com.crown.maps.pathfinding.heuristics.IAStarHeuristic;
+import com.crown.maps.pathfinding.heuristics.ManhattanHeuristic;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static com.crown.AStarPathfinderTest.assertValidPath;
+import static com.crown.AStarPathfinderTest.caveMap;
+import static com.crown.AStarPathfinderTest.costOf;
+import static com.crown.AStarPathfinderTest.mazeMap;
+import static com.crown.AStarPathfinderTest.randomMap;
+import static com.crown.AStarPathfinderTest.walkablePoint;
+import static com.crown.AStarPathfinderTest.wallMap;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class JumpPointPathfinderTest {
+    @Test
+    public void testMatchesAStar() {
+        var maps = new MapTest.TestMap[] {
+            wallMap(),
+            mazeMap(41, 1),
+            caveMap(48, 2),
+            randomMap(24, 1, 30, 4),
+            randomMap(16, 6, 25, 5),
+        };
+        var rnd = new Random(6);
+        for (var map : maps) {
+            for (boolean diagonals : new boolean[] {true, false}) {
+                // costs are compared with admissible heuristics only, as octile one
+                // overestimates diagonal steps costing 1.1 and paths are not optimal with it
+                IAStarHeuristic heuristic = diagonals
+                    ? AStarPathfinderTest::diagonalDistance
+                    : ManhattanHeuristic.get();
+                var pathfinder = new PrimitiveAStarPathfinder(map, heuristic, diagonals);
+                var jps = new JumpPointPathfinder(map, heuristic, diagonals);
+                for (int i = 0; i < 60; i++) {
+                    var start = walkablePoint(map, rnd);
+                    // end point may be an obstacle
+                    var end = i % 5 == 0
+                        ? new Point3D(rnd.nextInt(map.xSize), rnd.nextInt(map.ySize), rnd.nextInt(map.zSize))
+                        : walkablePoint(map, rnd);
+                    int radius = i % 3 == 0 ? 8 : -1;
+                    var expected = pathfinder.findPath(start, end, radius);
+                    var path = jps.findPath(start, end, radius);
+                    if (expected == null) {
+                        assertNull(path);
+                        continue;
+                    }
+                    assertValidPath(map, path, start, end);
+                    assertEquals(costOf(path), costOf(expected));
+                    if (!diagonals) {
+                        assertEquals(costOf(path), 10 * (path.length - 1));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMapChanges() {
+        // jump distances of whole map searches are repaired after changes of walkability
+        var maps = new MapTest.TestMap[] {
+            new MapTest.TestMap(40, 40, 1),
+            caveMap(40, 7),
+            randomMap(12, 4, 15, 8),
+            randomMap(16, 3, 25, 10),
+        };
+        var rnd = new Random(9);
+        for (var map : maps) {
+            boolean includeDiagonals = map.zSize != 3;
+            IAStarHeuristic heuristic = includeDiagonals
+                ? AStarPathfinderTest::diagonalDistance
+                : ManhattanHeuristic.get();
+            var pathfinder = new PrimitiveAStarPathfinder(map, heuristic, includeDiagonals);
+            var jps = new JumpPointPathfinder(map, heuristic, includeDiagonals);
+            MapTest.TestObject door = null;
+            for (int i = 0; i < 150; i++) {
+                var pt = new Point3D(rnd.nextInt(map.xSize), rnd.nextInt(map.ySize), rnd.nextInt(map.zSize));
+                var obj = map.get(pt);
+                if (i % 10 == 0 && door != null) {
+                    door.setWalkable(!door.isWalkable());
+                } else if (obj != null && obj != door) {
+                    map.remove(obj);
+                } else if (door == null) {
+                    door = new MapTest.TestObject("door", map, pt);
+                } else {
+                    new MapTest.TestObject("rock", map, pt);
+                }
+                var start = walkablePoint(map, rnd);
+                var end = i % 4 == 0 ? pt : walkablePoint(map, rnd);
+                var expected = pathfinder.findPath(start, end);
+                var path = jps.findPath(start, end);
+                if (expected == null) {
+                    assertNull(path);
+                    continue;
+                }
+                assertValidPath(map, path, start, end);
+                assertEquals(costOf(path), costOf(expected));
+            }
+        }
+    }
+}
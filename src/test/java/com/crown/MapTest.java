@@ -0,0 +1,596 @@
+package com.crown;
+
+import com.crown.maps.FileChunkStore;
+import com.crown.maps.Map;
+import com.crown.maps.MapIcon;
+import com.crown.maps.MapObject;
+import com.crown.maps.MapObjectCodec;
+import com.crown.maps.Point3D;
+import com.crown.tools.Random;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MapTest {
+    public static class TestIcon extends MapIcon<String> {
+        public TestIcon(String keyName) {
+            super(keyName);
+        }
+
+        @Override
+        public String get() {
+            return getKeyName();
+        }
+
+        @Override
+        public void stepAnimation() {
+        }
+    }
+
+    public static class TestMap extends Map {
+        public static final TestIcon emptyIcon = new TestIcon("empty");
+
+        public TestMap(int xSize, int ySize, int zSize) {
+            super("test map", xSize, ySize, zSize);
+        }
+
+        public TestMap(int xSize, int ySize, int zSize, boolean typeIndex) {
+            super("test map", xSize, ySize, zSize, typeIndex);
+        }
+
+        @Override
+        public MapIcon<?> getEmptyIcon() {
+            return emptyIcon;
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+        }
+
+        /**
+         * Returns text of the raw cell at given point.
+         */
+        public String getRawText(Point3D pt) {
+            return getCellObjects(pt).stream()
+                .map(MapObject::toString)
+                .reduce((a, b) -> a + ";\n" + b)
+                .orElse("");
+        }
+    }
+
+    public static class TestObject extends MapObject {
+        private final TestIcon icon;
+
+        public TestObject(String name, Map map, Point3D... points) {
+            this(name, map, new TestIcon(name), points);
+        }
+
+        private TestObject(String name, Map map, TestIcon icon, Point3D[] points) {
+            super(name, map, icon, points);
+            this.icon = icon;
+        }
+
+        @Override
+        public MapIcon<?> getMapIcon() {
+            return icon;
+        }
+
+        @Override
+        public String toString() {
+            // names are not localized in tests
+            return getKeyName();
+        }
+    }
+
+    @Test
+    public void testAddGet() {
+        var map = new TestMap(100, 100, 4);
+        var a = new TestObject("a", map, new Point3D(1, 2, 3));
+        var b = new TestObject("b", map, new Point3D(1, 2, 3));
+
+        assertEquals(map.get(1, 2, 3), b);
+        assertNull(map.get(1, 2, 2));
+        assertNull(map.get(-1, 2, 3));
+
+        map.remove(b);
+        assertEquals(map.get(1, 2, 3), a);
+
+        var c = new TestObject("c", map, new Point3D(1, 2, 3));
+        new TestObject("d", map, new Point3D(1, 2, 3));
+        map.remove(a);
+        map.remove(c);
+        assertEquals(map.get(1, 2, 3).getKeyName(), "d");
+
+        // raw cells list objects from the bottom, empty cells are not null
+        new TestObject("e", map, new Point3D(1, 2, 3));
+        assertEquals(map.getRawText(new Point3D(1, 2, 3)), "d;\ne");
+        new TestObject("f", map, new Point3D(1, 2, 2));
+        assertEquals(map.getRawText(new Point3D(1, 2, 2)), "f");
+        assertEquals(map.getRawText(new Point3D(1, 2, 1)), "");
+        assertEquals(map.getRawText(new Point3D(-1, 2, 3)), "");
+    }
+
+    @Test
+    public void testMove() {
+        var map = new TestMap(100, 100, 4);
+        var a = new TestObject("a", map, new Point3D(15, 15, 0), new Point3D(16, 15, 0));
+
+        a.moveView(1, 1, 1);
+
+        assertNull(map.get(15, 15, 0));
+        assertNull(map.get(16, 15, 0));
+        assertEquals(map.get(16, 16, 1), a);
+        assertEquals(map.get(17, 16, 1), a);
+    }
+
+    @Test
+    public void testMoveFootprint() {
+        var map = new TestMap(100, 100, 2);
+        var a = new TestObject("a", map,
+            new Point3D(10, 10, 0), new Point3D(11, 10, 0), new Point3D(12, 10, 0)
+        );
+        var b = new TestObject("b", map, new Point3D(11, 10, 0));
+        assertEquals(a.getWidth(), 3);
+        assertEquals(a.getHeight(), 1);
+        long version = map.getVersion();
+
+        a.moveView(1, 0, 0);
+
+        var changes = new ArrayList<String>();
+        map.forEachChange(version, 0, 0, 99, 99,
+            (v, x, y, z, obj, added) -> changes.add((added ? "+" : "-") + x + "," + y)
+        );
+        assertEquals(changes, List.of("-10,10", "+13,10"));
+        assertNull(map.get(10, 10, 0));
+        assertEquals(map.get(13, 10, 0), a);
+        // object keeps its place in the stack of an overlapped cell
+        assertEquals(map.get(11, 10, 0), b);
+        assertEquals(a.getMinPoint(), new Point3D(11, 10, 0));
+        assertEquals(a.getMaxPoint(), new Point3D(13, 10, 0));
+
+        a.moveView(0, 5, 0);
+        assertEquals(a.getWidth(), 3);
+        assertEquals(a.getLastPt0(), new Point3D(11, 10, 0));
+        assertEquals(map.get(11, 15, 0), a);
+        assertEquals(map.get(11, 10, 0), b);
+    }
+
+    @Test
+    public void testChunksAllocation() {
+        var map = new TestMap(2048, 2048, 16);
+        assertEquals(map.getAllocatedChunksCount(), 0);
+
+        var a = new TestObject("a", map, new Point3D(0, 0, 0));
+        var b = new TestObject("b", map, new Point3D(2000, 2000, 15));
+        assertEquals(map.getAllocatedChunksCount(), 2);
+
+        map.remove(a);
+        assertEquals(map.getAllocatedChunksCount(), 1);
+
+        map.clear();
+        assertEquals(map.getAllocatedChunksCount(), 0);
+        assertNull(map.get(b.getPt0()));
+    }
+
+    @Test
+    public void testCellIndex() {
+        var map = new TestMap(100, 50, 3);
+        var a = new TestObject("a", map, new Point3D(37, 49, 2));
+
+        int index = map.indexOf(37, 49, 2);
+        assertEquals(map.get(index), a);
+        assertEquals(map.xOf(index), 37);
+        assertEquals(map.yOf(index), 49);
+        assertEquals(map.zOf(index), 2);
+
+        assertNull(map.get(map.indexOf(36, 49, 2)));
+        assertEquals(map.indexOf(100, 0, 0), -1);
+        assertNull(map.get(-1));
+    }
+
+    @Test
+    public void testFlags() {
+        var map = new TestMap(100, 50, 3);
+        var a = new TestObject("a", map, new Point3D(70, 10, 1));
+        var pt = a.getPt0();
+
+        assertFalse(map.isWalkable(pt));
+        assertFalse(map.isTransparent(pt));
+        assertEquals(map.getWalkableRow(10, 1)[1], ~(1L << 6) & (1L << 36) - 1);
+
+        a.setWalkable(true);
+        assertTrue(map.isWalkable(pt));
+        assertFalse(map.isTransparent(pt));
+
+        var b = new TestObject("b", map, new Point3D(70, 10, 1));
+        b.setTransparent(true);
+        assertFalse(map.isWalkable(pt));
+        assertTrue(map.isTransparent(pt));
+
+        map.remove(b);
+        assertTrue(map.isWalkable(pt));
+        assertFalse(map.isTransparent(pt));
+
+        map.remove(a);
+        assertTrue(map.isTransparent(pt));
+        assertEquals(map.getTransparentRow(10, 1)[0], -1L);
+    }
+
+    @Test
+    public void testTopmost() {
+        var map = new TestMap(40, 40, 70);
+        var a = new TestObject("a", map, new Point3D(20, 20, 1));
+        var b = new TestObject("b", map, new Point3D(20, 20, 66));
+
+        assertNull(map.getTopmost(new Point3D(20, 20, 0)));
+        assertEquals(map.getTopmost(new Point3D(20, 20, 65)), a);
+        assertEquals(map.getTopmost(new Point3D(20, 20, 100)), b);
+
+        var area = map.getRaw2DArea(new Point3D(21, 21, 5), 1);
+        assertEquals(area[0][0], a);
+        assertNull(area[1][1]);
+
+        map.remove(a);
+        assertNull(map.getTopmost(new Point3D(20, 20, 65)));
+    }
+
+    @Test
+    public void testAreaBuffers() {
+        var map = new TestMap(40, 40, 4);
+        var a = new TestObject("a", map, new Point3D(0, 0, 1));
+        var center = new Point3D(1, 1, 2);
+
+        var icons = new MapIcon<?>[3][3];
+        map.get2DArea(center, 1, icons);
+        assertEquals(icons[0][0], a.getMapIcon());
+        assertEquals(icons[1][1], TestMap.emptyIcon);
+        assertEquals(map.get2DArea(center, 1)[0][0], a.getMapIcon());
+
+        var area = map.getRaw3DArea(center, 1);
+        assertEquals(area.length, 3);
+        assertEquals(area[1][0][0], a);
+        assertNull(area[2][0][0]);
+        assertEquals(map.getColumn(a.getPt0().withZ(3))[1], a);
+
+        int[] visited = new int[1];
+        map.forEachInArea(center, 1, 10, (x, y, z, obj) -> visited[0]++);
+        assertEquals(visited[0], 3 * 3 * 4);
+    }
+
+    public static class TestCreature extends TestObject {
+        public TestCreature(String name, Map map, Point3D... points) {
+            super(name, map, points);
+        }
+    }
+
+    @Test
+    public void testGetAll() {
+        for (var typeIndex : new boolean[] { true, false }) {
+            var map = new TestMap(100, 100, 4, typeIndex);
+            var wall = new TestObject("wall", map, new Point3D(10, 10, 0));
+            var a = new TestCreature("a", map, new Point3D(14, 10, 0));
+            var b = new TestCreature("b", map, new Point3D(9, 9, 0));
+            var c = new TestCreature("c", map, new Point3D(10, 10, 2));
+            var hidden = new TestCreature("hidden", map, new Point3D(14, 10, 1));
+            new TestObject("cover", map, new Point3D(14, 10, 3));
+            var far = new TestCreature("far", map, new Point3D(50, 50, 0));
+
+            var visible = map.getAll(TestCreature.class, new Point3D(10, 10, 2), 5);
+            assertEquals(visible, List.of(b, c, hidden));
+
+            var all = map.getAll3D(TestCreature.class, new Point3D(10, 10, 2), 5);
+            assertEquals(new HashSet<>(all), Set.of(a, b, c, hidden));
+            assertEquals(map.getAll3D(TestObject.class, new Point3D(10, 10, 0), 0), List.of(wall));
+
+            far.moveView(-39, -40, 0);
+            assertEquals(map.getAll(TestCreature.class, new Point3D(10, 10, 0), 1), List.of(b, far));
+            map.remove(b);
+            assertEquals(map.getAll(TestCreature.class, new Point3D(10, 10, 0), 1), List.of(far));
+        }
+    }
+
+    @Test
+    public void testJournal() {
+        var map = new TestMap(100, 100, 2);
+        var a = new TestObject("a", map, new Point3D(1, 1, 0));
+        long version = map.getVersion();
+
+        a.moveView(40, 0, 0);
+        new TestObject("b", map, new Point3D(90, 90, 1));
+
+        var changes = new ArrayList<String>();
+        assertTrue(map.forEachChange(version, 0, 0, 50, 50,
+            (v, x, y, z, obj, added) -> changes.add((added ? "+" : "-") + x + "," + y)
+        ));
+        assertEquals(changes, List.of("-1,1", "+41,1"));
+        assertTrue(map.isChanged(version, 80, 80, 99, 99));
+        assertFalse(map.isChanged(version, 0, 20, 99, 60));
+        assertEquals(map.getChangedChunks(version).cardinality(), 3);
+
+        map.setJournalCapacity(1);
+        assertFalse(map.forEachChange(version, 0, 0, 50, 50, (v, x, y, z, obj, added) -> { }));
+        assertTrue(map.forEachChange(map.getVersion(), 0, 0, 50, 50, (v, x, y, z, obj, added) -> { }));
+    }
+
+    @Test
+    public void testBulk() {
+        var pool = new ForkJoinPool(4);
+        for (var parallel : new boolean[] { false, true }) {
+            var map = new TestMap(100, 100, 2);
+            var objects = new ArrayList<TestObject>();
+            for (int i = 0; i < 1000; i++) {
+                objects.add(new TestObject("o" + i, null, new Point3D(i % 100, i / 10, i % 2)));
+            }
+            var large = new TestObject("large", null, new Point3D(15, 0, 1), new Point3D(16, 0, 1));
+            objects.add(large);
+            map.addAll(objects, parallel ? pool : null);
+
+            assertEquals(large.getMap(), map);
+            assertEquals(map.get(15, 0, 1), large);
+            assertEquals(map.get(16, 0, 1), large);
+            assertEquals(map.get(1, 0, 1), objects.get(1));
+            assertEquals(map.getAll3D(TestObject.class, new Point3D(50, 50, 0), 100).size(), 1001);
+
+            map.clear(0, 0, 15, 0);
+            assertNull(map.get(16, 0, 1));
+            assertEquals(map.get(16, 1, 0), objects.get(16));
+
+            map.removeAll(objects, parallel ? pool : null);
+            assertEquals(map.getAllocatedChunksCount(), 0);
+
+            // objects constructed with the map are placed once
+            var placed = new ArrayList<TestObject>();
+            for (int i = 0; i < 100; i++) {
+                placed.add(new TestObject("p" + i, map, new Point3D(i, i / 2, 0)));
+            }
+            var removed = placed.get(7);
+            map.remove(removed);
+            map.addAll(placed, parallel ? pool : null);
+            assertEquals(map.getAll3D(TestObject.class, new Point3D(50, 50, 0), 100).size(), 100);
+            assertEquals(map.get(7, 3, 0), removed);
+            map.removeAll(placed, parallel ? pool : null);
+            assertEquals(map.getAllocatedChunksCount(), 0);
+        }
+    }
+
+    @Test
+    public void testRemoveAllMissing() {
+        var pool = new ForkJoinPool(2);
+        for (var parallel : new boolean[] { false, true }) {
+            var map = new TestMap(40, 40, 2, true);
+            var stays = new TestObject("stays", map, new Point3D(5, 5, 0));
+            var gone = new TestObject("gone", map, new Point3D(6, 5, 0));
+
+            // object is not in the cell of its point, so it is not removed from the map
+            var pt = stays.getPoints()[0];
+            pt.x = 7;
+            map.removeAll(List.of(stays, gone), parallel ? pool : null);
+            pt.x = 5;
+            assertEquals(map.get(5, 5, 0), stays);
+            assertNull(map.get(6, 5, 0));
+            assertEquals(map.getAll(TestObject.class, new Point3D(5, 5, 0), 2), List.of(stays));
+        }
+    }
+
+    @Test
+    public void testSnapshot() {
+        var map = new TestMap(100, 100, 2);
+        var a = new TestObject("a", map, new Point3D(1, 1, 0));
+        var b = new TestObject("b", map, new Point3D(50, 50, 1));
+
+        var snapshot = map.snapshot();
+        map.remove(a);
+        var c = new TestObject("c", snapshot, new Point3D(50, 50, 1));
+        assertNull(map.get(1, 1, 0));
+        assertEquals(snapshot.get(1, 1, 0), a);
+        assertEquals(map.get(50, 50, 1), b);
+        assertEquals(snapshot.get(50, 50, 1), c);
+
+        var a2 = new TestObject("a", null, new Point3D(1, 1, 0));
+        var b2 = new TestObject("b", null, new Point3D(50, 50, 1));
+        var copies = new java.util.HashMap<MapObject, MapObject>();
+        copies.put(a, a2);
+        copies.put(b, b2);
+        var remapped = snapshot.snapshot(mapObj -> copies.getOrDefault(mapObj, mapObj));
+        assertSame(remapped.get(1, 1, 0), a2);
+        assertSame(snapshot.get(1, 1, 0), a);
+        assertEquals(remapped.get(50, 50, 1), c);
+        assertEquals(remapped.getAll(TestObject.class, new Point3D(50, 50, 1), 1), List.of(c));
+
+        remapped = map.snapshot(mapObj -> copies.getOrDefault(mapObj, mapObj));
+        assertSame(remapped.get(50, 50, 1), b2);
+        assertSame(remapped.getAll(TestObject.class, new Point3D(50, 50, 1), 1).get(0), b2);
+        assertEquals(map.get(50, 50, 1), b);
+    }
+
+    @Test
+    public void testStateHash() {
+        var pool = new ForkJoinPool(2);
+        var map = new TestMap(40, 40, 2);
+        var other = new TestMap(40, 40, 2);
+        assertEquals(map.getStateHash(), 0L);
+
+        var objects = new ArrayList<TestObject>();
+        for (int i = 0; i < 100; i++) {
+            objects.add(new TestObject("o" + i, null, new Point3D(i % 40, i / 3, i % 2)));
+        }
+        var large = new TestObject("large", null, new Point3D(15, 30, 1), new Point3D(16, 30, 1));
+        objects.add(large);
+        map.addAll(objects);
+        var hash = map.getStateHash();
+
+        // same objects in the other order give the same hash
+        for (int i = objects.size() - 1; i >= 0; i--) {
+            other.add(objects.get(i));
+        }
+        assertEquals(other.getStateHash(), hash);
+        assertEquals(map.snapshot().getStateHash(), hash);
+
+        large.moveView(1, 0, 0);
+        assertFalse(map.getStateHash() == hash);
+        var different = map.getDifferentChunks(other);
+        assertEquals(different.cardinality(), 2);
+        assertTrue(different.get(1 * 3 + 0));
+        assertTrue(different.get(1 * 3 + 1));
+        large.moveView(-1, 0, 0);
+        assertEquals(map.getStateHash(), hash);
+        assertTrue(map.getDifferentChunks(other).isEmpty());
+
+        map.removeAll(objects);
+        assertEquals(map.getStateHash(), 0L);
+        assertEquals(map.getChunkHash(0, 0), 0L);
+
+        var parallel = new TestMap(40, 40, 2);
+        parallel.addAll(objects, pool);
+        assertEquals(parallel.getStateHash(), hash);
+    }
+
+    @Test
+    public void testStateHashAfterNewId() {
+        var map = new TestMap(40, 40, 2);
+        var rock = new TestObject("rock", map, new Point3D(3, 3, 0));
+        var hash = map.getStateHash();
+        var chunkHash = map.getChunkHash(1, 1);
+
+        var obj = new TestObject("obj", map, new Point3D(20, 20, 0));
+        obj.newId();
+        map.remove(obj);
+        assertEquals(map.getStateHash(), hash);
+        assertEquals(map.getChunkHash(1, 1), chunkHash);
+
+        // hash of a placed object is the hash of its current id
+        map.add(obj);
+        var other = new TestMap(40, 40, 2);
+        other.add(rock);
+        other.add(obj);
+        assertEquals(map.getStateHash(), other.getStateHash());
+        obj.setId(rock.getId());
+        map.remove(obj);
+        assertEquals(map.getStateHash(), hash);
+    }
+
+    @Test
+    public void testFreePoints() {
+        var map = new TestMap(20, 20, 2);
+        var rnd = new java.util.Random(1);
+        assertEquals(map.getFreeCellsCount(), 800);
+
+        // walls everywhere, except of 2x2 hole and a single cell
+        var walls = new ArrayList<TestObject>();
+        for (int z = 0; z < 2; z++) {
+            for (int y = 0; y < 20; y++) {
+                for (int x = 0; x < 20; x++) {
+                    if (z == 1 && (x == 18 || x == 19) && (y == 18 || y == 19) || x == 5 && y == 7 && z == 0) {
+                        continue;
+                    }
+                    walls.add(new TestObject("wall", null, new Point3D(x, y, z)));
+                }
+            }
+        }
+        map.addAll(walls);
+        var grass = new TestObject("grass", map, new Point3D(5, 7, 0));
+        grass.setWalkable(true);
+        assertEquals(map.getFreeCellsCount(), 5);
+
+        var seen = new HashSet<Point3D>();
+        for (int i = 0; i < 200; i++) {
+            var pt = map.getRandomFreePoint(rnd);
+            assertTrue(map.isWalkable(pt));
+            seen.add(pt);
+        }
+        assertEquals(seen.size(), 5);
+        assertEquals(map.getRandomFreePoint(rnd, 2, 2), new Point3D(18, 18, 1));
+        assertNull(map.getRandomFreePoint(rnd, 3, 1));
+
+        var snapshot = map.snapshot();
+        grass.setWalkable(false);
+        map.clear(18, 18, 19, 19);
+        assertEquals(map.getFreeCellsCount(), 8);
+        assertEquals(snapshot.getFreeCellsCount(), 5);
+        map.removeAll(walls);
+        assertEquals(map.getFreeCellsCount(), 799);
+        map.clear();
+        assertEquals(map.getFreeCellsCount(), 800);
+    }
+
+    @Test
+    public void testStreaming() throws IOException {
+        var dir = Files.createTempDirectory("crown");
+        var codec = new MapObjectCodec() {
+            @Override
+            public void write(DataOutput out, MapObject mapObj) throws IOException {
+                out.writeUTF(mapObj.getKeyName());
+                out.writeInt(mapObj.getPoints().length);
+                for (var pt : mapObj.getPoints()) {
+                    out.writeInt(pt.x);
+                    out.writeInt(pt.y);
+                    out.writeInt(pt.z);
+                }
+            }
+
+            @Override
+            public MapObject read(DataInput in, Map map) throws IOException {
+                var name = in.readUTF();
+                var points = new Point3D[in.readInt()];
+                for (int i = 0; i < points.length; i++) {
+                    points[i] = new Point3D(in.readInt(), in.readInt(), in.readInt());
+                }
+                return new TestObject(name, map, points);
+            }
+        };
+        try {
+            var generated = new ArrayList<Integer>();
+            var map = new TestMap(256, 256, 1);
+            map.enableStreaming((m, chunkX, chunkY) -> {
+                generated.add(chunkY * 16 + chunkX);
+                new TestObject("tree", m, new Point3D(chunkX * Map.CHUNK_SIZE, chunkY * Map.CHUNK_SIZE, 0));
+            }, new FileChunkStore(dir, codec), 8);
+
+            long version = map.getVersion();
+            var tree = map.get(0, 0, 0);
+            assertEquals(tree.getKeyName(), "tree");
+            assertEquals(generated, List.of(0));
+            assertEquals(map.getVersion(), version);
+
+            map.remove(tree);
+            new TestObject("rock", map, new Point3D(3, 3, 0));
+            var player = new TestObject("player", map, new Point3D(40, 40, 0));
+            map.watch(player);
+
+            for (int x = 0; x < 256; x += Map.CHUNK_SIZE) {
+                assertEquals(map.get(x, 96, 0).getKeyName(), "tree");
+            }
+            assertTrue(map.getLoadedChunksCount() <= 8);
+            assertNull(map.get(0, 0, 0));
+            assertEquals(map.get(3, 3, 0).getKeyName(), "rock");
+            assertEquals(generated.stream().filter(n -> n == 0).count(), 1L);
+            assertSame(map.get(40, 40, 0), player);
+
+            map.move(player);
+            assertTrue(Random.getFreePoint(map) != null);
+        } finally {
+            try (var files = Files.list(dir)) {
+                for (var file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.crown;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures throughput of creatures moved concurrently on a concurrent map.
+ * Not a test, run it manually: args are threads count and seconds to run.
+ */
+public class MapThroughputBenchmark {
+    public static void main(String[] args) throws InterruptedException {
+        int threadsCount = args.length > 0 ? Integer.parseInt(args[0]) : ConcurrentMapTest.THREADS;
+        long millis = (args.length > 1 ? Integer.parseInt(args[1]) : 5) * 1000L;
+
+        var map = new MapTest.TestMap(512, 512, 4);
+        map.enableConcurrency();
+        var groups = ConcurrentMapTest.populate(map, 2000);
+
+        var moves = new AtomicLong();
+        var start = new CountDownLatch(1);
+        var threads = new ArrayList<Thread>();
+        for (int t = 0; t < threadsCount; t++) {
+            var group = groups.get(t % groups.size());
+            threads.add(new Thread(() -> {
+                var random = ThreadLocalRandom.current();
+                long count = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long deadline = System.currentTimeMillis() + millis;
+                while (System.currentTimeMillis() < deadline) {
+                    for (int i = 0; i < 1000; i++) {
+                        ConcurrentMapTest.step(map, group.get(random.nextInt(group.size())), random);
+                    }
+                    count += 1000;
+                }
+                moves.addAndGet(count);
+            }));
+        }
+        for (var thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (var thread : threads) {
+            thread.join();
+        }
+        System.out.printf(
+            "%d threads, %d cores: %.0f moves/s%n",
+            threadsCount,
+            Runtime.getRuntime().availableProcessors(),
+            moves.get() * 1000.0 / millis
+        );
+    }
+}
@@ -0,0 +1,58 @@
+package com.crown;
+
+import com.crown.MapTest.TestMap;
+import com.crown.MapTest.TestObject;
+import com.crown.common.IntIdRegistry;
+import com.crown.maps.MapIcon;
+import com.crown.maps.MapObject;
+import com.crown.maps.MappedMapLayer;
+import com.crown.maps.Point3D;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MappedMapLayerTest {
+    @Test
+    public void testReopen() throws IOException {
+        var file = Files.createTempFile("crown", ".layer");
+        try {
+            var map = new TestMap(100, 80, 2);
+            var wall = new TestObject("wall", map, new Point3D(70, 3, 1));
+            var glass = new TestObject("glass", map, new Point3D(5, 6, 0));
+            glass.setTransparent(true);
+
+            var objects = new IntIdRegistry<MapObject>();
+            var icons = new IntIdRegistry<MapIcon<?>>();
+            try (var layer = MappedMapLayer.create(file, 100, 80, 2, objects, icons)) {
+                layer.copyFrom(map);
+                assertEquals(layer.get(70, 3, 1), wall);
+                assertEquals(layer.getIcon(5, 6, 0), glass.getMapIcon());
+                assertNull(layer.get(70, 3, 0));
+            }
+
+            try (var layer = MappedMapLayer.open(file, objects, icons)) {
+                assertEquals(layer.xSize, 100);
+                assertFalse(layer.isWalkable(wall.getPt0()));
+                assertFalse(layer.isTransparent(wall.getPt0()));
+                assertFalse(layer.isWalkable(glass.getPt0()));
+                assertTrue(layer.isTransparent(glass.getPt0()));
+                assertTrue(layer.isWalkable(new Point3D(0, 0, 0)));
+                assertEquals(layer.getWalkableRow(3, 1)[1], ~(1L << 6) & (1L << 36) - 1);
+
+                wall.setWalkable(true);
+                layer.update(wall);
+                assertTrue(layer.isWalkable(wall.getPt0()));
+                layer.set(70, 3, 1, null);
+                assertNull(layer.get(70, 3, 1));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.crown;
+
+import com.crown.maps.PackedPoint;
+import com.crown.maps.Point3D;
+import com.crown.maps.pathfinding.heuristics.EuclideanHeuristic;
+import com.crown.maps.pathfinding.heuristics.OctileHeuristic;
+import com.crown.maps.vision.los.BresenhamLine;
+import com.crown.maps.vision.los.BresenhamLos;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PackedPointTest {
+    @Test
+    public void testPackUnpack() {
+        var pt = new Point3D(-5, 12, PackedPoint.MAX_VALUE);
+        long packed = pt.pack();
+        assertEquals(PackedPoint.x(packed), -5);
+        assertEquals(PackedPoint.y(packed), 12);
+        assertEquals(PackedPoint.z(packed), PackedPoint.MAX_VALUE);
+        assertEquals(PackedPoint.unpack(packed), pt);
+
+        long min = PackedPoint.pack(PackedPoint.MIN_VALUE, PackedPoint.MIN_VALUE, -1);
+        assertEquals(PackedPoint.unpack(min), new Point3D(PackedPoint.MIN_VALUE, PackedPoint.MIN_VALUE, -1));
+        assertEquals(PackedPoint.pack(0, 0, 0), PackedPoint.ZERO);
+    }
+
+    @Test
+    public void testArithmetic() {
+        var a = new Point3D(3, -4, 1);
+        var b = new Point3D(-7, 2, 1);
+        assertEquals(PackedPoint.unpack(PackedPoint.plus(a.pack(), b.pack())), a.plus(b));
+        assertEquals(PackedPoint.unpack(PackedPoint.minus(a.pack(), b.pack())), a.minus(b));
+        assertEquals(PackedPoint.unpack(PackedPoint.abs(b.pack())), b.abs());
+        assertEquals(PackedPoint.unpack(PackedPoint.signum(b.minus(a).pack())), b.minus(a).signum());
+        assertEquals(PackedPoint.unpack(PackedPoint.positiveSign(b.pack())), b.positiveSign());
+        assertEquals(PackedPoint.unpack(PackedPoint.plus(a.pack(), 1, 1, -1)), a.plus(1, 1, -1));
+        assertEquals(PackedPoint.unpack(PackedPoint.min(a.pack(), b.pack())), Point3D.min(a, b));
+        assertEquals(PackedPoint.unpack(PackedPoint.max(a.pack(), b.pack())), Point3D.max(a, b));
+        assertEquals(
+            EuclideanHeuristic.get().apply(a.pack(), b.pack()),
+            EuclideanHeuristic.get().apply(a, b)
+        );
+        assertEquals(
+            OctileHeuristic.get().apply(a.pack(), b.pack()),
+            OctileHeuristic.get().apply(a, b)
+        );
+    }
+
+    @Test
+    public void testLine() {
+        var start = new Point3D(1, 1, 0);
+        var end = new Point3D(9, 4, 2);
+        var points = new ArrayList<Point3D>();
+        assertTrue(BresenhamLine.forEach(start.pack(), end.pack(), pt -> points.add(PackedPoint.unpack(pt))));
+        assertArrayEquals(points.toArray(), BresenhamLine.getFor(start, end));
+        assertFalse(BresenhamLine.forEach(start.pack(), end.pack(), pt -> false));
+
+        var map = new MapTest.TestMap(20, 20, 3);
+        assertTrue(BresenhamLos.regular.exists(map, start.pack(), end.pack()));
+        var wall = new MapTest.TestObject("wall", map, points.get(3));
+        wall.setTransparent(false);
+        assertEquals(
+            BresenhamLos.regular.exists(map, start.pack(), end.pack()),
+            BresenhamLos.regular.exists(map, start, end).getLeft()
+        );
+        assertFalse(BresenhamLos.regular.exists(map, start.pack(), end.pack()));
+        assertEquals(
+            BresenhamLos.symmetric.exists(map, start.pack(), end.pack()),
+            BresenhamLos.symmetric.exists(map, start, end).getLeft()
+        );
+    }
+}
@@ -0,0 +1,159 @@
+package com.crown;
+
+import com.crown.maps.Point3D;
+import com.crown.maps.pathfinding.PathCache;
+import com.crown.maps.pathfinding.PrimitiveAStarPathfinder;
+import com.crown.maps.pathfinding.heuristics.IAStarHeuristic;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static com.crown.AStarPathfinderTest.assertValidPath;
+import static com.crown.AStarPathfinderTest.costOf;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PathCacheTest {
+    @Test
+    public void testHitsAndEvictions() {
+        var map = AStarPathfinderTest.wallMap();
+        var pathfinder = new PrimitiveAStarPathfinder(map);
+        var cache = new PathCache(map, 2);
+        var start = new Point3D(2, 2, 0);
+        var end = new Point3D(17, 2, 0);
+
+        var path = cache.findPath(pathfinder, start, end, -1);
+        assertValidPath(map, path, start, end);
+        // returned paths are copies
+        path[0].x = 0;
+        var cached = cache.findPath(pathfinder, start, end, -1);
+        assertValidPath(map, cached, start, end);
+        assertEquals(cache.getHits(), 1L);
+        assertEquals(cache.getMisses(), 1L);
+
+        // radius and diagonals are parts of the key
+        assertNull(cache.findPath(pathfinder, start, end, 12));
+        assertNull(cache.findPath(pathfinder, start, end, 12));
+        var straight = new PrimitiveAStarPathfinder(
+            map,
+            com.crown.maps.pathfinding.heuristics.ManhattanHeuristic.get(),
+            false
+        );
+        cache.findPath(straight, start, end, -1);
+        assertEquals(cache.getHits(), 2L);
+        assertEquals(cache.getMisses(), 3L);
+        assertEquals(cache.getEvictions(), 1L);
+        assertEquals(cache.size(), 2);
+
+        // the least recently used path is evicted
+        cache.findPath(pathfinder, start, end, -1);
+        assertEquals(cache.getMisses(), 4L);
+        cache.clear();
+        assertEquals(cache.size(), 0);
+    }
+
+    @Test
+    public void testInvalidation() {
+        var map = AStarPathfinderTest.wallMap();
+        var pathfinder = new PrimitiveAStarPathfinder(map);
+        var cache = new PathCache(map, 16);
+        var start = new Point3D(2, 2, 0);
+        var end = new Point3D(17, 2, 0);
+        var path = cache.findPath(pathfinder, start, end, -1);
+
+        // obstacle off the path does not affect it
+        var rock = new MapTest.TestObject("rock", map, new Point3D(0, 19, 0));
+        assertEquals(cache.findPath(pathfinder, start, end, -1).length, path.length);
+        assertEquals(cache.getHits(), 1L);
+        // neither does a freed cell too far to give a shorter path
+        map.remove(rock);
+        cache.findPath(pathfinder, start, end, -1);
+        assertEquals(cache.getHits(), 2L);
+
+        // the gap is closed
+        var gap = new MapTest.TestObject("gap", map, new Point3D(10, 18, 0));
+        assertNull(cache.findPath(pathfinder, start, end, -1));
+        assertEquals(cache.getInvalidations(), 1L);
+        assertNull(cache.findPath(pathfinder, start, end, -1));
+        assertEquals(cache.getHits(), 3L);
+
+        // any freed cell may give a missing path
+        map.remove(map.get(10, 3, 0));
+        path = cache.findPath(pathfinder, start, end, -1);
+        assertValidPath(map, path, start, end);
+        assertEquals(cache.getInvalidations(), 2L);
+
+        // the freed cell is closer than the path cost
+        map.remove(gap);
+        map.remove(map.get(10, 2, 0));
+        path = cache.findPath(pathfinder, start, end, -1);
+        assertEquals(path.length, 16);
+        assertEquals(cache.getInvalidations(), 3L);
+    }
+
+    @Test
+    public void testWalkabilityFlags() {
+        var map = AStarPathfinderTest.wallMap();
+        var pathfinder = new PrimitiveAStarPathfinder(map);
+        var cache = new PathCache(map, 16);
+        var start = new Point3D(2, 2, 0);
+        var end = new Point3D(17, 2, 0);
+
+        // the gap is an open door
+        var door = new MapTest.TestObject("door", map, new Point3D(10, 18, 0));
+        door.setWalkable(true);
+        assertValidPath(map, cache.findPath(pathfinder, start, end, -1), start, end);
+        assertValidPath(map, cache.findPath(pathfinder, start, end, -1), start, end);
+        assertEquals(cache.getHits(), 1L);
+
+        // the door is closed in place
+        door.setWalkable(false);
+        assertNull(cache.findPath(pathfinder, start, end, -1));
+        assertEquals(cache.getInvalidations(), 1L);
+        door.setWalkable(true);
+        assertValidPath(map, cache.findPath(pathfinder, start, end, -1), start, end);
+        assertEquals(cache.getInvalidations(), 2L);
+    }
+
+    @Test
+    public void testMatchesPathfinder() {
+        var map = AStarPathfinderTest.caveMap(48, 2);
+        // costs are compared with admissible heuristic only, see AStarPathfinderTest
+        IAStarHeuristic heuristic = AStarPathfinderTest::diagonalDistance;
+        var pathfinder = new PrimitiveAStarPathfinder(map, heuristic, true);
+        var cache = new PathCache(map, 8);
+        var rnd = new Random(10);
+        var starts = new Point3D[12];
+        var ends = new Point3D[12];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = AStarPathfinderTest.walkablePoint(map, rnd);
+            ends[i] = AStarPathfinderTest.walkablePoint(map, rnd);
+        }
+        for (int i = 0; i < 600; i++) {
+            if (i % 3 == 0) {
+                // cells are blocked and freed
+                var pt = new Point3D(rnd.nextInt(map.xSize), rnd.nextInt(map.ySize), 0);
+                var obj = map.get(pt);
+                if (obj != null) {
+                    map.remove(obj);
+                } else {
+                    new MapTest.TestObject("rock", map, pt);
+                }
+            }
+            int j = rnd.nextInt(starts.length);
+            int radius = j % 4 == 0 ? 10 : -1;
+            var expected = pathfinder.findPath(starts[j], ends[j], radius);
+            var path = cache.findPath(pathfinder, starts[j], ends[j], radius);
+            if (expected == null) {
+                assertNull(path);
+                continue;
+            }
+            assertValidPath(map, path, starts[j], ends[j]);
+            assertEquals(costOf(path), costOf(expected));
+        }
+        assertTrue(cache.getHits() > 0);
+        assertTrue(cache.getInvalidations() > 0);
+        assertTrue(cache.getEvictions() > 0);
+    }
+}
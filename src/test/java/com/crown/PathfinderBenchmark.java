@@ -0,0 +1,70 @@
+package com.crown;
+
+import com.crown.maps.Point3D;
+import com.crown.maps.pathfinding.AStarPathfinder;
+import com.crown.maps.pathfinding.HierarchicalPathfinder;
+import com.crown.maps.pathfinding.JumpPointPathfinder;
+import com.crown.maps.pathfinding.PrimitiveAStarPathfinder;
+
+import java.util.Random;
+import java.util.function.BiFunction;
+
+/**
+ * Compares pathfinders on open, maze and cave maps.
+ * Not a test, run it manually: args are map size and count of queries per round.
+ */
+public class PathfinderBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        var open = new MapTest.TestMap(size, size, 1);
+        var maze = AStarPathfinderTest.mazeMap(size | 1, 1);
+        var cave = AStarPathfinderTest.caveMap(size, 2);
+        var rocks = AStarPathfinderTest.randomMap(size / 4, 8, 20, 3);
+        for (var map : new MapTest.TestMap[] {open, maze, cave, rocks}) {
+            var name = map == open ? "open" : map == maze ? "maze" : map == cave ? "cave" : "3d rocks";
+            var rnd = new Random(3);
+            var starts = new Point3D[queries];
+            var ends = new Point3D[queries];
+            for (int i = 0; i < queries; i++) {
+                starts[i] = AStarPathfinderTest.walkablePoint(map, rnd);
+                ends[i] = AStarPathfinderTest.walkablePoint(map, rnd);
+            }
+
+            var pathfinder = new AStarPathfinder(map);
+            var primitive = new PrimitiveAStarPathfinder(map);
+            var jps = new JumpPointPathfinder(map);
+            var hierarchical = new HierarchicalPathfinder(map);
+            run(name + " AStarPathfinder", starts, ends, pathfinder::findPath);
+            run(name + " PrimitiveAStarPathfinder", starts, ends, primitive::findPath);
+            run(name + " JumpPointPathfinder", starts, ends, jps::findPath);
+            // the first round builds the abstract graph
+            run(name + " HierarchicalPathfinder", starts, ends, hierarchical::findPath);
+        }
+    }
+
+    private static void run(
+        String name,
+        Point3D[] starts,
+        Point3D[] ends,
+        BiFunction<Point3D, Point3D, Point3D[]> findPath
+    ) {
+        double best = Double.MAX_VALUE;
+        long cost = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            cost = 0;
+            long time = System.nanoTime();
+            for (int i = 0; i < starts.length; i++) {
+                var path = findPath.apply(starts[i], ends[i]);
+                if (path != null) {
+                    cost += AStarPathfinderTest.costOf(path);
+                }
+            }
+            best = Math.min(best, (System.nanoTime() - time) / 1e3 / starts.length);
+        }
+        System.out.printf("%-32s %10.1f us/query, total cost %d%n", name, best, cost);
+    }
+}
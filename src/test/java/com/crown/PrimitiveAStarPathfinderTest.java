@@ -0,0 +1,64 @@
+package com.crown;
+
+import com.crown.maps.Point3D;
+import com.crown.maps.pathfinding.AStarPathfinder;
+import com.crown.maps.pathfinding.PrimitiveAStarPathfinder;
+import com.crown.maps.pathfinding.PrimitiveSearchContext;
+import com.crown.maps.pathfinding.heuristics.ManhattanHeuristic;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static com.crown.AStarPathfinderTest.assertValidPath;
+import static com.crown.AStarPathfinderTest.caveMap;
+import static com.crown.AStarPathfinderTest.costOf;
+import static com.crown.AStarPathfinderTest.mazeMap;
+import static com.crown.AStarPathfinderTest.walkablePoint;
+import static com.crown.AStarPathfinderTest.wallMap;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class PrimitiveAStarPathfinderTest {
+    @Test
+    public void testContextKept() {
+        var map = new MapTest.TestMap(1100, 1000, 1);
+        var pathfinder = new PrimitiveAStarPathfinder(map);
+        var context = new PrimitiveSearchContext();
+        // the whole map is searched
+        new MapTest.TestObject("wall", map, new Point3D(1, 0, 0), new Point3D(1, 1, 0), new Point3D(0, 1, 0));
+        assertNull(pathfinder.findPath(new Point3D(500, 500, 0), new Point3D(0, 0, 0), -1, context));
+        // arrays are kept for the next whole map search
+        assertEquals(context.getSlotsCount(), map.xSize * map.ySize);
+        assertEquals(pathfinder.findPath(new Point3D(2, 2, 0), new Point3D(5, 2, 0), -1, context).length, 4);
+        assertNull(pathfinder.findPath(new Point3D(700, 500, 0), new Point3D(0, 0, 0), -1, context));
+        assertEquals(context.getSlotsCount(), map.xSize * map.ySize);
+    }
+
+    @Test
+    public void testMatchesAStar() {
+        var maps = new MapTest.TestMap[] {wallMap(), mazeMap(41, 1), caveMap(48, 2)};
+        var rnd = new Random(3);
+        for (var map : maps) {
+            var pathfinder = new AStarPathfinder(map);
+            var primitive = new PrimitiveAStarPathfinder(map);
+            var straight = new PrimitiveAStarPathfinder(map, ManhattanHeuristic.get(), false);
+            for (int i = 0; i < 50; i++) {
+                var start = walkablePoint(map, rnd);
+                var end = walkablePoint(map, rnd);
+                var expected = pathfinder.findPath(start, end);
+                var path = primitive.findPath(start, end);
+                if (expected == null) {
+                    assertNull(path);
+                    continue;
+                }
+                assertValidPath(map, path, start, end);
+                assertEquals(costOf(path), costOf(expected));
+
+                var straightPath = straight.findPath(start, end);
+                assertValidPath(map, straightPath, start, end);
+                assertEquals(costOf(straightPath), 10 * (straightPath.length - 1));
+            }
+        }
+        assertEquals(new PrimitiveAStarPathfinder(maps[0]).findPath(new Point3D(2, 2, 0), new Point3D(17, 2, 0), 12), null);
+    }
+}
@@ -0,0 +1,88 @@
+package com.crown;
+
+import com.crown.maps.Point3D;
+import com.crown.time.Timeline;
+import com.crown.time.VirtualClock;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TimelineTest {
+    @Test
+    public void testMoveKeepsPast() {
+        var clock = new VirtualClock(60_000, () -> { }).startAt(Instant.ofEpochSecond(1_000_000));
+        clock.paused = true;
+        var state = new BaseGameState(new MapTest.TestMap(40, 40, 1));
+        Timeline.setMain(clock, state);
+        var map = state.getGlobalMap();
+        var player = new GameStateFileTest.TestOrganism("player", map, new Point3D(1, 1, 0));
+        state.players.add(player);
+        var npc = new GameStateFileTest.TestOrganism("npc", map, new Point3D(20, 5, 0));
+        var far = new GameStateFileTest.TestOrganism("far", map, new Point3D(35, 35, 0));
+
+        var traveller = Timeline.move(player, clock.now().minusSeconds(10)).getRight();
+        try {
+            var pastMap = traveller.getMap();
+            assertNotSame(pastMap, map);
+
+            // main is changed after the move, before the past map is read
+            npc.moveView(1, 0, 0);
+            npc.setWalkable(true);
+            map.remove(far);
+
+            // chunks of both objects are not touched by the move
+            var pastNpc = pastMap.get(20, 5, 0);
+            assertNotSame(pastNpc, npc);
+            assertEquals(pastNpc.getPt0(), new Point3D(20, 5, 0));
+            assertFalse(pastNpc.isWalkable());
+            assertSame(pastNpc.getMap(), pastMap);
+            assertNull(pastMap.get(21, 5, 0));
+            var pastFar = pastMap.get(35, 35, 0);
+            assertNotSame(pastFar, far);
+            assertSame(pastFar.getMap(), pastMap);
+            assertTrue(map.isWalkable(new Point3D(35, 35, 0)));
+        } finally {
+            Timeline.rollbackChanges(traveller);
+        }
+        assertSame(player.getMap(), map);
+        assertTrue(Timeline.alternatives.isEmpty());
+    }
+
+    @Test
+    public void testMoveFromMapOfGlobalMapClass() {
+        var clock = new VirtualClock(60_000, () -> { }).startAt(Instant.ofEpochSecond(1_000_000));
+        clock.paused = true;
+        var state = new BaseGameState(new MapTest.TestMap(20, 20, 1));
+        Timeline.setMain(clock, state);
+        // traveller's map is not the global one, but has the same class
+        var cave = new MapTest.TestMap(20, 20, 1);
+        var player = new GameStateFileTest.TestOrganism("player", cave, new Point3D(2, 2, 0));
+        state.players.add(player);
+        var rock = new GameStateFileTest.TestOrganism("rock", cave, new Point3D(17, 17, 0));
+
+        var result = Timeline.move(player, clock.now().minusSeconds(10));
+        var traveller = result.getRight();
+        try {
+            assertNotSame(traveller, player);
+            var pastCave = traveller.getMap();
+            assertNotSame(pastCave, cave);
+            assertSame(pastCave.getClass(), cave.getClass());
+            assertSame(pastCave.get(2, 2, 0), traveller);
+            var pastRock = pastCave.get(17, 17, 0);
+            assertNotSame(pastRock, rock);
+            assertSame(pastRock.getMap(), pastCave);
+        } finally {
+            Timeline.rollbackChanges(traveller);
+        }
+        assertSame(player.getMap(), cave);
+        assertSame(cave.get(2, 2, 0), player);
+        assertTrue(Timeline.alternatives.isEmpty());
+    }
+}